@@ -0,0 +1,67 @@
+package net.idea.wrapper.bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import insilico.core.model.InsilicoModel;
+import net.idea.wrapper.vega.ModelRegistry;
+
+/**
+ * Models and input data shared by the benchmarks.
+ * The key {@value #STUB_KEY} is the stub model, built without the Vega-GUI jar;
+ * with the vega profile any key of models.txt can be given with -p modelKey=KEY.
+ */
+public class BenchmarkModels {
+
+    public static final String STUB_KEY = "STUB";
+
+    /** SMILES of increasing size, repeated over the rows of the generated input. */
+    static final String[] SMILES = {
+            "CCO",
+            "c1ccccc1O",
+            "CC(=O)Oc1ccccc1C(=O)O",
+            "CN1C=NC2=C1C(=O)N(C(=O)N2C)C",
+            "CC(C)Cc1ccc(cc1)[C@@H](C)C(=O)O",
+            "O=C(O)C[C@H](O)C[C@H](O)CCn2c(c(c(c2c1ccc(F)cc1)c3ccccc3)C(=O)Nc4ccccc4)C(C)C"
+    };
+
+    static {
+        // not in models.txt; the class is only there when built with the stub profile
+        ModelRegistry.register(STUB_KEY, "net.idea.wrapper.bench.StubModel");
+    }
+
+    public static InsilicoModel load(String modelKey) throws Exception {
+        return ModelRegistry.getModelByKey(modelKey);
+    }
+
+    static String smiles(int row) {
+        return SMILES[row % SMILES.length];
+    }
+
+    /**
+     * Write a TSV input with a SMILES and an ID column and the given number of rows.
+     */
+    static void writeInput(File file, int rows) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            writer.write("ID\tSMILES\tNAME\n");
+            for (int i = 1; i <= rows; i++) {
+                writer.write("MOL" + i + "\t" + smiles(i) + "\tmolecule " + i + "\n");
+            }
+        }
+    }
+
+    static void delete(Path dir) throws IOException {
+        if (dir == null || !Files.exists(dir)) return;
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toArray(Path[]::new)) {
+                Files.delete(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package net.idea.wrapper.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import insilico.core.model.InsilicoModel;
+
+/**
+ * Constructing a model through {@link net.idea.wrapper.vega.ModelRegistry}, as the model pool does on a miss
+ * and on every reinitialization. With the stub model this is the registry overhead only;
+ * real models load their training set and descriptors here.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ModelRegistryBenchmark {
+
+    @Param({ BenchmarkModels.STUB_KEY })
+    String modelKey;
+
+    @Benchmark
+    public InsilicoModel construct() throws Exception {
+        return BenchmarkModels.load(modelKey);
+    }
+}
@@ -0,0 +1,94 @@
+package net.idea.wrapper.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import insilico.core.model.InsilicoModel;
+import insilico.core.model.InsilicoModelOutput;
+import insilico.core.molecule.InsilicoMolecule;
+import insilico.core.molecule.conversion.SmilesMolecule;
+import net.idea.wrapper.ModelResultWriter;
+
+/**
+ * Encoding and writing one model output per operation, as run_fast does for every row.
+ * See {@link ToRecordBenchmark} for building the record alone.
+ * Each iteration writes to a new result file in a temporary folder, deleted afterwards.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResultWriterBenchmark {
+
+    @Param({ BenchmarkModels.STUB_KEY })
+    String modelKey;
+
+    @Param({ "true", "false" })
+    boolean jsonl;
+
+    /** Records per flush, 1 is the wrapper default. */
+    @Param({ "1", "1000" })
+    int flushEvery;
+
+    private InsilicoModel model;
+    private InsilicoMolecule molecule;
+    private InsilicoModelOutput output;
+    private Map<String, Object> record;
+    private Path dir;
+    private ModelResultWriter writer;
+    private int index;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        model = BenchmarkModels.load(modelKey);
+        molecule = SmilesMolecule.Convert(BenchmarkModels.smiles(2));
+        molecule.SetId("MOL2");
+        output = model.Execute(molecule);
+        record = ModelResultWriter.toRecord(2, output, molecule, model);
+    }
+
+    @Setup(Level.Iteration)
+    public void openWriter() throws IOException {
+        dir = Files.createTempDirectory("vega-bench");
+        writer = new ModelResultWriter(dir.toFile(), jsonl, flushEvery, 0, 0);
+        // the TXT header is written with row 1 only
+        index = 1;
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeWriter() throws IOException {
+        writer.close();
+        BenchmarkModels.delete(dir);
+    }
+
+    /** A record from the prediction cache. */
+    @Benchmark
+    public void writeResult() throws IOException {
+        writer.writeResult(model, record, ++index);
+    }
+
+    /** A model output, encoded without building the record. */
+    @Benchmark
+    public void writeOutput() throws IOException {
+        writer.writeOutput(model, ++index, output, molecule);
+    }
+}
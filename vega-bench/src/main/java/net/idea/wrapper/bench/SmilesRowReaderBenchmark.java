@@ -0,0 +1,71 @@
+package net.idea.wrapper.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import net.idea.wrapper.MappedTsvSmilesReader;
+import net.idea.wrapper.SmilesReader;
+import net.idea.wrapper.SmilesRowReader;
+
+/**
+ * Reading a whole TSV input, as fast mode does before converting each row:
+ * with {@link SmilesRowReader}, or with {@link MappedTsvSmilesReader} (--mmap) if mapped.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SmilesRowReaderBenchmark {
+
+    @Param({ "10000" })
+    int rows;
+
+    @Param({ "false", "true" })
+    boolean mapped;
+
+    private Path dir;
+    private File input;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("vega-bench");
+        input = dir.resolve("input.tsv").toFile();
+        BenchmarkModels.writeInput(input, rows);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkModels.delete(dir);
+    }
+
+    @Benchmark
+    public int readRows(Blackhole blackhole) throws IOException {
+        try (SmilesReader reader = SmilesReader.open(input, "SMILES", "ID", mapped)) {
+            SmilesReader.Row row;
+            while ((row = reader.next()) != null) {
+                blackhole.consume(row);
+            }
+            return reader.getRowNum();
+        }
+    }
+}
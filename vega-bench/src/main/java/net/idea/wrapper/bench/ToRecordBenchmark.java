@@ -0,0 +1,57 @@
+package net.idea.wrapper.bench;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import insilico.core.model.InsilicoModel;
+import insilico.core.model.InsilicoModelOutput;
+import insilico.core.molecule.InsilicoMolecule;
+import insilico.core.molecule.conversion.SmilesMolecule;
+import net.idea.wrapper.ModelResultWriter;
+
+/**
+ * Building the record of a model output with {@link ModelResultWriter#toRecord},
+ * as done for rows that go to the prediction cache.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ToRecordBenchmark {
+
+    @Param({ BenchmarkModels.STUB_KEY })
+    String modelKey;
+
+    private InsilicoModel model;
+    private InsilicoMolecule molecule;
+    private InsilicoModelOutput output;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        model = BenchmarkModels.load(modelKey);
+        molecule = SmilesMolecule.Convert(BenchmarkModels.smiles(2));
+        molecule.SetId("MOL2");
+        output = model.Execute(molecule);
+    }
+
+    @Benchmark
+    public Map<String, Object> toRecord() throws IOException {
+        return ModelResultWriter.toRecord(2, output, molecule, model);
+    }
+}
@@ -0,0 +1,8 @@
+package insilico.core.ad.item;
+
+/**
+ * Stand-in for the Vega-GUI class of the same name, for benchmarks without the Vega-GUI jar.
+ */
+public interface iADIndex {
+    String GetIndexValueFormatted();
+}
@@ -0,0 +1,12 @@
+package insilico.core.alerts;
+
+import java.util.ArrayList;
+
+/**
+ * Stand-in for the Vega-GUI class of the same name, for benchmarks without the Vega-GUI jar.
+ */
+public class SAList {
+    public ArrayList<Object> getSAList() {
+        return new ArrayList<>();
+    }
+}
@@ -0,0 +1,10 @@
+package insilico.core.exception;
+
+/**
+ * Stand-in for the Vega-GUI class of the same name, for benchmarks without the Vega-GUI jar.
+ */
+public class InitFailureException extends Exception {
+    public InitFailureException(String message) {
+        super(message);
+    }
+}
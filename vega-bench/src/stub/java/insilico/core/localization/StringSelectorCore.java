@@ -0,0 +1,10 @@
+package insilico.core.localization;
+
+/**
+ * Stand-in for the Vega-GUI class of the same name, for benchmarks without the Vega-GUI jar.
+ */
+public class StringSelectorCore {
+    public static String getString(String key) {
+        return key;
+    }
+}
@@ -0,0 +1,7 @@
+package insilico.core.model;
+
+/**
+ * Stand-in for the Vega-GUI class of the same name, for benchmarks without the Vega-GUI jar.
+ */
+public abstract class InsilicoModel implements iInsilicoModel {
+}
@@ -0,0 +1,24 @@
+package insilico.core.model;
+
+/**
+ * Stand-in for the Vega-GUI class of the same name, for benchmarks without the Vega-GUI jar.
+ */
+public class InsilicoModelInfo {
+    private final String key;
+    private final String name;
+
+    public InsilicoModelInfo(String key, String name) {
+        this.key = key;
+        this.name = name;
+    }
+
+    public String getKey() { return key; }
+    public String getName() { return name; }
+    public String getVersion() { return "1.0"; }
+    public boolean hasAlerts() { return false; }
+    public String getTrainingSetURL() { return null; }
+    public String getUnits() { return null; }
+    public String getSummary() { return null; }
+    public String getClassValues() { return null; }
+    public String getVega() { return null; }
+}
@@ -0,0 +1,41 @@
+package insilico.core.model;
+
+import java.util.ArrayList;
+
+import insilico.core.ad.item.iADIndex;
+import insilico.core.alerts.SAList;
+
+/**
+ * Stand-in for the Vega-GUI class of the same name, for benchmarks without the Vega-GUI jar.
+ */
+public class InsilicoModelOutput {
+    private final String id;
+    private final String smiles;
+    private final short status;
+    private final String assessment;
+    private final String[] results;
+    private final iADIndex adi;
+    private final ArrayList<iADIndex> adIndex;
+
+    public InsilicoModelOutput(String id, String smiles, short status, String assessment, String[] results,
+            iADIndex adi, ArrayList<iADIndex> adIndex) {
+        this.id = id;
+        this.smiles = smiles;
+        this.status = status;
+        this.assessment = assessment;
+        this.results = results;
+        this.adi = adi;
+        this.adIndex = adIndex;
+    }
+
+    public String getMoleculeId() { return id; }
+    public String getMoleculeSMILES() { return smiles; }
+    public short getStatus() { return status; }
+    public String getAssessment() { return assessment; }
+    public String[] getResults() { return results; }
+    public String getExperimentalFormatted() { return "-"; }
+    public SAList getSAList() { return new SAList(); }
+    public iADIndex getADI() { return adi; }
+    public ArrayList<iADIndex> getADIndex() { return adIndex; }
+    public String getErrMessage() { return ""; }
+}
@@ -0,0 +1,16 @@
+package insilico.core.model;
+
+import insilico.core.molecule.InsilicoMolecule;
+
+/**
+ * Stand-in for the Vega-GUI class of the same name, for benchmarks without the Vega-GUI jar.
+ */
+public interface iInsilicoModel {
+    InsilicoModelInfo getInfo();
+
+    String[] GetResultsName();
+
+    String[] GetADItemsName();
+
+    InsilicoModelOutput Execute(InsilicoMolecule mol) throws Exception;
+}
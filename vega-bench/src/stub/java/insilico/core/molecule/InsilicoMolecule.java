@@ -0,0 +1,28 @@
+package insilico.core.molecule;
+
+import java.util.ArrayList;
+
+/**
+ * Stand-in for the Vega-GUI class of the same name, for benchmarks without the Vega-GUI jar.
+ */
+public class InsilicoMolecule {
+
+    public static class Messages {
+        private final ArrayList<String> messages = new ArrayList<>();
+
+        public int GetSize() { return messages.size(); }
+        public String GetMessages(int i) { return messages.get(i); }
+    }
+
+    private String id;
+    private String smiles;
+    private final Messages warnings = new Messages();
+    private final Messages errors = new Messages();
+
+    public void SetId(String id) { this.id = id; }
+    public String GetId() { return id; }
+    public void SetSMILES(String smiles) { this.smiles = smiles; }
+    public String GetSMILES() { return smiles; }
+    public Messages GetWarnings() { return warnings; }
+    public Messages GetErrors() { return errors; }
+}
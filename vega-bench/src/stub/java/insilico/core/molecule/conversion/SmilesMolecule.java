@@ -0,0 +1,15 @@
+package insilico.core.molecule.conversion;
+
+import insilico.core.molecule.InsilicoMolecule;
+
+/**
+ * Stand-in for the Vega-GUI class of the same name, for benchmarks without the Vega-GUI jar.
+ * Keeps the SMILES as it is, without parsing it.
+ */
+public class SmilesMolecule {
+    public static InsilicoMolecule Convert(String smiles) throws Exception {
+        InsilicoMolecule molecule = new InsilicoMolecule();
+        molecule.SetSMILES(smiles);
+        return molecule;
+    }
+}
@@ -0,0 +1,12 @@
+package insilico.core.tools.utils;
+
+import java.util.ArrayList;
+
+/**
+ * Stand-in for the Vega-GUI class of the same name, for benchmarks without the Vega-GUI jar.
+ */
+public class ModelUtilities {
+    public static String BuildSANameList(ArrayList<Object> alerts) {
+        return "";
+    }
+}
@@ -0,0 +1,15 @@
+package insilico.core.version;
+
+import insilico.core.exception.InitFailureException;
+
+/**
+ * Stand-in for the Vega-GUI class of the same name, for benchmarks without the Vega-GUI jar.
+ */
+public class InsilicoInfo {
+    public InsilicoInfo() throws InitFailureException {
+    }
+
+    public String getVersion() {
+        return "stub";
+    }
+}
@@ -0,0 +1,41 @@
+package net.idea.wrapper.bench;
+
+import java.util.ArrayList;
+
+import insilico.core.ad.item.iADIndex;
+import insilico.core.model.InsilicoModel;
+import insilico.core.model.InsilicoModelInfo;
+import insilico.core.model.InsilicoModelOutput;
+import insilico.core.molecule.InsilicoMolecule;
+
+/**
+ * Model with the output shape of a VEGA model (two results, two AD indices) and no computation,
+ * registered as {@value BenchmarkModels#STUB_KEY}.
+ */
+public class StubModel extends InsilicoModel {
+    private final InsilicoModelInfo info = new InsilicoModelInfo(BenchmarkModels.STUB_KEY, "Stub model");
+
+    @Override
+    public InsilicoModelInfo getInfo() {
+        return info;
+    }
+
+    @Override
+    public String[] GetResultsName() {
+        return new String[] { "Prediction", "Value" };
+    }
+
+    @Override
+    public String[] GetADItemsName() {
+        return new String[] { "Similarity", "Accuracy" };
+    }
+
+    @Override
+    public InsilicoModelOutput Execute(InsilicoMolecule mol) throws Exception {
+        ArrayList<iADIndex> adIndex = new ArrayList<>();
+        adIndex.add(() -> "0.9");
+        adIndex.add(() -> "0.8");
+        return new InsilicoModelOutput(mol.GetId(), mol.GetSMILES(), (short) 1, "Good",
+                new String[] { "Active", String.valueOf(mol.GetSMILES().length()) }, () -> "0.85", adIndex);
+    }
+}
@@ -0,0 +1,69 @@
+package net.idea.wrapper.vega.parallel;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Runs the VEGA wrapper inside this JVM instead of a subprocess.
+ * Both JARs are loaded once into an isolated class loader, so model classes,
+ * training sets and JIT-compiled code are shared by all models of a run.
+ */
+public class InProcessVegaRunner implements AutoCloseable {
+
+    static final String ENTRY_CLASS = "net.idea.wrapper.vega.EmbeddedMain";
+
+    private final URLClassLoader classLoader;
+    private final Method entryPoint;
+
+    public InProcessVegaRunner(String vegaJarPath, String vegaGuiJarPath) throws IOException {
+        URL[] urls = {
+                Paths.get(vegaJarPath).toUri().toURL(),
+                Paths.get(vegaGuiJarPath).toUri().toURL()
+        };
+        // Platform loader as parent: the wrapper uses its own picocli/jackson copies from the uber-jar
+        this.classLoader = new URLClassLoader("vega", urls, ClassLoader.getPlatformClassLoader());
+        try {
+            Class<?> entry = classLoader.loadClass(ENTRY_CLASS);
+            this.entryPoint = entry.getMethod("execute", String[].class);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            classLoader.close();
+            throw new IOException("VEGA wrapper JAR does not support in-process execution (missing " + ENTRY_CLASS
+                    + "): " + vegaJarPath, e);
+        }
+    }
+
+    /**
+     * Run the VEGA CLI with the given arguments on the calling thread.
+     *
+     * @param args subcommand followed by its arguments, see {@link VegaProcessBuilder#buildArguments(String)}
+     * @return exit code of the VEGA command
+     * @throws Exception if the command could not be invoked or threw an error
+     */
+    public int run(List<String> args) throws Exception {
+        Thread current = Thread.currentThread();
+        ClassLoader previous = current.getContextClassLoader();
+        current.setContextClassLoader(classLoader);
+        try {
+            Object exitCode = entryPoint.invoke(null, (Object) args.toArray(new String[0]));
+            return (Integer) exitCode;
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        } finally {
+            current.setContextClassLoader(previous);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        classLoader.close();
+    }
+}
@@ -0,0 +1,133 @@
+package net.idea.wrapper.vega.parallel;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Memory available to the model JVMs, in MB, and the heap each of them gets.
+ * A model's -Xmx is its peak heap in previous runs (see {@link RuntimeHistory}) times a margin,
+ * or a default for models without history. Every running model reserves its -Xmx plus a fixed
+ * allowance for metaspace, code cache and thread stacks; a model starts only when its reservation
+ * fits in what is left of the budget.
+ */
+public class MemoryBudget {
+
+    /** Memory of a JVM besides the heap. */
+    static final int NON_HEAP_MB = 256;
+    /** Smallest -Xmx given to a model. */
+    static final int MIN_HEAP_MB = 256;
+    /** Part of the memory limit used for models, the rest is left for this JVM and the OS. */
+    private static final double LIMIT_FRACTION = 0.9;
+
+    private final int budgetMB;
+    private final double margin;
+    private final int defaultHeapMB;
+    private final RuntimeHistory history;
+    private final Semaphore available;
+
+    /**
+     * @param budgetMB      memory for all running models
+     * @param margin        -Xmx is the recorded peak heap times this
+     * @param defaultHeapMB -Xmx of models without recorded peak heap
+     * @param history       recorded peak heaps, may be null
+     */
+    public MemoryBudget(int budgetMB, double margin, int defaultHeapMB, RuntimeHistory history) {
+        this.budgetMB = budgetMB;
+        this.margin = margin;
+        this.defaultHeapMB = defaultHeapMB;
+        this.history = history;
+        this.available = new Semaphore(budgetMB, true);
+    }
+
+    public int getBudgetMB() {
+        return budgetMB;
+    }
+
+    /**
+     * -Xmx of a model in MB, rounded up to 64 MB: its peak heap after GC times the margin,
+     * and more than the largest -Xmx it ran out of heap with.
+     */
+    public int heapFor(String modelKey) {
+        long peak = history != null ? history.getPeakHeapMB(modelKey) : -1;
+        long outOfMemory = history != null ? history.getOutOfMemoryHeapMB(modelKey) : -1;
+        if (peak <= 0 && outOfMemory <= 0) {
+            return defaultHeapMB;
+        }
+        long heap = (long) Math.ceil(Math.max(peak, outOfMemory) * margin);
+        heap = (heap + 63) / 64 * 64;
+        return (int) Math.max(MIN_HEAP_MB, heap);
+    }
+
+    /**
+     * Memory reserved for a JVM with this heap; a JVM larger than the whole budget takes all of it.
+     */
+    public int reservationFor(int heapMB) {
+        return Math.min(budgetMB, heapMB + NON_HEAP_MB);
+    }
+
+    /**
+     * Wait until the memory is free and reserve it.
+     */
+    public void acquire(int mb) throws InterruptedException {
+        available.acquire(mb);
+    }
+
+    public void release(int mb) {
+        available.release(mb);
+    }
+
+    /**
+     * Memory for the models: a part of the container memory limit (cgroup v2 or v1),
+     * or of the physical memory when there is no limit.
+     *
+     * @return MB, or -1 if it cannot be detected
+     */
+    public static int detectBudgetMB() {
+        long limit = cgroupLimitBytes();
+        if (limit <= 0) {
+            limit = physicalMemoryBytes();
+        }
+        if (limit <= 0) {
+            return -1;
+        }
+        return (int) (limit * LIMIT_FRACTION / (1024 * 1024));
+    }
+
+    /**
+     * Memory limit of the container, -1 if there is none.
+     */
+    static long cgroupLimitBytes() {
+        // cgroup v2: "max" or bytes
+        long limit = readLimit(Paths.get("/sys/fs/cgroup/memory.max"));
+        if (limit > 0) {
+            return limit;
+        }
+        // cgroup v1: a huge number when not limited
+        limit = readLimit(Paths.get("/sys/fs/cgroup/memory/memory.limit_in_bytes"));
+        if (limit > 0 && limit < physicalMemoryBytes()) {
+            return limit;
+        }
+        return -1;
+    }
+
+    static long readLimit(Path file) {
+        try {
+            String value = Files.readString(file).trim();
+            return "max".equals(value) ? -1 : Long.parseLong(value);
+        } catch (IOException | NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static long physicalMemoryBytes() {
+        java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getTotalMemorySize();
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,72 @@
+package net.idea.wrapper.vega.parallel;
+
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Merges the per-model result files of an output folder into one table, see {@link ResultMerger}.
+ */
+@Command(name = "merge", mixinStandardHelpOptions = true, description = "Merge the per-model result files of an output folder into one table with a row per molecule")
+public class MergeCommand implements Runnable {
+
+    @Option(names = { "-o", "--output" }, required = true, description = "Output directory with resultsw_MODEL files")
+    String outputDir;
+
+    @Option(names = { "-m",
+            "--model" }, description = "Model key or file with model keys (tab-delimited, first column) (default: all result files in the output directory)")
+    String model;
+
+    @Option(names = { "--merged-file" }, description = "File to write (default: " + ResultMerger.DEFAULT_FILE + " in the output directory)")
+    String mergedFile;
+
+    @Option(names = { "--compress" }, description = "Compress the merged file, none or gzip (default: none)")
+    String compress;
+
+    @Override
+    public void run() {
+        try {
+            Path outputPath = Paths.get(outputDir);
+            List<String> models;
+            if (model == null) {
+                models = ResultMerger.modelKeys(outputPath);
+            } else if (Files.isRegularFile(Paths.get(model))) {
+                models = ModelFileParser.parseModelFile(Paths.get(model));
+            } else {
+                models = List.of(model);
+            }
+            Path target = mergedFile(outputPath, mergedFile, compress);
+            long start = System.currentTimeMillis();
+            int rows = new ResultMerger(outputPath).merge(models, target, isGzip(compress));
+            System.out.println("Merged " + models.size() + " models, " + rows + " rows into " + target + " in "
+                    + ProgressTracker.formatDuration(System.currentTimeMillis() - start));
+        } catch (Exception e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    static boolean isGzip(String compress) {
+        if (compress == null || compress.equalsIgnoreCase("none")) {
+            return false;
+        }
+        if (compress.equalsIgnoreCase("gzip")) {
+            return true;
+        }
+        throw new IllegalArgumentException("Unknown compression: " + compress + ", expected none or gzip");
+    }
+
+    /**
+     * @return the merged file, results_merged.txt(.gz) in the output directory unless given
+     */
+    static Path mergedFile(Path outputDir, String mergedFile, String compress) {
+        if (mergedFile != null) {
+            return Paths.get(mergedFile);
+        }
+        return outputDir.resolve(ResultMerger.DEFAULT_FILE + (isGzip(compress) ? ".gz" : ""));
+    }
+}
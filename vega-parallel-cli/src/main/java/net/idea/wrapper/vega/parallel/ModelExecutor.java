@@ -4,10 +4,15 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Executes VEGA models in parallel using a worker pool.
@@ -15,17 +20,105 @@ import java.util.concurrent.TimeUnit;
 public class ModelExecutor {
 
     private final VegaProcessBuilder processBuilder;
-    private final ProgressTracker progressTracker;
+    private final InProcessVegaRunner inProcessRunner;
+    private final WorkerPool workerPool;
+    private ProgressTracker progressTracker;
     private final int workers;
     private final long timeout;
+    private RuntimeHistory history;
+    private MemoryBudget memoryBudget;
+    private int totalRows;
+    private boolean recordHistory;
 
     public ModelExecutor(VegaProcessBuilder processBuilder, int workers, int totalModels, long timeout) {
+        this(processBuilder, null, null, workers, totalModels, timeout);
+    }
+
+    /**
+     * @param inProcessRunner if not null, models run inside this JVM instead of one subprocess per model
+     */
+    public ModelExecutor(VegaProcessBuilder processBuilder, InProcessVegaRunner inProcessRunner, int workers,
+            int totalModels, long timeout) {
+        this(processBuilder, inProcessRunner, null, workers, totalModels, timeout);
+    }
+
+    /**
+     * @param workerPool if not null, models run in long-lived worker JVMs instead of one subprocess per model
+     */
+    public ModelExecutor(VegaProcessBuilder processBuilder, WorkerPool workerPool, int workers,
+            int totalModels, long timeout) {
+        this(processBuilder, null, workerPool, workers, totalModels, timeout);
+    }
+
+    /** Figures of one task, for the runtime history. */
+    private static class TaskRun {
+        long wallMs = -1;
+        long waitMs = 0;
+        long processingMs = -1;
+        long peakHeapMB = -1;
+        long[] dedup;
+        boolean outOfMemory = false;
+
+        void parse(String line) {
+            long ms = RuntimeHistory.parseProcessingMs(line);
+            if (ms >= 0) {
+                processingMs = ms;
+            }
+            long mb = RuntimeHistory.parsePeakHeapMB(line);
+            if (mb >= 0) {
+                peakHeapMB = mb;
+            }
+            long[] rows = ProgressTracker.parseDedup(line);
+            if (rows != null) {
+                dedup = rows;
+            }
+            if (line.contains("OutOfMemoryError")) {
+                outOfMemory = true;
+            }
+        }
+    }
+
+    private ModelExecutor(VegaProcessBuilder processBuilder, InProcessVegaRunner inProcessRunner,
+            WorkerPool workerPool, int workers, int totalModels, long timeout) {
+        if (inProcessRunner != null && timeout > 0) {
+            throw new IllegalArgumentException("A timeout cannot stop models running in-process");
+        }
         this.processBuilder = processBuilder;
+        this.inProcessRunner = inProcessRunner;
+        this.workerPool = workerPool;
         this.workers = workers;
         this.progressTracker = new ProgressTracker(totalModels);
         this.timeout = timeout;
     }
 
+    /**
+     * Order tasks longest first by their runtimes in previous runs, and record the runtimes of this run.
+     *
+     * @param history   runtimes of previous runs, saved by the caller after the run
+     * @param totalRows rows of the input
+     * @param record    false to use the history for scheduling only
+     */
+    public void setRuntimeHistory(RuntimeHistory history, int totalRows, boolean record) {
+        this.history = history;
+        this.totalRows = totalRows;
+        this.recordHistory = record;
+    }
+
+    /**
+     * Seconds between progress lines when the output is not a console, 0 for none. Set before executing.
+     */
+    public void setProgressInterval(double seconds) {
+        this.progressTracker = new ProgressTracker(progressTracker.getTotalModels(), (long) (seconds * 1000));
+    }
+
+    /**
+     * Start subprocesses with -Xmx from the budget, and only when their memory fits in it.
+     * Used for one subprocess per model; persistent workers get their heap when the pool starts them.
+     */
+    public void setMemoryBudget(MemoryBudget memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
     /**
      * Execute all models in parallel.
      * 
@@ -33,15 +126,56 @@ public class ModelExecutor {
      * @return true if all models completed successfully
      */
     public boolean executeModels(List<String> models) {
+        List<ModelTask> tasks = new ArrayList<>();
+        for (String modelKey : models) {
+            tasks.add(ModelTask.whole(modelKey));
+        }
+        return executeTasks(tasks, null);
+    }
+
+    /**
+     * Execute tasks in parallel. A model split into shards is complete when all its shards are;
+     * its shard outputs are then joined by the merger.
+     * 
+     * @param tasks  models or model shards to execute
+     * @param merger joins shard outputs, may be null if there are no shards
+     * @return true if all models completed successfully
+     */
+    public boolean executeTasks(List<ModelTask> tasks, ShardMerger merger) {
         ExecutorService executor = Executors.newFixedThreadPool(workers);
+        if (history != null) {
+            tasks = schedule(tasks);
+        }
 
         System.out.println("Starting parallel execution with " + workers + " workers...");
-        System.out.println("Total models to process: " + models.size());
+        System.out.println("Total models to process: " + progressTracker.getTotalModels());
+        if (tasks.size() > progressTracker.getTotalModels()) {
+            System.out.println("Total tasks (model shards) to process: " + tasks.size());
+        }
         System.out.println();
+        progressTracker.start();
+
+        // shards still running and failures, per model
+        Map<String, AtomicInteger> remaining = new ConcurrentHashMap<>();
+        Map<String, String> failures = new ConcurrentHashMap<>();
+        for (ModelTask task : tasks) {
+            remaining.computeIfAbsent(task.getModelKey(), k -> new AtomicInteger()).incrementAndGet();
+        }
 
         // Submit all model execution tasks
-        for (String modelKey : models) {
-            executor.submit(() -> executeModel(modelKey));
+        for (ModelTask task : tasks) {
+            executor.submit(() -> {
+                TaskRun run = new TaskRun();
+                String error = executeTask(task, run);
+                if (run.dedup != null) {
+                    progressTracker.addDedup(run.dedup[0], run.dedup[1]);
+                }
+                if (error == null && recordHistory) {
+                    history.record(task.getModelKey(), task.getRowCount(totalRows), run.wallMs, run.processingMs,
+                            run.peakHeapMB);
+                }
+                taskFinished(task, error, remaining, failures, merger);
+            });
         }
 
         // Shutdown executor and wait for completion
@@ -61,13 +195,117 @@ public class ModelExecutor {
     }
 
     /**
-     * Execute a single model.
+     * Longest processing time first: the fixed thread pool starts tasks in submission order,
+     * so the longest tasks start first and the short ones fill the gaps at the end.
+     */
+    private List<ModelTask> schedule(List<ModelTask> tasks) {
+        List<ModelTask> ordered = history.schedule(tasks, totalRows);
+        long known = tasks.stream().map(ModelTask::getModelKey).distinct().filter(history::isKnown).count();
+        long models = tasks.stream().map(ModelTask::getModelKey).distinct().count();
+        if (known > 0) {
+            long predicted = history.predictMakespan(ordered, workers, totalRows);
+            progressTracker.setPredictedMakespan(predicted);
+            System.out.println("Scheduling longest first: runtime history for " + known + " of " + models
+                    + " models, predicted makespan " + ProgressTracker.formatDuration(predicted));
+        }
+        return ordered;
+    }
+
+    private void taskFinished(ModelTask task, String error, Map<String, AtomicInteger> remaining,
+            Map<String, String> failures, ShardMerger merger) {
+        String modelKey = task.getModelKey();
+        if (!task.isShard()) {
+            if (error == null) {
+                progressTracker.modelCompleted(modelKey);
+            } else {
+                progressTracker.modelFailed(modelKey, error);
+            }
+            return;
+        }
+        if (error != null) {
+            failures.putIfAbsent(modelKey, task.getLabel() + " " + error);
+        }
+        progressTracker.shardFinished(task.getLabel());
+        if (remaining.get(modelKey).decrementAndGet() > 0) {
+            return;
+        }
+        // last shard of the model
+        if (failures.containsKey(modelKey)) {
+            progressTracker.modelFailed(modelKey, failures.get(modelKey) + " (shard outputs kept in .shards)");
+            return;
+        }
+        try {
+            merger.merge(modelKey, task.getShardCount());
+            progressTracker.modelCompleted(modelKey);
+        } catch (IOException e) {
+            progressTracker.modelFailed(modelKey, "Merging shards failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Execute a single model or shard.
+     * 
+     * @param run receives the wall time and the figures logged by the wrapper
+     * @return null on success, otherwise the error
      */
-    private void executeModel(String modelKey) {
-        progressTracker.modelStarted(modelKey);
+    private String executeTask(ModelTask task, TaskRun run) {
+        long start = System.currentTimeMillis();
+        try {
+            if (inProcessRunner != null) {
+                return executeTaskInProcess(task);
+            }
+            if (workerPool != null) {
+                return executeTaskInWorker(task, run);
+            }
+            if (memoryBudget != null) {
+                return executeTaskInBudget(task, run);
+            }
+            progressTracker.modelStarted(task.getLabel());
+            return executeTaskInSubprocess(task, 0, run);
+        } finally {
+            run.wallMs = System.currentTimeMillis() - start - run.waitMs;
+        }
+    }
 
+    /**
+     * Execute a single model or shard in a subprocess with -Xmx from the memory budget, once its memory is free.
+     * When the JVM runs out of heap, its -Xmx is recorded as the peak heap of the model,
+     * so the next run gives it more.
+     */
+    private String executeTaskInBudget(ModelTask task, TaskRun run) {
+        int heapMB = memoryBudget.heapFor(task.getModelKey());
+        int reserved = memoryBudget.reservationFor(heapMB);
+        long waitStart = System.currentTimeMillis();
         try {
-            ProcessBuilder pb = processBuilder.createProcessForModel(modelKey);
+            memoryBudget.acquire(reserved);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "Interrupted";
+        }
+        run.waitMs = System.currentTimeMillis() - waitStart;
+        try {
+            progressTracker.modelStarted(task.getLabel());
+            String error = executeTaskInSubprocess(task, heapMB, run);
+            if (error != null && run.outOfMemory) {
+                if (history != null) {
+                    history.recordOutOfMemory(task.getModelKey(), heapMB);
+                }
+                error += " (out of heap with -Xmx" + heapMB + "m)";
+            }
+            return error;
+        } finally {
+            memoryBudget.release(reserved);
+        }
+    }
+
+    /**
+     * Execute a single model or shard in a new JVM.
+     *
+     * @param heapMB -Xmx of the JVM, 0 for the default
+     */
+    private String executeTaskInSubprocess(ModelTask task, int heapMB, TaskRun run) {
+        try {
+            ProcessBuilder pb = processBuilder.createProcessForTask(task, heapMB);
             Process process = pb.start();
 
             // Capture output (optional - can be disabled for performance)
@@ -77,6 +315,7 @@ public class ModelExecutor {
                 String line;
                 while ((line = reader.readLine()) != null) {
                     output.append(line).append("\n");
+                    run.parse(line);
                 }
             }
 
@@ -92,7 +331,7 @@ public class ModelExecutor {
             if (finished) {
                 int exitCode = process.exitValue();
                 if (exitCode == 0) {
-                    progressTracker.modelCompleted(modelKey);
+                    return null;
                 } else {
                     String errorMsg = "Exit code: " + exitCode;
                     // Include last few lines of output if available
@@ -100,18 +339,67 @@ public class ModelExecutor {
                     if (lines.length > 0) {
                         errorMsg += " - Last output: " + lines[lines.length - 1];
                     }
-                    progressTracker.modelFailed(modelKey, errorMsg);
+                    return errorMsg;
                 }
             } else {
                 process.destroyForcibly();
-                progressTracker.modelFailed(modelKey, "Timed out after " + timeout + " minutes");
+                return "Timed out after " + timeout + " minutes";
             }
 
         } catch (IOException e) {
-            progressTracker.modelFailed(modelKey, "IO error: " + e.getMessage());
+            return "IO error: " + e.getMessage();
         } catch (InterruptedException e) {
-            progressTracker.modelFailed(modelKey, "Interrupted");
             Thread.currentThread().interrupt();
+            return "Interrupted";
+        }
+    }
+
+    /**
+     * Execute a single model or shard in a persistent worker JVM.
+     * On timeout the worker is killed and replaced by a new one for the next task.
+     */
+    private String executeTaskInWorker(ModelTask task, TaskRun run) {
+        progressTracker.modelStarted(task.getLabel());
+
+        try {
+            WorkerPool.JobResult result = workerPool.run(task, timeout);
+            run.processingMs = result.processingMs;
+            run.peakHeapMB = result.peakHeapMB;
+            run.dedup = result.dedup;
+            if (result.exitCode == 0) {
+                return null;
+            }
+            String errorMsg = "Exit code: " + result.exitCode;
+            if (result.lastOutput != null) {
+                errorMsg += " - Last output: " + result.lastOutput;
+            }
+            return errorMsg;
+        } catch (TimeoutException e) {
+            return "Timed out after " + timeout + " minutes";
+        } catch (IOException e) {
+            return "IO error: " + e.getMessage();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "Interrupted";
+        }
+    }
+
+    /**
+     * Execute a single model or shard inside this JVM, on the calling worker thread.
+     * There is no timeout: a model thread cannot be stopped, and an abandoned one would keep writing
+     * the files of the model while the next task or a retry writes them.
+     * Only the wall time is taken for the runtime history: the heap and the threads of timed out molecules
+     * are shared by all tasks running in this JVM, so the peak heap is left as recorded by subprocess runs.
+     */
+    private String executeTaskInProcess(ModelTask task) {
+        progressTracker.modelStarted(task.getLabel());
+
+        try {
+            List<String> args = processBuilder.buildArguments(task);
+            int exitCode = inProcessRunner.run(args);
+            return exitCode == 0 ? null : "Exit code: " + exitCode;
+        } catch (Exception e) {
+            return e.getClass().getSimpleName() + ": " + e.getMessage();
         }
     }
 }
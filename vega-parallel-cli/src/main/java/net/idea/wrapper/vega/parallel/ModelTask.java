@@ -0,0 +1,161 @@
+package net.idea.wrapper.vega.parallel;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * One unit of work: a model applied to all input rows, or to one row range (shard) of the input.
+ * Rows are numbered as in the wrapper's "No." column: non-empty lines after the header, from 1.
+ * A shard covers rows startRow+1 to endRow and writes to its own folder under output/.shards,
+ * see {@link ShardMerger}.
+ */
+public class ModelTask {
+
+    private final String modelKey;
+    private final int shard;
+    private final int shardCount;
+    private final int startRow;
+    private final int endRow;
+
+    public ModelTask(String modelKey, int shard, int shardCount, int startRow, int endRow) {
+        this.modelKey = modelKey;
+        this.shard = shard;
+        this.shardCount = shardCount;
+        this.startRow = startRow;
+        this.endRow = endRow;
+    }
+
+    /**
+     * Task for all rows of the input.
+     */
+    public static ModelTask whole(String modelKey) {
+        return new ModelTask(modelKey, 0, 1, 0, -1);
+    }
+
+    public String getModelKey() {
+        return modelKey;
+    }
+
+    public int getShard() {
+        return shard;
+    }
+
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    /** Rows up to this one are skipped. */
+    public int getStartRow() {
+        return startRow;
+    }
+
+    /** Last row of the shard, -1 for all rows. */
+    public int getEndRow() {
+        return endRow;
+    }
+
+    /**
+     * Number of input rows of this task.
+     *
+     * @param totalRows rows of the input, for a task covering all rows
+     */
+    public int getRowCount(int totalRows) {
+        return isShard() ? endRow - startRow : totalRows;
+    }
+
+    public boolean isShard() {
+        return shardCount > 1;
+    }
+
+    /**
+     * Model key, with the shard number if this is a shard, e.g. BCF[2/8].
+     */
+    public String getLabel() {
+        return isShard() ? modelKey + "[" + (shard + 1) + "/" + shardCount + "]" : modelKey;
+    }
+
+    /**
+     * Output folder of this task: the run's output folder, or the shard's folder under it.
+     */
+    public Path getOutputDir(Path outputDir) {
+        return isShard() ? shardDir(outputDir, modelKey, shard) : outputDir;
+    }
+
+    static Path shardDir(Path outputDir, String modelKey, int shard) {
+        return outputDir.resolve(".shards").resolve(modelKey).resolve(String.format("%03d", shard));
+    }
+
+    /**
+     * Split the models into tasks. Models are only split when there are fewer models than workers:
+     * each model gets up to workers/models shards (rounded up) of at least minShardRows rows.
+     *
+     * @param rows number of input rows to process, 0 or less if unknown (no sharding)
+     * @return tasks ordered by model, then by shard
+     */
+    public static List<ModelTask> plan(List<String> models, int rows, int workers, int minShardRows) {
+        int shards = 1;
+        if (!models.isEmpty() && models.size() < workers && rows > 0) {
+            int byWorkers = (workers + models.size() - 1) / models.size();
+            int byRows = Math.max(1, rows / Math.max(1, minShardRows));
+            shards = Math.min(byWorkers, byRows);
+        }
+        List<ModelTask> tasks = new ArrayList<>();
+        for (String model : models) {
+            if (shards <= 1) {
+                tasks.add(whole(model));
+                continue;
+            }
+            int shardRows = (rows + shards - 1) / shards;
+            int count = (rows + shardRows - 1) / shardRows;
+            for (int k = 0; k < count; k++) {
+                tasks.add(new ModelTask(model, k, count, k * shardRows, Math.min(rows, (k + 1) * shardRows)));
+            }
+        }
+        return tasks;
+    }
+
+    /**
+     * Count the input rows as the wrapper numbers them: non-empty lines after the header.
+     */
+    public static int countRows(Path inputFile) throws IOException {
+        int rows = 0;
+        // single-byte charset: only line breaks and whitespace matter here
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(openInput(inputFile), StandardCharsets.ISO_8859_1))) {
+            if (reader.readLine() == null) {
+                return 0;
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    rows++;
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Open the input file, decompressing it if it starts with the gzip magic bytes, as the wrapper does.
+     */
+    static InputStream openInput(Path inputFile) throws IOException {
+        boolean gzip;
+        try (InputStream in = Files.newInputStream(inputFile)) {
+            gzip = in.read() == 0x1F && in.read() == 0x8B;
+        }
+        InputStream in = Files.newInputStream(inputFile);
+        return gzip ? new GZIPInputStream(in, 64 * 1024) : in;
+    }
+
+    @Override
+    public String toString() {
+        return getLabel();
+    }
+}
@@ -2,7 +2,10 @@ package net.idea.wrapper.vega.parallel;
 
 import io.quarkus.picocli.runtime.annotations.TopCommand;
 import picocli.CommandLine.Command;
+import picocli.CommandLine.Model.CommandSpec;
 import picocli.CommandLine.Option;
+import picocli.CommandLine.ParameterException;
+import picocli.CommandLine.Spec;
 
 import java.io.IOException;
 import java.nio.file.Files;
@@ -15,7 +18,8 @@ import java.util.List;
  * Main CLI command for parallel VEGA execution.
  */
 @TopCommand
-@Command(name = "vega-parallel", mixinStandardHelpOptions = true, version = "1.0.1", description = "Parallel execution wrapper for VEGA CLI")
+@Command(name = "vega-parallel", mixinStandardHelpOptions = true, version = "1.0.1", description = "Parallel execution wrapper for VEGA CLI", subcommands = {
+        MergeCommand.class })
 public class ParallelVegaCommand implements Runnable {
 
     // Parallel execution options
@@ -28,15 +32,18 @@ public class ParallelVegaCommand implements Runnable {
     @Option(names = { "--vega-gui-jar" }, description = "Path to Vega-GUI JAR file (default: auto-detect)")
     String vegaGuiJarPath;
 
+    @Option(names = { "--vega-native" }, description = "Path to the native VEGA wrapper executable (built with -Pnative), run instead of a JVM per model; the JARs are not needed")
+    String vegaNativePath;
+
     // Original VEGA options (pass-through)
     @Option(names = { "-m",
-            "--model" }, required = true, description = "Model key or file with model keys (tab-delimited, first column)")
+            "--model" }, description = "Model key or file with model keys (tab-delimited, first column)")
     String model;
 
-    @Option(names = { "-i", "--input" }, required = true, description = "Path to input SMILES or .txt file")
+    @Option(names = { "-i", "--input" }, description = "Path to input SMILES or .txt file")
     String inputFile;
 
-    @Option(names = { "-o", "--output" }, required = true, description = "Output directory for all model results")
+    @Option(names = { "-o", "--output" }, description = "Output directory for all model results")
     String outputDir;
 
     @Option(names = { "-s", "--smiles" }, description = "Input SMILES")
@@ -62,30 +69,161 @@ public class ParallelVegaCommand implements Runnable {
             "--reinicialize-model" }, description = "Reinitialize model on every N rows. Default -1 (do not reinitialize)")
     Integer reinitializeModel;
 
+    @Option(names = {
+            "--reinitialize-on-heap" }, description = "Fast mode: reinitialize the model when the heap retained after GC is above this fraction of max heap, e.g. 0.8 (default: -1, disabled)")
+    Double reinitializeOnHeap;
+
+    @Option(names = { "-t",
+            "--threads" }, description = "Number of threads processing molecules of one model in fast mode (default: 1)")
+    Integer threads;
+
+    @Option(names = {
+            "--async-writer" }, description = "Write results on a separate I/O thread in fast mode")
+    boolean asyncWriter;
+
+    @Option(names = {
+            "--flush-every" }, description = "Flush result files every N records in fast mode (default: 1)")
+    Integer flushEvery;
+
+    @Option(names = {
+            "--flush-interval" }, description = "Also flush result files every N ms in fast mode (default: 0, disabled)")
+    Long flushInterval;
+
+    @Option(names = {
+            "--chunk-size" }, description = "Without fast mode: models read, predict and append to their report N molecules at a time (default: 0, all at once)")
+    Integer chunkSize;
+
+    @Option(names = {
+            "--mmap" }, description = "Fast mode: read the input through a memory map with a row index, so shards and --resume seek to their first row")
+    boolean mmap;
+
+    @Option(names = {
+            "--dedup" }, description = "Fast mode: predict each structure once per model and reuse the result for its other rows, exact or canonical (salts and mixtures in any component order)")
+    String dedup;
+
+    @Option(names = {
+            "--compress" }, description = "Fast mode: compress result files, none or gzip (resultsw_MODEL.jsonl.gz) (default: none)")
+    String compress;
+
+    @Option(names = {
+            "--molecule-timeout" }, description = "Fast mode: seconds allowed for one molecule; longer ones get an error record with STATUS -1 (default: 0, no limit)")
+    Double moleculeTimeout;
+
+    @Option(names = {
+            "--metrics-interval" }, description = "Seconds between updates of each model's metrics_MODEL.json while it runs, 0 only at the end (default: 60)")
+    Double metricsInterval;
+
+    @Option(names = {
+            "--no-metrics" }, description = "Do not write metrics_MODEL.json files")
+    boolean noMetrics;
+
+    @Option(names = {
+            "--progress-interval" }, description = "Seconds between progress lines when the output is not a console, 0 for none (default: 30)")
+    double progressInterval = ProgressTracker.DEFAULT_PLAIN_INTERVAL_MILLIS / 1000.0;
+
     @Option(names = {
             "--timeout" }, description = "Timeout in minutes for single model execution (default: -1, no timeout)")
     Long timeout;
 
+    @Option(names = {
+            "--resume" }, description = "Fast mode: skip models whose results are complete and continue interrupted ones from their checkpoint")
+    boolean resume;
+
+    @Option(names = {
+            "--in-process" }, description = "Run models inside this JVM on the worker thread pool instead of one subprocess per model")
+    boolean inProcess;
+
+    @Option(names = {
+            "--persistent-workers" }, description = "Keep --workers wrapper JVMs running and send them one model after another, instead of one new JVM per model")
+    boolean persistentWorkers;
+
+    @Option(names = {
+            "--worker-max-jobs" }, description = "Replace a persistent worker after N models (default: 20, 0 for no limit)")
+    int workerMaxJobs = 20;
+
+    @Option(names = {
+            "--worker-max-heap" }, description = "Replace a persistent worker when its heap after a model is above N MB (default: 0, no limit)")
+    long workerMaxHeap = 0;
+
+    @Option(names = {
+            "--no-shard" }, description = "Do not split the input into row ranges when there are fewer models than workers")
+    boolean noShard;
+
+    @Option(names = {
+            "--min-shard-rows" }, description = "Minimum number of input rows per shard (default: 1000)")
+    int minShardRows = 1000;
+
+    @Option(names = {
+            "--history" }, description = "File with model runtimes of previous runs, used to start the longest models first (default: ~/.vega-parallel/runtime-history.tsv)")
+    String historyFile;
+
+    @Option(names = {
+            "--no-history" }, description = "Run models in file order and do not record their runtimes")
+    boolean noHistory;
+
+    @Option(names = {
+            "--memory-budget" }, description = "Memory in MB for all model JVMs running at once (default: 90% of the container limit or of the physical memory, 0 to start models without -Xmx)")
+    Integer memoryBudget;
+
+    @Option(names = {
+            "--heap-margin" }, description = "-Xmx of a model JVM is its peak heap in previous runs times this (default: 1.5)")
+    double heapMargin = 1.5;
+
+    @Option(names = {
+            "--default-heap" }, description = "-Xmx in MB of models without recorded peak heap (default: 2048)")
+    int defaultHeap = 2048;
+
+    @Option(names = {
+            "--merge" }, description = "After the models, merge their result files into " + ResultMerger.DEFAULT_FILE + ", one row per molecule with MODEL.column columns")
+    boolean merge;
+
     @picocli.CommandLine.Parameters(index = "0", arity = "0..1", description = "Subcommand to execute (default: vega)", defaultValue = "vega")
     String command;
 
+    @Spec
+    CommandSpec spec;
+
     @Override
     public void run() {
+        requireOptions();
         try {
             // Determine number of workers
             int numWorkers = (workers != null && workers > 0) ? workers : Runtime.getRuntime().availableProcessors();
 
-            // Determine VEGA JAR paths
-            String jarPath = determineVegaJarPath();
-            String guiJarPath = determineVegaGuiJarPath(jarPath);
-            VegaProcessBuilder.validateVegaJar(jarPath);
-            VegaProcessBuilder.validateVegaGuiJar(guiJarPath);
+            // Determine VEGA JAR paths, not needed by the native executable
+            String jarPath = null;
+            String guiJarPath = null;
+            if (vegaNativePath != null) {
+                VegaProcessBuilder.validateVegaNative(vegaNativePath);
+            } else {
+                jarPath = determineVegaJarPath();
+                guiJarPath = determineVegaGuiJarPath(jarPath);
+                VegaProcessBuilder.validateVegaJar(jarPath);
+                VegaProcessBuilder.validateVegaGuiJar(guiJarPath);
+            }
 
             System.out.println("VEGA Parallel Execution Wrapper");
             System.out.println("================================");
-            System.out.println("VEGA Wrapper JAR: " + jarPath);
-            System.out.println("Vega-GUI JAR: " + guiJarPath);
+            if (vegaNativePath != null) {
+                System.out.println("VEGA Wrapper executable: " + vegaNativePath);
+            } else {
+                System.out.println("VEGA Wrapper JAR: " + jarPath);
+                System.out.println("Vega-GUI JAR: " + guiJarPath);
+            }
             System.out.println("Workers: " + numWorkers);
+            if (inProcess && persistentWorkers) {
+                throw new IllegalArgumentException("--in-process and --persistent-workers cannot be combined");
+            }
+            if (inProcess && timeout != null && timeout > 0) {
+                // an in-process model thread cannot be stopped, it would keep writing the model's files
+                throw new IllegalArgumentException(
+                        "--in-process and --timeout cannot be combined, use subprocesses or --persistent-workers");
+            }
+            if (inProcess && vegaNativePath != null) {
+                throw new IllegalArgumentException("--in-process and --vega-native cannot be combined");
+            }
+            System.out.println("Execution: " + (inProcess ? "in-process"
+                    : persistentWorkers ? "persistent worker JVMs" : "subprocess per model"));
             System.out.println();
 
             // Parse models
@@ -99,13 +237,81 @@ public class ParallelVegaCommand implements Runnable {
             Path outputPath = Paths.get(outputDir);
             Files.createDirectories(outputPath);
 
+            List<String> allModels = models;
+            if (resume) {
+                List<String> incomplete = ResultCheckpoints.incompleteModels(outputPath, models, jsonl,
+                        "gzip".equalsIgnoreCase(compress), maxRows != null ? maxRows : 0);
+                System.out.println("Resume: " + (models.size() - incomplete.size()) + " models already complete, "
+                        + incomplete.size() + " to execute");
+                models = incomplete;
+                if (models.isEmpty()) {
+                    if (merge) {
+                        mergeResults(outputPath, allModels);
+                    }
+                    return;
+                }
+            }
+
+            int rows = countRows();
+            List<ModelTask> tasks = planTasks(models, rows, numWorkers);
+            RuntimeHistory history = noHistory ? null : RuntimeHistory.load(historyPath());
+            ShardMerger merger = new ShardMerger(outputPath, resume);
+
             // Execute models in parallel
             VegaProcessBuilder processBuilder = new VegaProcessBuilder(jarPath, guiJarPath, baseArgs, outputPath,
                     command);
+            processBuilder.setNativeExecutable(vegaNativePath);
             long modelTimeout = (timeout != null) ? timeout : -1L;
-            ModelExecutor executor = new ModelExecutor(processBuilder, numWorkers, models.size(), modelTimeout);
+            boolean success;
+            if (inProcess) {
+                try (InProcessVegaRunner runner = new InProcessVegaRunner(jarPath, guiJarPath)) {
+                    ModelExecutor executor = new ModelExecutor(processBuilder, runner, numWorkers, models.size(),
+                            modelTimeout);
+                    executor.setProgressInterval(progressInterval);
+                    useHistory(executor, history, rows);
+                    success = executor.executeTasks(tasks, merger);
+                }
+            } else if (persistentWorkers) {
+                MemoryBudget budget = memoryBudget(history);
+                int workerHeap = 0;
+                int poolWorkers = numWorkers;
+                if (budget != null) {
+                    // a worker runs any of the models, so it gets the largest heap
+                    for (String modelKey : models) {
+                        workerHeap = Math.max(workerHeap, budget.heapFor(modelKey));
+                    }
+                    poolWorkers = Math.max(1,
+                            Math.min(numWorkers, budget.getBudgetMB() / budget.reservationFor(workerHeap)));
+                    System.out.println("Worker heap: -Xmx" + workerHeap + "m, " + poolWorkers + " workers fit");
+                }
+                try (WorkerPool workerPool = new WorkerPool(processBuilder, workerMaxJobs, workerMaxHeap, workerHeap)) {
+                    ModelExecutor executor = new ModelExecutor(processBuilder, workerPool, poolWorkers, models.size(),
+                            modelTimeout);
+                    executor.setProgressInterval(progressInterval);
+                    useHistory(executor, history, rows);
+                    success = executor.executeTasks(tasks, merger);
+                    System.out.println("Worker JVMs started: " + workerPool.getStarted() + ", recycled: "
+                            + workerPool.getRecycled());
+                }
+            } else {
+                ModelExecutor executor = new ModelExecutor(processBuilder, numWorkers, models.size(), modelTimeout);
+                executor.setProgressInterval(progressInterval);
+                useHistory(executor, history, rows);
+                executor.setMemoryBudget(memoryBudget(history));
+                success = executor.executeTasks(tasks, merger);
+            }
+
+            if (history != null) {
+                try {
+                    history.save();
+                } catch (IOException e) {
+                    System.err.println("Warning: cannot save runtime history: " + e.getMessage());
+                }
+            }
 
-            boolean success = executor.executeModels(models);
+            if (merge) {
+                mergeResults(outputPath, allModels);
+            }
 
             if (!success) {
                 System.exit(1);
@@ -118,6 +324,33 @@ public class ParallelVegaCommand implements Runnable {
         }
     }
 
+    private void mergeResults(Path outputPath, List<String> models) throws IOException {
+        Path target = MergeCommand.mergedFile(outputPath, null, compress);
+        long start = System.currentTimeMillis();
+        int rows = new ResultMerger(outputPath).merge(models, target, MergeCommand.isGzip(compress));
+        System.out.println("Merged results: " + rows + " rows in " + target + " ("
+                + ProgressTracker.formatDuration(System.currentTimeMillis() - start) + ")");
+    }
+
+    /**
+     * -m, -i and -o are checked here rather than by picocli, which would also require them for the merge subcommand.
+     */
+    private void requireOptions() {
+        List<String> missing = new ArrayList<>();
+        if (model == null) {
+            missing.add("'--model=<model>'");
+        }
+        if (inputFile == null) {
+            missing.add("'--input=<inputFile>'");
+        }
+        if (outputDir == null) {
+            missing.add("'--output=<outputDir>'");
+        }
+        if (!missing.isEmpty()) {
+            throw new ParameterException(spec.commandLine(), "Missing required options: " + String.join(", ", missing));
+        }
+    }
+
     /**
      * Determine the VEGA JAR path (from option or auto-detect).
      */
@@ -187,6 +420,69 @@ public class ParallelVegaCommand implements Runnable {
                 "Could not auto-detect Vega-GUI JAR. Please specify with --vega-gui-jar option or set VEGA_JAR_PATH environment variable.");
     }
 
+    /**
+     * Number of input rows the models will process, 0 if unknown.
+     */
+    private int countRows() throws IOException {
+        if (smiles != null) {
+            return 1;
+        }
+        if (inputFile == null || !Files.isRegularFile(Paths.get(inputFile))) {
+            return 0;
+        }
+        int rows = ModelTask.countRows(Paths.get(inputFile));
+        if (maxRows != null && maxRows > 0) {
+            rows = Math.min(rows, maxRows);
+        }
+        return rows;
+    }
+
+    private Path historyPath() {
+        if (historyFile != null) {
+            return Paths.get(historyFile);
+        }
+        return Paths.get(System.getProperty("user.home"), ".vega-parallel", "runtime-history.tsv");
+    }
+
+    /**
+     * Memory budget for the model JVMs, from --memory-budget or detected; null if disabled.
+     */
+    private MemoryBudget memoryBudget(RuntimeHistory history) {
+        int budgetMB = memoryBudget != null ? memoryBudget : MemoryBudget.detectBudgetMB();
+        if (budgetMB <= 0) {
+            return null;
+        }
+        String source = memoryBudget != null ? "--memory-budget"
+                : MemoryBudget.cgroupLimitBytes() > 0 ? "container limit" : "physical memory";
+        System.out.println("Memory budget: " + budgetMB + " MB (" + source + ")");
+        return new MemoryBudget(budgetMB, heapMargin, defaultHeap, history);
+    }
+
+    /**
+     * Schedule by the runtime history; runs with --resume skip rows, so their runtimes are not recorded.
+     */
+    private void useHistory(ModelExecutor executor, RuntimeHistory history, int rows) {
+        if (history != null) {
+            executor.setRuntimeHistory(history, rows, !resume);
+        }
+    }
+
+    /**
+     * Split models into row range shards when there are fewer models than workers (fast mode with an input file).
+     */
+    private List<ModelTask> planTasks(List<String> models, int rows, int numWorkers) {
+        if (noShard || !fastMode || inputFile == null || models.size() >= numWorkers) {
+            return ModelTask.plan(models, 0, numWorkers, minShardRows);
+        }
+        List<ModelTask> tasks = ModelTask.plan(models, rows, numWorkers, minShardRows);
+        if (tasks.size() > models.size()) {
+            int shards = tasks.size() / models.size();
+            System.out.println("Sharding: " + rows + " rows, " + shards + " shards per model of up to "
+                    + (rows + shards - 1) / shards + " rows");
+        }
+        return tasks;
+    }
+
     /**
      * Parse models from file or single model key.
      */
@@ -247,6 +543,60 @@ public class ParallelVegaCommand implements Runnable {
             args.add("-z");
             args.add(reinitializeModel.toString());
         }
+        if (reinitializeOnHeap != null) {
+            args.add("--reinitialize-on-heap");
+            args.add(reinitializeOnHeap.toString());
+        }
+        if (threads != null) {
+            args.add("-t");
+            args.add(threads.toString());
+        }
+
+        // Result writing
+        if (asyncWriter) {
+            args.add("--async-writer");
+        }
+        if (flushEvery != null) {
+            args.add("--flush-every");
+            args.add(flushEvery.toString());
+        }
+        if (flushInterval != null) {
+            args.add("--flush-interval");
+            args.add(flushInterval.toString());
+        }
+        if (resume) {
+            args.add("--resume");
+        }
+        if (mmap) {
+            args.add("--mmap");
+        }
+        if (dedup != null) {
+            args.add("--dedup");
+            args.add(dedup);
+        }
+        if (compress != null) {
+            args.add("--compress");
+            args.add(compress);
+        }
+        if (chunkSize != null) {
+            args.add("--chunk-size");
+            args.add(chunkSize.toString());
+        }
+        if (moleculeTimeout != null) {
+            args.add("--molecule-timeout");
+            args.add(moleculeTimeout.toString());
+        }
+        if (metricsInterval != null) {
+            args.add("--metrics-interval");
+            args.add(metricsInterval.toString());
+        }
+        if (noMetrics) {
+            args.add("--no-metrics");
+        }
+
+        // progress is shown by this process, the wrapper's own progress lines would only fill the captured output
+        args.add("--progress-interval");
+        args.add("0");
 
         // Placeholder for -m and -o (will be replaced per model)
         args.add("-m");
@@ -2,22 +2,104 @@ package net.idea.wrapper.vega.parallel;
 
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Tracks and displays execution progress for parallel model execution.
+ * Events only update counters; the progress is shown by a background thread at a fixed rate,
+ * redrawn in place every second on a console, or as a plain line every plainIntervalMillis
+ * when the output is redirected.
  */
 public class ProgressTracker {
 
+    private static final long CONSOLE_INTERVAL_MILLIS = 1000;
+    static final long DEFAULT_PLAIN_INTERVAL_MILLIS = 30_000;
+    private static final Pattern DEDUPLICATED = Pattern.compile("Deduplicated: (\\d+) rows, (\\d+) unique structures");
+
     private final int totalModels;
     private final AtomicInteger completedModels = new AtomicInteger(0);
     private final AtomicInteger failedModels = new AtomicInteger(0);
     private final Map<String, String> runningModels = new ConcurrentHashMap<>();
     private final long startTime;
+    private volatile long predictedMakespan = -1;
+    // rows and unique structures of the tasks run with --dedup
+    private final AtomicLong dedupRows = new AtomicLong();
+    private final AtomicLong dedupUnique = new AtomicLong();
+    private final boolean console = System.console() != null;
+    private final long intervalMillis;
+    private ScheduledExecutorService scheduler;
 
     public ProgressTracker(int totalModels) {
+        this(totalModels, DEFAULT_PLAIN_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @param plainIntervalMillis milliseconds between progress lines when the output is not a console, 0 for none
+     */
+    public ProgressTracker(int totalModels, long plainIntervalMillis) {
         this.totalModels = totalModels;
         this.startTime = System.currentTimeMillis();
+        this.intervalMillis = plainIntervalMillis <= 0 ? 0 : console ? CONSOLE_INTERVAL_MILLIS : plainIntervalMillis;
+    }
+
+    /**
+     * Start showing progress.
+     */
+    public synchronized void start() {
+        if (intervalMillis <= 0 || scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "progress");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(this::printProgress, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void stop() {
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdownNow();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        scheduler = null;
+        printProgress();
+    }
+
+    /**
+     * Add the rows and unique structures a task logged with --dedup, shown in the summary.
+     */
+    public void addDedup(long rows, long unique) {
+        dedupRows.addAndGet(rows);
+        dedupUnique.addAndGet(unique);
+    }
+
+    /**
+     * Rows and unique structures from the wrapper's "Deduplicated: N rows, U unique structures" log line.
+     *
+     * @return {rows, unique}, or null if the line is something else
+     */
+    static long[] parseDedup(String line) {
+        Matcher matcher = DEDUPLICATED.matcher(line);
+        return matcher.find() ? new long[] { Long.parseLong(matcher.group(1)), Long.parseLong(matcher.group(2)) } : null;
+    }
+
+    /**
+     * Set the makespan predicted from the runtime history, shown in the summary.
+     */
+    public void setPredictedMakespan(long millis) {
+        this.predictedMakespan = millis;
     }
 
     /**
@@ -25,7 +107,6 @@ public class ProgressTracker {
      */
     public void modelStarted(String modelKey) {
         runningModels.put(modelKey, "RUNNING");
-        printProgress();
     }
 
     /**
@@ -34,7 +115,13 @@ public class ProgressTracker {
     public void modelCompleted(String modelKey) {
         runningModels.remove(modelKey);
         completedModels.incrementAndGet();
-        printProgress();
+    }
+
+    /**
+     * Mark one shard of a model as finished; the model is completed or failed when all its shards are.
+     */
+    public void shardFinished(String shardLabel) {
+        runningModels.remove(shardLabel);
     }
 
     /**
@@ -44,26 +131,56 @@ public class ProgressTracker {
         runningModels.remove(modelKey);
         failedModels.incrementAndGet();
         System.err.println("FAILED: " + modelKey + " - " + error);
-        printProgress();
     }
 
     /**
      * Print current progress.
      */
     private void printProgress() {
+        String line = formatProgress(System.currentTimeMillis() - startTime);
+        if (console) {
+            System.out.print("\r" + line);
+        } else {
+            System.out.println(line);
+        }
+        System.out.flush();
+    }
+
+    /**
+     * Progress line with models per minute and the remaining time: from the predicted makespan
+     * while the run is within it, otherwise from the rate of finished models.
+     */
+    String formatProgress(long elapsedMillis) {
         int completed = completedModels.get();
         int failed = failedModels.get();
         int running = runningModels.size();
+        int finished = completed + failed;
 
-        System.out.printf("\rProgress: %d/%d completed, %d failed, %d running",
-                completed, totalModels, failed, running);
-        System.out.flush();
+        StringBuilder line = new StringBuilder(String.format("Progress: %d/%d completed, %d failed, %d running",
+                completed, totalModels, failed, running));
+        line.append(", elapsed ").append(formatDuration(elapsedMillis));
+        if (finished > 0 && elapsedMillis > 0) {
+            line.append(String.format(", %.1f models/min", finished * 60_000.0 / elapsedMillis));
+        }
+        if (finished < totalModels) {
+            long eta = -1;
+            if (predictedMakespan > elapsedMillis) {
+                eta = predictedMakespan - elapsedMillis;
+            } else if (finished > 0) {
+                eta = elapsedMillis * (totalModels - finished) / finished;
+            }
+            if (eta >= 0) {
+                line.append(", ETA ").append(formatDuration(eta));
+            }
+        }
+        return line.toString();
     }
 
     /**
      * Print final summary.
      */
     public void printSummary() {
+        stop();
         System.out.println(); // New line after progress
 
         long duration = System.currentTimeMillis() - startTime;
@@ -75,6 +192,15 @@ public class ProgressTracker {
         System.out.println("Completed: " + completed);
         System.out.println("Failed: " + failed);
         System.out.println("Duration: " + formatDuration(duration));
+        if (predictedMakespan >= 0) {
+            System.out.println("Makespan predicted/actual: " + formatDuration(predictedMakespan) + " / "
+                    + formatDuration(duration));
+        }
+        if (dedupRows.get() > 0) {
+            long unique = dedupUnique.get();
+            System.out.println(String.format("Dedup: %d rows, %d unique structures predicted, ratio %.2f",
+                    dedupRows.get(), unique, unique == 0 ? 1.0 : (double) dedupRows.get() / unique));
+        }
 
         if (failed > 0) {
             System.out.println("\nSome models failed. Check error messages above.");
@@ -84,7 +210,7 @@ public class ProgressTracker {
     /**
      * Format duration in human-readable format.
      */
-    private String formatDuration(long millis) {
+    static String formatDuration(long millis) {
         long seconds = millis / 1000;
         long minutes = seconds / 60;
         long hours = minutes / 60;
@@ -98,6 +224,10 @@ public class ProgressTracker {
         }
     }
 
+    public int getTotalModels() {
+        return totalModels;
+    }
+
     /**
      * Check if all models completed successfully.
      */
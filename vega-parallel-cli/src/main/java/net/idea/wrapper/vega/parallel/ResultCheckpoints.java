@@ -0,0 +1,106 @@
+package net.idea.wrapper.vega.parallel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Collectors;
+
+/**
+ * Reads the checkpoints the VEGA wrapper writes next to its result files with --resume
+ * (resultsw_MODEL.jsonl.checkpoint or resultsw_MODEL.txt.checkpoint, resultsw_MODEL.jsonl.gz.checkpoint
+ * for compressed results).
+ */
+public class ResultCheckpoints {
+
+    private ResultCheckpoints() {
+    }
+
+    /**
+     * Path of the checkpoint of a model's result file.
+     */
+    public static Path checkpointFile(Path outputDir, String modelKey, boolean jsonl) {
+        return checkpointFile(outputDir, modelKey, jsonl, false);
+    }
+
+    /**
+     * Path of the checkpoint of a model's result file, gzip compressed or not.
+     */
+    public static Path checkpointFile(Path outputDir, String modelKey, boolean jsonl, boolean gzip) {
+        return outputDir.resolve("resultsw_" + modelKey + (jsonl ? ".jsonl" : ".txt") + (gzip ? ".gz" : "") + ".checkpoint");
+    }
+
+    /**
+     * Check if a previous run wrote all results of the model.
+     *
+     * @return true if the checkpoint exists and is marked complete
+     */
+    public static boolean isComplete(Path outputDir, String modelKey, boolean jsonl) {
+        return isComplete(outputDir, modelKey, jsonl, false);
+    }
+
+    /**
+     * Check if a previous run wrote all results of the model, to a gzip compressed file or not.
+     */
+    public static boolean isComplete(Path outputDir, String modelKey, boolean jsonl, boolean gzip) {
+        return isComplete(outputDir, modelKey, jsonl, gzip, 0);
+    }
+
+    /**
+     * Check if a previous run wrote all results of the model for the row limit of this run.
+     * A run limited by -x records its limit ("maxrows") in the checkpoint; its results are not complete
+     * for a run with a higher limit or without one.
+     *
+     * @param maxRows row limit (-x) of this run, 0 for all rows
+     */
+    public static boolean isComplete(Path outputDir, String modelKey, boolean jsonl, boolean gzip, int maxRows) {
+        Path file = checkpointFile(outputDir, modelKey, jsonl, gzip);
+        if (!Files.isRegularFile(file)) {
+            return false;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        } catch (IOException e) {
+            return false;
+        }
+        if (!Boolean.parseBoolean(properties.getProperty("complete"))) {
+            return false;
+        }
+        int completeFor;
+        try {
+            completeFor = Integer.parseInt(properties.getProperty("maxrows", "0"));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        return completeFor <= 0 || (maxRows > 0 && completeFor >= maxRows);
+    }
+
+    /**
+     * Filter out the models whose results are complete.
+     */
+    public static List<String> incompleteModels(Path outputDir, List<String> models, boolean jsonl) {
+        return incompleteModels(outputDir, models, jsonl, false);
+    }
+
+    /**
+     * Filter out the models whose results, gzip compressed or not, are complete.
+     */
+    public static List<String> incompleteModels(Path outputDir, List<String> models, boolean jsonl, boolean gzip) {
+        return incompleteModels(outputDir, models, jsonl, gzip, 0);
+    }
+
+    /**
+     * Filter out the models whose results are complete for the row limit of this run.
+     *
+     * @param maxRows row limit (-x) of this run, 0 for all rows
+     */
+    public static List<String> incompleteModels(Path outputDir, List<String> models, boolean jsonl, boolean gzip,
+            int maxRows) {
+        return models.stream()
+                .filter(model -> !isComplete(outputDir, model, jsonl, gzip, maxRows))
+                .collect(Collectors.toList());
+    }
+}
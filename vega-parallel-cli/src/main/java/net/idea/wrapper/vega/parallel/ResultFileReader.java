@@ -0,0 +1,198 @@
+package net.idea.wrapper.vega.parallel;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the rows of a model's result files one at a time: resultsw_MODEL.txt or resultsw_MODEL.jsonl,
+ * gzip compressed or not, or the shard files of the model one after another.
+ * In TXT files the lines before the column header ("No." in the first column) are skipped.
+ * Columns are those of the TXT header or of the first JSONL record; values are returned as text,
+ * "-" for JSON null, as the wrapper writes them in TXT files.
+ * Row numbers ("No.") must increase, as the wrapper and {@link ShardMerger} write them.
+ */
+public class ResultFileReader implements Closeable {
+
+    static final String NO = "No.";
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private final Iterator<Path> files;
+    private Path file;
+    private BufferedReader reader;
+    private JsonParser parser;
+    private String[] columns;
+    private Map<String, Integer> positions;
+    private int noPosition;
+    private int rowNum = 0;
+    // the first row, read to get the columns
+    private String[] first;
+
+    /**
+     * @param files result files of one model, in row order
+     */
+    public ResultFileReader(List<Path> files) throws IOException {
+        if (files.isEmpty()) {
+            throw new IllegalArgumentException("No result files");
+        }
+        this.files = files.iterator();
+        openNext();
+        // the TXT header comes with row 1, JSONL columns with the first record
+        first = next();
+    }
+
+    /**
+     * @return the column names, null if the files have no rows
+     */
+    public String[] getColumns() {
+        return columns;
+    }
+
+    /**
+     * @return the values of the next row, in column order, or null at the end of the last file
+     */
+    public String[] next() throws IOException {
+        if (first != null) {
+            String[] row = first;
+            first = null;
+            return row;
+        }
+        while (file != null) {
+            String[] row = parser != null ? nextRecord() : nextLine();
+            if (row != null) {
+                int num;
+                try {
+                    num = Integer.parseInt(row[noPosition].trim());
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid row number " + row[noPosition] + " in " + file);
+                }
+                if (num <= rowNum) {
+                    throw new IOException("Row " + num + " after row " + rowNum + " in " + file);
+                }
+                rowNum = num;
+                return row;
+            }
+            openNext();
+        }
+        return null;
+    }
+
+    /**
+     * @return the row number of the last row returned by {@link #next()}
+     */
+    public int getRowNum() {
+        return rowNum;
+    }
+
+    private void openNext() throws IOException {
+        close();
+        file = files.hasNext() ? files.next() : null;
+        if (file == null) {
+            return;
+        }
+        reader = new BufferedReader(new InputStreamReader(ModelTask.openInput(file), StandardCharsets.UTF_8));
+        if (file.getFileName().toString().contains(".jsonl")) {
+            parser = JSON.createParser(reader);
+        }
+    }
+
+    private String[] nextLine() throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            String[] values = line.split("\t", -1);
+            if (values[0].equals(NO)) {
+                // the header, with row 1
+                setColumns(values);
+            } else if (columns != null) {
+                return values.length == columns.length ? values : Arrays.copyOf(values, columns.length);
+            }
+        }
+        return null;
+    }
+
+    private String[] nextRecord() throws IOException {
+        JsonToken token = parser.nextToken();
+        if (token == null) {
+            return null;
+        }
+        if (token != JsonToken.START_OBJECT) {
+            throw new IOException("Expected a JSON object at line " + parser.currentLocation().getLineNr() + " of " + file);
+        }
+        List<String> names = new ArrayList<>();
+        List<String> values = new ArrayList<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            names.add(parser.currentName());
+            JsonToken value = parser.nextToken();
+            if (value == JsonToken.VALUE_NULL) {
+                values.add("-");
+            } else if (value.isStructStart()) {
+                parser.skipChildren();
+                values.add("");
+            } else {
+                values.add(parser.getText());
+            }
+        }
+        if (columns == null) {
+            setColumns(names.toArray(new String[0]));
+        }
+        String[] row = new String[columns.length];
+        for (int i = 0; i < names.size(); i++) {
+            Integer position = positions.get(names.get(i));
+            if (position == null) {
+                throw new IOException("Unknown field " + names.get(i) + " at line "
+                        + parser.currentLocation().getLineNr() + " of " + file);
+            }
+            row[position] = values.get(i);
+        }
+        return row;
+    }
+
+    private void setColumns(String[] names) throws IOException {
+        if (columns != null) {
+            if (!Arrays.equals(columns, names)) {
+                throw new IOException("Columns of " + file + " differ from the previous file");
+            }
+            return;
+        }
+        Map<String, Integer> map = new HashMap<>();
+        for (int i = 0; i < names.length; i++) {
+            map.put(names[i], i);
+        }
+        Integer no = map.get(NO);
+        if (no == null) {
+            throw new IOException("No " + NO + " column in " + file);
+        }
+        columns = names;
+        positions = map;
+        noPosition = no;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (parser != null) {
+            parser.close();
+            parser = null;
+        }
+        if (reader != null) {
+            reader.close();
+            reader = null;
+        }
+    }
+}
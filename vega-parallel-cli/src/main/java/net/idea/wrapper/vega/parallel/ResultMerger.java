@@ -0,0 +1,249 @@
+package net.idea.wrapper.vega.parallel;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Joins the result files of several models into one tab-delimited file with a row per molecule:
+ * No., ID and SMILES, then the other columns of each model, named MODEL.column.
+ * The result files are sorted by No., so they are read side by side, one row of each model at a time
+ * (a k-way merge), and memory does not depend on the number of rows.
+ * A molecule without a row in a model's results (not processed, or the model failed) has empty values for it.
+ * The molecules of all models must be the same: a row with another ID than the one in the other models is an error.
+ * The result files of a model are found by {@link #resultFiles(Path, String)}, which also reads the shard
+ * files of a model whose shards were not joined.
+ */
+public class ResultMerger {
+
+    public static final String DEFAULT_FILE = "results_merged.txt";
+
+    static final String ID = "ID";
+    static final String SMILES = "SMILES";
+
+    private static final Pattern RESULT_EXT = Pattern.compile("(_\\d+)?\\.(txt|jsonl)(\\.gz)?");
+    /** Model key of a re-run result file, KEY_N. */
+    private static final Pattern RERUN = Pattern.compile("(.+)_\\d+");
+
+    private final Path outputDir;
+
+    public ResultMerger(Path outputDir) {
+        this.outputDir = outputDir;
+    }
+
+    /**
+     * Result files of a model in the output folder: the latest resultsw_MODEL.ext or resultsw_MODEL_N.ext
+     * (txt or jsonl, gzip compressed or not), otherwise the latest result file of each of its shards,
+     * in shard order.
+     *
+     * @return empty if the model has no results
+     */
+    public static List<Path> resultFiles(Path outputDir, String modelKey) throws IOException {
+        Optional<Path> file = latestResultFile(outputDir, modelKey);
+        if (file.isPresent()) {
+            return List.of(file.get());
+        }
+        List<Path> files = new ArrayList<>();
+        Path shards = outputDir.resolve(".shards").resolve(modelKey);
+        if (Files.isDirectory(shards)) {
+            try (Stream<Path> dirs = Files.list(shards)) {
+                for (Path dir : dirs.filter(Files::isDirectory).sorted().collect(Collectors.toList())) {
+                    latestResultFile(dir, modelKey).ifPresent(files::add);
+                }
+            }
+        }
+        return files;
+    }
+
+    private static Optional<Path> latestResultFile(Path dir, String modelKey) throws IOException {
+        String prefix = "resultsw_" + modelKey;
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(f -> {
+                String name = f.getFileName().toString();
+                return name.startsWith(prefix) && RESULT_EXT.matcher(name.substring(prefix.length())).matches();
+            }).max(Comparator.comparing(ResultMerger::lastModified).thenComparing(Comparator.naturalOrder()));
+        }
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    /**
+     * Model keys of all result files in the output folder, resultsw_KEY.ext. resultsw_KEY_N.ext is a re-run of
+     * KEY when there is a result file of KEY too (see {@link #resultFiles}); otherwise KEY_N is the model key.
+     */
+    public static List<String> modelKeys(Path outputDir) throws IOException {
+        Set<String> keys;
+        try (Stream<Path> files = Files.list(outputDir)) {
+            keys = files.map(f -> f.getFileName().toString())
+                    .filter(name -> name.startsWith("resultsw_") && !name.endsWith(".checkpoint"))
+                    .map(name -> name.substring("resultsw_".length()).replaceFirst("\\.(txt|jsonl)(\\.gz)?$", ""))
+                    .collect(Collectors.toSet());
+        }
+        return keys.stream()
+                .map(key -> {
+                    Matcher rerun = RERUN.matcher(key);
+                    return rerun.matches() && keys.contains(rerun.group(1)) ? rerun.group(1) : key;
+                })
+                .distinct().sorted().collect(Collectors.toList());
+    }
+
+    /**
+     * Merge the results of the models into target, gzip compressed if gzip is true.
+     * Models without results are left out.
+     *
+     * @return number of rows written
+     */
+    public int merge(List<String> models, Path target, boolean gzip) throws IOException {
+        List<String> keys = new ArrayList<>();
+        List<ResultFileReader> readers = new ArrayList<>();
+        try {
+            for (String modelKey : models) {
+                List<Path> files = resultFiles(outputDir, modelKey);
+                ResultFileReader reader = files.isEmpty() ? null : new ResultFileReader(files);
+                if (reader == null || reader.getColumns() == null) {
+                    System.err.println("Warning: no results of " + modelKey + " to merge");
+                    if (reader != null) {
+                        reader.close();
+                    }
+                    continue;
+                }
+                keys.add(modelKey);
+                readers.add(reader);
+            }
+            if (readers.isEmpty()) {
+                throw new IOException("No results to merge in " + outputDir);
+            }
+            OutputStream out = Files.newOutputStream(target);
+            if (gzip) {
+                out = new GZIPOutputStream(out, 64 * 1024);
+            }
+            try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024)) {
+                return merge(keys, readers, writer);
+            }
+        } finally {
+            for (ResultFileReader reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    private int merge(List<String> keys, List<ResultFileReader> readers, BufferedWriter writer) throws IOException {
+        int k = readers.size();
+        // per model: positions of ID and SMILES, and of the model's own columns
+        int[] idPos = new int[k];
+        int[] smilesPos = new int[k];
+        int[][] own = new int[k][];
+        writer.write(ResultFileReader.NO + "\t" + ID + "\t" + SMILES);
+        for (int m = 0; m < k; m++) {
+            String[] columns = readers.get(m).getColumns();
+            List<String> names = List.of(columns);
+            idPos[m] = names.indexOf(ID);
+            smilesPos[m] = names.indexOf(SMILES);
+            List<Integer> positions = new ArrayList<>();
+            for (int c = 0; c < columns.length; c++) {
+                String name = columns[c];
+                if (!name.equals(ResultFileReader.NO) && !name.equals(ID) && !name.equals(SMILES)) {
+                    positions.add(c);
+                    writer.write('\t');
+                    writer.write(clean(keys.get(m) + "." + name));
+                }
+            }
+            own[m] = positions.stream().mapToInt(Integer::intValue).toArray();
+        }
+        writer.newLine();
+
+        String[][] heads = new String[k][];
+        for (int m = 0; m < k; m++) {
+            heads[m] = readers.get(m).next();
+        }
+        int rows = 0;
+        while (true) {
+            // the smallest row number among the current rows of the models
+            int num = Integer.MAX_VALUE;
+            for (int m = 0; m < k; m++) {
+                if (heads[m] != null) {
+                    num = Math.min(num, readers.get(m).getRowNum());
+                }
+            }
+            if (num == Integer.MAX_VALUE) {
+                break;
+            }
+            String id = null;
+            String smiles = null;
+            int idModel = -1;
+            for (int m = 0; m < k; m++) {
+                if (heads[m] == null || readers.get(m).getRowNum() != num) {
+                    continue;
+                }
+                String rowId = idPos[m] >= 0 ? heads[m][idPos[m]] : null;
+                if (id == null) {
+                    id = rowId;
+                    idModel = m;
+                } else if (rowId != null && !rowId.equals(id)) {
+                    throw new IOException(String.format("Row %d is %s in %s and %s in %s", num, id,
+                            keys.get(idModel), rowId, keys.get(m)));
+                }
+                if (smiles == null && smilesPos[m] >= 0) {
+                    smiles = heads[m][smilesPos[m]];
+                }
+            }
+            writer.write(Integer.toString(num));
+            writer.write('\t');
+            writer.write(clean(id));
+            writer.write('\t');
+            writer.write(clean(smiles));
+            for (int m = 0; m < k; m++) {
+                boolean hasRow = heads[m] != null && readers.get(m).getRowNum() == num;
+                for (int c : own[m]) {
+                    writer.write('\t');
+                    if (hasRow) {
+                        writer.write(clean(heads[m][c]));
+                    }
+                }
+                if (hasRow) {
+                    heads[m] = readers.get(m).next();
+                }
+            }
+            writer.newLine();
+            rows++;
+        }
+        return rows;
+    }
+
+    /**
+     * @return the value without tabs and line breaks, which would break the table
+     */
+    private static String clean(String value) {
+        if (value == null) {
+            return "";
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\t' || c == '\n' || c == '\r') {
+                return value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+            }
+        }
+        return value;
+    }
+}
@@ -0,0 +1,255 @@
+package net.idea.wrapper.vega.parallel;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runtimes of models in previous runs, kept in a small tab-separated file:
+ * model, startup and model load time (ms), time per molecule (ms), number of recorded runs,
+ * peak heap after GC (MB, -1 if not known) and the largest -Xmx the model ran out of heap with (MB, -1 if none).
+ * A task is estimated as load + rows * per molecule; models without history get the average of the known ones.
+ * Tasks are scheduled longest first, so a slow model does not start last and stretch the run.
+ */
+public class RuntimeHistory {
+
+    private static final String HEADER = "model\tload_ms\tms_per_molecule\truns\tpeak_heap_mb\toom_heap_mb";
+    /** Weight of a new run in the recorded times. */
+    private static final double ALPHA = 0.5;
+    /** Line the wrapper logs at the end of a model, the time excludes loading the model. */
+    private static final Pattern PROCESSED = Pattern.compile("Processed: \\d+ rows Elapsed time: (\\d+(?:[.,]\\d+)?) s");
+    /** Line the wrapper logs at the end of a model. */
+    private static final Pattern PEAK_HEAP = Pattern.compile("Peak heap: (\\d+) MB");
+
+    /** Recorded times of one model. */
+    static class Entry {
+        double loadMs;
+        double msPerMolecule;
+        int runs;
+        long peakHeapMB;
+        long oomHeapMB;
+
+        Entry(double loadMs, double msPerMolecule, int runs, long peakHeapMB, long oomHeapMB) {
+            this.loadMs = loadMs;
+            this.msPerMolecule = msPerMolecule;
+            this.runs = runs;
+            this.peakHeapMB = peakHeapMB;
+            this.oomHeapMB = oomHeapMB;
+        }
+    }
+
+    private final Path file;
+    private final Map<String, Entry> entries = new TreeMap<>();
+
+    private RuntimeHistory(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Load the history file; a missing or unreadable file gives an empty history.
+     */
+    public static RuntimeHistory load(Path file) {
+        RuntimeHistory history = new RuntimeHistory(file);
+        if (!Files.isRegularFile(file)) {
+            return history;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                if (fields.length < 4 || line.equals(HEADER)) {
+                    continue;
+                }
+                try {
+                    history.entries.put(fields[0], new Entry(Double.parseDouble(fields[1]),
+                            Double.parseDouble(fields[2]), Integer.parseInt(fields[3]),
+                            fields.length > 4 ? Long.parseLong(fields[4]) : -1,
+                            fields.length > 5 ? Long.parseLong(fields[5]) : -1));
+                } catch (NumberFormatException e) {
+                    // skip broken line
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Warning: cannot read runtime history " + file + ": " + e.getMessage());
+        }
+        return history;
+    }
+
+    /**
+     * Write the history file, replacing the old one atomically.
+     */
+    public synchronized void save() throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            writer.write(HEADER);
+            writer.newLine();
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                writer.write(String.format(Locale.ROOT, "%s\t%.1f\t%.4f\t%d\t%d\t%d", e.getKey(),
+                        e.getValue().loadMs, e.getValue().msPerMolecule, e.getValue().runs,
+                        e.getValue().peakHeapMB, e.getValue().oomHeapMB));
+                writer.newLine();
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public synchronized boolean isKnown(String modelKey) {
+        return entries.containsKey(modelKey);
+    }
+
+    synchronized Entry get(String modelKey) {
+        return entries.get(modelKey);
+    }
+
+    /**
+     * Peak heap after GC of the model in previous runs in MB, -1 if not known.
+     */
+    public synchronized long getPeakHeapMB(String modelKey) {
+        Entry entry = entries.get(modelKey);
+        return entry != null ? entry.peakHeapMB : -1;
+    }
+
+    /**
+     * Largest -Xmx the model ran out of heap with in previous runs in MB, -1 if it never did.
+     */
+    public synchronized long getOutOfMemoryHeapMB(String modelKey) {
+        Entry entry = entries.get(modelKey);
+        return entry != null ? entry.oomHeapMB : -1;
+    }
+
+    /**
+     * Record a successful run of a model or shard.
+     *
+     * @param rows         input rows of the task
+     * @param totalMs      wall time of the task, including JVM startup and model load
+     * @param processingMs time spent on the molecules as logged by the wrapper, -1 if unknown
+     * @param peakHeapMB   peak heap after GC as logged by the wrapper, -1 if unknown
+     */
+    public synchronized void record(String modelKey, int rows, long totalMs, long processingMs, long peakHeapMB) {
+        if (rows <= 0) {
+            return;
+        }
+        Entry old = entries.get(modelKey);
+        double loadMs;
+        if (processingMs >= 0 && processingMs <= totalMs) {
+            loadMs = totalMs - processingMs;
+        } else {
+            // without the wrapper's log (in-process mode) keep the known load time
+            loadMs = old != null ? Math.min(old.loadMs, totalMs) : 0;
+        }
+        double msPerMolecule = (totalMs - loadMs) / rows;
+        if (old == null) {
+            entries.put(modelKey, new Entry(loadMs, msPerMolecule, 1, peakHeapMB, -1));
+        } else {
+            old.loadMs = ALPHA * loadMs + (1 - ALPHA) * old.loadMs;
+            old.msPerMolecule = ALPHA * msPerMolecule + (1 - ALPHA) * old.msPerMolecule;
+            old.runs++;
+            if (peakHeapMB > 0) {
+                // a higher peak is taken at once, a lower one only lowers the recorded peak gradually
+                old.peakHeapMB = old.peakHeapMB <= 0 ? peakHeapMB
+                        : Math.max(peakHeapMB, Math.round(ALPHA * peakHeapMB + (1 - ALPHA) * old.peakHeapMB));
+            }
+        }
+    }
+
+    /**
+     * Record that the model ran out of heap with this -Xmx. Kept apart from the measured peak heap:
+     * the model needs more than heapMB, however low its peak after GC was in other runs.
+     */
+    public synchronized void recordOutOfMemory(String modelKey, long heapMB) {
+        Entry entry = entries.get(modelKey);
+        if (entry == null) {
+            // no times yet, the estimate uses the average of the other models
+            return;
+        }
+        entry.oomHeapMB = Math.max(entry.oomHeapMB, heapMB);
+    }
+
+    /**
+     * Estimated wall time of a task in ms, 0 if there is no history at all.
+     *
+     * @param totalRows rows of the input, used for tasks covering all rows
+     */
+    public synchronized long estimate(ModelTask task, int totalRows) {
+        int rows = task.getRowCount(totalRows);
+        Entry entry = entries.get(task.getModelKey());
+        if (entry != null) {
+            return Math.round(entry.loadMs + rows * entry.msPerMolecule);
+        }
+        if (entries.isEmpty()) {
+            return 0;
+        }
+        double loadMs = 0;
+        double msPerMolecule = 0;
+        for (Entry e : entries.values()) {
+            loadMs += e.loadMs;
+            msPerMolecule += e.msPerMolecule;
+        }
+        return Math.round((loadMs + rows * msPerMolecule) / entries.size());
+    }
+
+    /**
+     * Order tasks longest first (LPT). Tasks with the same estimate keep their order.
+     */
+    public List<ModelTask> schedule(List<ModelTask> tasks, int totalRows) {
+        List<ModelTask> ordered = new ArrayList<>(tasks);
+        ordered.sort(Comparator.comparingLong((ModelTask task) -> estimate(task, totalRows)).reversed());
+        return ordered;
+    }
+
+    /**
+     * Makespan in ms when the tasks are started in this order, each on the first free worker.
+     */
+    public long predictMakespan(List<ModelTask> tasks, int workers, int totalRows) {
+        PriorityQueue<Long> finish = new PriorityQueue<>();
+        for (int i = 0; i < Math.max(1, workers); i++) {
+            finish.add(0L);
+        }
+        long makespan = 0;
+        for (ModelTask task : tasks) {
+            long end = finish.poll() + estimate(task, totalRows);
+            finish.add(end);
+            makespan = Math.max(makespan, end);
+        }
+        return makespan;
+    }
+
+    /**
+     * Peak heap from the wrapper's "Peak heap: N MB" log line.
+     *
+     * @return MB, or -1 if the line is something else
+     */
+    public static long parsePeakHeapMB(String line) {
+        Matcher matcher = PEAK_HEAP.matcher(line);
+        return matcher.find() ? Long.parseLong(matcher.group(1)) : -1;
+    }
+
+    /**
+     * Processing time from the wrapper's "Processed: N rows Elapsed time: X s" log line.
+     *
+     * @return the time in ms, or -1 if the line is something else
+     */
+    public static long parseProcessingMs(String line) {
+        Matcher matcher = PROCESSED.matcher(line);
+        if (!matcher.find()) {
+            return -1;
+        }
+        // the wrapper formats with the default locale
+        return Math.round(Double.parseDouble(matcher.group(1).replace(',', '.')) * 1000);
+    }
+}
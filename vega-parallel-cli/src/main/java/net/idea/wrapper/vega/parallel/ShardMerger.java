@@ -0,0 +1,142 @@
+package net.idea.wrapper.vega.parallel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Joins the result files of the shards of a model into the output folder.
+ * The wrapper numbers rows of every shard with their row in the whole input and writes the TXT header
+ * only with row 1, so the shard files are concatenated as they are, in shard order.
+ * Gzip compressed shard files (resultsw_MODEL.jsonl.gz) are concatenated the same way:
+ * the result is a file of several gzip members, which gzip readers read as one stream.
+ * With resume, the joined file is resultsw_MODEL.ext with a complete checkpoint next to it;
+ * otherwise an existing file is kept and the new one gets a _1, _2... suffix, like the wrapper does.
+ * The metrics file of each shard is kept as metrics_MODEL.shardNNN.json.
+ */
+public class ShardMerger {
+
+    private static final String CHECKPOINT = ".checkpoint";
+
+    private final Path outputDir;
+    private final boolean resume;
+
+    public ShardMerger(Path outputDir, boolean resume) {
+        this.outputDir = outputDir;
+        this.resume = resume;
+    }
+
+    /**
+     * Join the result files of all shards of the model and delete the shard folders.
+     *
+     * @return the joined files
+     */
+    public List<Path> merge(String modelKey, int shardCount) throws IOException {
+        // resultsw_MODEL.ext -> shard files in shard order
+        Map<String, List<Path>> parts = new TreeMap<>();
+        for (int k = 0; k < shardCount; k++) {
+            Path dir = ModelTask.shardDir(outputDir, modelKey, k);
+            if (!Files.isDirectory(dir)) {
+                continue;
+            }
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path file : files.sorted().collect(Collectors.toList())) {
+                    String name = file.getFileName().toString();
+                    if (name.startsWith("resultsw_") && !name.endsWith(CHECKPOINT)) {
+                        parts.computeIfAbsent(name, n -> new ArrayList<>()).add(file);
+                    } else if (name.startsWith("metrics_") && name.endsWith(".json")) {
+                        Files.move(file, outputDir.resolve(String.format("metrics_%s.shard%03d.json", modelKey, k)),
+                                StandardCopyOption.REPLACE_EXISTING);
+                    }
+                }
+            }
+        }
+
+        List<Path> merged = new ArrayList<>();
+        for (Map.Entry<String, List<Path>> e : parts.entrySet()) {
+            Path target = resume ? outputDir.resolve(e.getKey()) : uniqueFile(modelKey, e.getKey());
+            long size = 0;
+            try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                for (Path part : e.getValue()) {
+                    try (FileChannel in = FileChannel.open(part, StandardOpenOption.READ)) {
+                        long length = in.size();
+                        long position = 0;
+                        while (position < length) {
+                            position += in.transferTo(position, length - position, out);
+                        }
+                        size += length;
+                    }
+                }
+                out.force(true);
+            }
+            if (resume) {
+                // the last row is the one of the last shard
+                Properties last = new Properties();
+                Path lastCheckpoint = Paths.get(e.getValue().get(e.getValue().size() - 1) + CHECKPOINT);
+                if (Files.exists(lastCheckpoint)) {
+                    try (InputStream in = Files.newInputStream(lastCheckpoint)) {
+                        last.load(in);
+                    }
+                }
+                // and the row limit, if the last shard did not reach the end of the input
+                String maxRows = last.getProperty("maxrows");
+                Files.writeString(outputDir.resolve(e.getKey() + CHECKPOINT),
+                        "row=" + last.getProperty("row", "0") + "\noffset=" + size + "\ncomplete=true\n"
+                                + (maxRows != null ? "maxrows=" + maxRows + "\n" : ""));
+            }
+            merged.add(target);
+        }
+        deleteShards(modelKey);
+        return merged;
+    }
+
+    private Path uniqueFile(String modelKey, String name) {
+        Path file = outputDir.resolve(name);
+        if (!Files.exists(file)) {
+            return file;
+        }
+        String base = "resultsw_" + modelKey;
+        String ext = name.substring(base.length());
+        int counter = 1;
+        do {
+            file = outputDir.resolve(base + "_" + counter + ext);
+            counter++;
+        } while (Files.exists(file));
+        return file;
+    }
+
+    private void deleteShards(String modelKey) throws IOException {
+        Path dir = outputDir.resolve(".shards").resolve(modelKey);
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+        // remove .shards when no other model has shards left
+        try (Stream<Path> rest = Files.list(dir.getParent())) {
+            if (rest.findAny().isEmpty()) {
+                Files.delete(dir.getParent());
+            }
+        } catch (DirectoryNotEmptyException e) {
+            // shards of another model started meanwhile
+        }
+    }
+}
@@ -17,6 +17,7 @@ public class VegaProcessBuilder {
     private final List<String> baseArgs;
     private final Path outputDir;
     private final String commandName;
+    private String nativeExecutable;
 
     public VegaProcessBuilder(String vegaJarPath, String vegaGuiJarPath, List<String> baseArgs, Path outputDir,
             String commandName) {
@@ -27,6 +28,15 @@ public class VegaProcessBuilder {
         this.commandName = commandName;
     }
 
+    /**
+     * Run the native wrapper executable instead of a JVM with the wrapper and Vega-GUI JARs.
+     * 
+     * @param nativeExecutable path of the executable, null for the JVM
+     */
+    public void setNativeExecutable(String nativeExecutable) {
+        this.nativeExecutable = nativeExecutable;
+    }
+
     /**
      * Create a ProcessBuilder for executing a single model.
      * All models write to the same output directory.
@@ -36,11 +46,90 @@ public class VegaProcessBuilder {
      * @throws IOException if output directory cannot be created
      */
     public ProcessBuilder createProcessForModel(String modelKey) throws IOException {
+        return createProcessForTask(ModelTask.whole(modelKey));
+    }
+
+    /**
+     * Create a ProcessBuilder for executing a model on all rows or on one shard of the input.
+     * 
+     * @param task The model and row range to execute
+     * @return ProcessBuilder configured for this task
+     * @throws IOException if output directory cannot be created
+     */
+    public ProcessBuilder createProcessForTask(ModelTask task) throws IOException {
+        return createProcessForTask(task, 0);
+    }
+
+    /**
+     * Create a ProcessBuilder for a task, with the maximum heap of the JVM.
+     * 
+     * @param task   The model and row range to execute
+     * @param heapMB -Xmx in MB, 0 for the JVM default
+     * @return ProcessBuilder configured for this task
+     * @throws IOException if output directory cannot be created
+     */
+    public ProcessBuilder createProcessForTask(ModelTask task, int heapMB) throws IOException {
+        List<String> command = javaCommand(heapMB);
+
+        // Add subcommand and its arguments
+        command.addAll(buildArguments(task));
+
+        ProcessBuilder pb = new ProcessBuilder(command);
+        pb.redirectErrorStream(true); // Merge stderr into stdout
+
+        return pb;
+    }
+
+    /**
+     * Create a ProcessBuilder for a long-lived worker JVM ("worker" subcommand),
+     * which reads the arguments of {@link #buildArguments(String)} from stdin, one model per line.
+     * 
+     * @return ProcessBuilder for a worker
+     */
+    public ProcessBuilder createWorkerProcess() {
+        return createWorkerProcess(0);
+    }
+
+    /**
+     * Create a ProcessBuilder for a worker JVM with the maximum heap.
+     * 
+     * @param heapMB -Xmx in MB, 0 for the JVM default
+     * @return ProcessBuilder for a worker
+     */
+    public ProcessBuilder createWorkerProcess(int heapMB) {
+        List<String> command = javaCommand(heapMB);
+        command.add("worker");
+
+        ProcessBuilder pb = new ProcessBuilder(command);
+        pb.redirectErrorStream(true); // Merge stderr into stdout
+
+        return pb;
+    }
+
+    /**
+     * Java executable, heap, system properties, classpath and main class of the wrapper,
+     * or the native executable and heap.
+     */
+    private List<String> javaCommand(int heapMB) {
         List<String> command = new ArrayList<>();
 
+        if (nativeExecutable != null) {
+            command.add(nativeExecutable);
+            // A native executable takes -Xmx at runtime as well
+            if (heapMB > 0) {
+                command.add("-Xmx" + heapMB + "m");
+            }
+            return command;
+        }
+
         // Java command
         command.add("java");
 
+        // Without -Xmx every JVM may grow to a quarter of the host memory
+        if (heapMB > 0) {
+            command.add("-Xmx" + heapMB + "m");
+        }
+
         // Add Quarkus system property
         command.add("-Djava.util.logging.manager=org.jboss.logmanager.LogManager");
 
@@ -53,6 +142,34 @@ public class VegaProcessBuilder {
         // Specify main class
         command.add("io.quarkus.runner.GeneratedMain");
 
+        return command;
+    }
+
+    /**
+     * Build the VEGA CLI arguments for a single model, starting with the subcommand.
+     * Used both for subprocesses and for in-process execution.
+     * 
+     * @param modelKey The model key to execute
+     * @return subcommand followed by its arguments
+     * @throws IOException if output directory cannot be created
+     */
+    public List<String> buildArguments(String modelKey) throws IOException {
+        return buildArguments(ModelTask.whole(modelKey));
+    }
+
+    /**
+     * Build the VEGA CLI arguments for a task. A shard writes to its own output directory
+     * and processes rows startRow+1 to endRow (--skip-rows and -x).
+     * 
+     * @param task The model and row range to execute
+     * @return subcommand followed by its arguments
+     * @throws IOException if output directory cannot be created
+     */
+    public List<String> buildArguments(ModelTask task) throws IOException {
+        String modelKey = task.getModelKey();
+        Path taskOutputDir = task.getOutputDir(outputDir);
+        List<String> command = new ArrayList<>();
+
         // Add subcommand
         command.add(commandName);
 
@@ -75,9 +192,13 @@ public class VegaProcessBuilder {
             // Use the same output directory for all models
             else if (arg.equals("-o") || arg.equals("--output")) {
                 // Ensure output directory exists
-                Files.createDirectories(outputDir);
+                Files.createDirectories(taskOutputDir);
                 command.add(arg);
-                command.add(outputDir.toString());
+                command.add(taskOutputDir.toString());
+                skipNext = true;
+            }
+            // The shard range replaces the row limit
+            else if (task.isShard() && (arg.equals("-x") || arg.equals("--maxrows"))) {
                 skipNext = true;
             }
             // Keep other arguments as-is
@@ -86,10 +207,14 @@ public class VegaProcessBuilder {
             }
         }
 
-        ProcessBuilder pb = new ProcessBuilder(command);
-        pb.redirectErrorStream(true); // Merge stderr into stdout
+        if (task.isShard()) {
+            command.add("--skip-rows");
+            command.add(Integer.toString(task.getStartRow()));
+            command.add("-x");
+            command.add(Integer.toString(task.getEndRow()));
+        }
 
-        return pb;
+        return command;
     }
 
     /**
@@ -105,6 +230,19 @@ public class VegaProcessBuilder {
         }
     }
 
+    /**
+     * Validate that the native wrapper executable exists and can be run.
+     */
+    public static void validateVegaNative(String vegaNativePath) throws IOException {
+        Path path = Paths.get(vegaNativePath);
+        if (!Files.isRegularFile(path)) {
+            throw new IOException("VEGA native executable not found: " + vegaNativePath);
+        }
+        if (!Files.isExecutable(path)) {
+            throw new IOException("VEGA native executable is not executable: " + vegaNativePath);
+        }
+    }
+
     /**
      * Validate that the Vega-GUI JAR exists.
      */
@@ -0,0 +1,297 @@
+package net.idea.wrapper.vega.parallel;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Pool of long-lived VEGA wrapper JVMs ("worker" subcommand), each running one model at a time.
+ * Jobs are sent to the worker's stdin as one tab-separated line of arguments; the worker
+ * reports "@@vega-worker done EXITCODE USED_HEAP_MB STUCK_THREADS" on stdout when the job is finished.
+ * A worker is replaced after maxJobs jobs, or when its heap after a job is above maxHeapMB,
+ * so memory leaked by a model does not accumulate. It is also replaced when threads of molecules
+ * that timed out (--molecule-timeout) are still running in it.
+ */
+public class WorkerPool implements AutoCloseable {
+
+    static final String MARKER = "@@vega-worker";
+    private static final Line EOF = new Line(null);
+
+    /** Result of one job. */
+    public static class JobResult {
+        public final int exitCode;
+        public final String lastOutput;
+        /** Time the wrapper logged for processing the molecules, -1 if not logged. */
+        public final long processingMs;
+        /** Peak heap the wrapper logged for the job, -1 if not logged. */
+        public final long peakHeapMB;
+        /** Rows and unique structures the wrapper logged with --dedup, null if not logged. */
+        public final long[] dedup;
+
+        JobResult(int exitCode, String lastOutput, long processingMs, long peakHeapMB, long[] dedup) {
+            this.exitCode = exitCode;
+            this.lastOutput = lastOutput;
+            this.processingMs = processingMs;
+            this.peakHeapMB = peakHeapMB;
+            this.dedup = dedup;
+        }
+    }
+
+    private static class Line {
+        final String text;
+
+        Line(String text) {
+            this.text = text;
+        }
+    }
+
+    /** One worker JVM. */
+    static class Worker {
+        final Process process;
+        final Writer stdin;
+        final BlockingQueue<Line> stdout = new LinkedBlockingQueue<>();
+        int jobs = 0;
+        long usedHeapMB = 0;
+        int stuckThreads = 0;
+        long processingMs = -1;
+        long peakHeapMB = -1;
+        long[] dedup;
+
+        Worker(Process process) {
+            this.process = process;
+            this.stdin = new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8);
+            Thread reader = new Thread(() -> {
+                try (BufferedReader in = new BufferedReader(
+                        new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        stdout.add(new Line(line));
+                    }
+                } catch (IOException e) {
+                    // process gone
+                } finally {
+                    stdout.add(EOF);
+                }
+            }, "vega-worker-" + process.pid());
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        /**
+         * Wait for the next marker line.
+         *
+         * @param deadline System.nanoTime() deadline, or Long.MAX_VALUE
+         * @return the marker line, with the last other output line seen before it in last[0]
+         */
+        String awaitMarker(long deadline, String[] last) throws IOException, InterruptedException, TimeoutException {
+            while (true) {
+                Line line;
+                if (deadline == Long.MAX_VALUE) {
+                    line = stdout.take();
+                } else {
+                    long wait = deadline - System.nanoTime();
+                    line = wait > 0 ? stdout.poll(wait, TimeUnit.NANOSECONDS) : null;
+                    if (line == null) {
+                        throw new TimeoutException();
+                    }
+                }
+                if (line == EOF) {
+                    throw new IOException("Worker exited" + (last[0] != null ? " - Last output: " + last[0] : ""));
+                }
+                if (line.text.startsWith(MARKER)) {
+                    return line.text;
+                }
+                if (!line.text.isBlank()) {
+                    last[0] = line.text;
+                    long ms = RuntimeHistory.parseProcessingMs(line.text);
+                    if (ms >= 0) {
+                        processingMs = ms;
+                    }
+                    long mb = RuntimeHistory.parsePeakHeapMB(line.text);
+                    if (mb >= 0) {
+                        peakHeapMB = mb;
+                    }
+                    long[] rows = ProgressTracker.parseDedup(line.text);
+                    if (rows != null) {
+                        dedup = rows;
+                    }
+                }
+            }
+        }
+
+        JobResult run(List<String> args, long timeoutMinutes) throws IOException, InterruptedException, TimeoutException {
+            for (String arg : args) {
+                if (arg.contains("\t") || arg.contains("\n") || arg.contains("\r")) {
+                    throw new IOException("Argument not supported by persistent workers: " + arg);
+                }
+            }
+            stdin.write(String.join("\t", args));
+            stdin.write("\n");
+            stdin.flush();
+            jobs++;
+            processingMs = -1;
+            peakHeapMB = -1;
+            dedup = null;
+            long deadline = timeoutMinutes > 0
+                    ? System.nanoTime() + TimeUnit.MINUTES.toNanos(timeoutMinutes)
+                    : Long.MAX_VALUE;
+            String[] last = new String[1];
+            String[] marker = awaitMarker(deadline, last).split(" ");
+            // @@vega-worker done EXITCODE USED_HEAP_MB [STUCK_THREADS]
+            if (marker.length < 4 || !"done".equals(marker[1])) {
+                throw new IOException("Unexpected worker reply: " + String.join(" ", marker));
+            }
+            usedHeapMB = Long.parseLong(marker[3]);
+            stuckThreads = marker.length > 4 ? Integer.parseInt(marker[4]) : 0;
+            return new JobResult(Integer.parseInt(marker[2]), last[0], processingMs, peakHeapMB, dedup);
+        }
+
+        void close() {
+            try {
+                // an empty line stops the worker
+                stdin.write("\n");
+                stdin.close();
+                if (!process.waitFor(10, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                }
+            } catch (IOException e) {
+                process.destroyForcibly();
+            } catch (InterruptedException e) {
+                process.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private final VegaProcessBuilder processBuilder;
+    private final int maxJobs;
+    private final long maxHeapMB;
+    private final int heapMB;
+    private final Deque<Worker> idle = new ArrayDeque<>();
+    private final List<Worker> all = new ArrayList<>();
+    private int started = 0;
+    private int recycled = 0;
+
+    /**
+     * @param maxJobs replace a worker after this many jobs, 0 or less for no limit
+     * @param maxHeapMB replace a worker when its heap after a job is above this, 0 or less for no limit
+     */
+    public WorkerPool(VegaProcessBuilder processBuilder, int maxJobs, long maxHeapMB) {
+        this(processBuilder, maxJobs, maxHeapMB, 0);
+    }
+
+    /**
+     * @param heapMB -Xmx of the workers, 0 for the JVM default
+     */
+    public WorkerPool(VegaProcessBuilder processBuilder, int maxJobs, long maxHeapMB, int heapMB) {
+        this.processBuilder = processBuilder;
+        this.maxJobs = maxJobs;
+        this.maxHeapMB = maxHeapMB;
+        this.heapMB = heapMB;
+    }
+
+    /**
+     * Run one model or shard on an idle worker, starting a new worker if there is none.
+     *
+     * @param timeoutMinutes 0 or less for no timeout; on timeout the worker is killed
+     */
+    public JobResult run(ModelTask task, long timeoutMinutes)
+            throws IOException, InterruptedException, TimeoutException {
+        Worker worker = acquire();
+        boolean healthy = false;
+        try {
+            JobResult result = worker.run(processBuilder.buildArguments(task), timeoutMinutes);
+            healthy = true;
+            return result;
+        } finally {
+            release(worker, healthy);
+        }
+    }
+
+    private Worker acquire() throws IOException, InterruptedException {
+        synchronized (this) {
+            Worker worker = idle.pollFirst();
+            if (worker != null && worker.process.isAlive()) {
+                return worker;
+            }
+            if (worker != null) {
+                all.remove(worker);
+            }
+        }
+        Worker worker = new Worker(processBuilder.createWorkerProcess(heapMB).start());
+        synchronized (this) {
+            all.add(worker);
+            started++;
+        }
+        try {
+            String[] last = new String[1];
+            worker.awaitMarker(System.nanoTime() + TimeUnit.MINUTES.toNanos(5), last);
+        } catch (IOException | TimeoutException e) {
+            discard(worker);
+            worker.process.destroyForcibly();
+            throw new IOException("Worker failed to start: " + e.getMessage(), e);
+        }
+        return worker;
+    }
+
+    private void release(Worker worker, boolean healthy) {
+        if (!healthy) {
+            // timed out or broken, may still be running a job
+            discard(worker);
+            worker.process.destroyForcibly();
+            return;
+        }
+        boolean recycle = !worker.process.isAlive()
+                || (maxJobs > 0 && worker.jobs >= maxJobs)
+                || (maxHeapMB > 0 && worker.usedHeapMB > maxHeapMB)
+                // molecules that timed out and still keep a CPU busy
+                || worker.stuckThreads > 0;
+        if (recycle) {
+            synchronized (this) {
+                recycled++;
+            }
+            discard(worker);
+            worker.close();
+        } else {
+            synchronized (this) {
+                idle.addFirst(worker);
+            }
+        }
+    }
+
+    private synchronized void discard(Worker worker) {
+        all.remove(worker);
+    }
+
+    public synchronized int getStarted() {
+        return started;
+    }
+
+    public synchronized int getRecycled() {
+        return recycled;
+    }
+
+    @Override
+    public void close() {
+        List<Worker> workers;
+        synchronized (this) {
+            workers = new ArrayList<>(all);
+            all.clear();
+            idle.clear();
+        }
+        for (Worker worker : workers) {
+            worker.close();
+        }
+    }
+}
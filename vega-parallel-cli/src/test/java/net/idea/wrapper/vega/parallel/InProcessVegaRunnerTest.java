@@ -0,0 +1,36 @@
+package net.idea.wrapper.vega.parallel;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InProcessVegaRunnerTest {
+
+    @Test
+    void testMissingEntryPointThrowsException(@TempDir Path tempDir) throws IOException {
+        Path wrapperJar = tempDir.resolve("wrapper.jar");
+        Path guiJar = tempDir.resolve("gui.jar");
+        createEmptyJar(wrapperJar);
+        createEmptyJar(guiJar);
+
+        IOException e = assertThrows(IOException.class, () -> {
+            new InProcessVegaRunner(wrapperJar.toString(), guiJar.toString());
+        });
+        assertTrue(e.getMessage().contains(InProcessVegaRunner.ENTRY_CLASS));
+    }
+
+    private static void createEmptyJar(Path path) throws IOException {
+        try (OutputStream out = Files.newOutputStream(path);
+                JarOutputStream jar = new JarOutputStream(out, new Manifest())) {
+            jar.flush();
+        }
+    }
+}
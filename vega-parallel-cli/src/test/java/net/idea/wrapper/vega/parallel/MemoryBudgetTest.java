@@ -0,0 +1,73 @@
+package net.idea.wrapper.vega.parallel;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MemoryBudgetTest {
+
+    @Test
+    void testHeapFromHistory(@TempDir Path tempDir) {
+        RuntimeHistory history = RuntimeHistory.load(tempDir.resolve("history.tsv"));
+        history.record("BCF", 100, 1000, 1000, 1000);
+        history.record("SMALL", 100, 1000, 1000, 50);
+
+        MemoryBudget budget = new MemoryBudget(8192, 1.5, 2048, history);
+
+        // 1500 MB rounded up to 64 MB
+        assertEquals(1536, budget.heapFor("BCF"));
+        assertEquals(MemoryBudget.MIN_HEAP_MB, budget.heapFor("SMALL"));
+        assertEquals(2048, budget.heapFor("UNKNOWN"));
+        assertEquals(1536 + MemoryBudget.NON_HEAP_MB, budget.reservationFor(1536));
+        // larger than the budget: runs alone
+        assertEquals(8192, budget.reservationFor(16384));
+    }
+
+    @Test
+    void testHeapAfterOutOfMemory(@TempDir Path tempDir) {
+        RuntimeHistory history = RuntimeHistory.load(tempDir.resolve("history.tsv"));
+        history.record("BCF", 100, 1000, 1000, 400);
+        MemoryBudget budget = new MemoryBudget(8192, 1.5, 2048, history);
+        assertEquals(640, budget.heapFor("BCF"));
+
+        // ran out of heap with -Xmx640m: more than that next time, although the peak after GC was lower
+        history.recordOutOfMemory("BCF", 640);
+        assertEquals(960, budget.heapFor("BCF"));
+    }
+
+    @Test
+    void testAdmission() throws InterruptedException {
+        MemoryBudget budget = new MemoryBudget(1000, 1.5, 512, null);
+        budget.acquire(600);
+        Thread second = new Thread(() -> {
+            try {
+                budget.acquire(600);
+                budget.release(600);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        second.start();
+        second.join(200);
+        // waits until the first reservation is released
+        assertTrue(second.isAlive());
+        budget.release(600);
+        second.join(5000);
+        assertFalse(second.isAlive());
+    }
+
+    @Test
+    void testReadLimit(@TempDir Path tempDir) throws IOException {
+        Path file = tempDir.resolve("memory.max");
+        Files.writeString(file, "4294967296\n");
+        assertEquals(4294967296L, MemoryBudget.readLimit(file));
+        Files.writeString(file, "max\n");
+        assertEquals(-1, MemoryBudget.readLimit(file));
+        assertEquals(-1, MemoryBudget.readLimit(tempDir.resolve("missing")));
+    }
+}
@@ -0,0 +1,78 @@
+package net.idea.wrapper.vega.parallel;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ModelTaskTest {
+
+    @Test
+    void testPlanShardsSingleModel() {
+        List<ModelTask> tasks = ModelTask.plan(List.of("BCF"), 10000, 4, 1000);
+
+        assertEquals(4, tasks.size());
+        assertEquals("BCF[1/4]", tasks.get(0).getLabel());
+        assertEquals(0, tasks.get(0).getStartRow());
+        assertEquals(2500, tasks.get(0).getEndRow());
+        assertEquals(7500, tasks.get(3).getStartRow());
+        assertEquals(10000, tasks.get(3).getEndRow());
+    }
+
+    @Test
+    void testPlanLimitedByMinShardRows() {
+        List<ModelTask> tasks = ModelTask.plan(List.of("BCF"), 2500, 8, 1000);
+
+        // 2 shards of at least 1000 rows, the last one takes the rest
+        assertEquals(2, tasks.size());
+        assertEquals(1250, tasks.get(0).getEndRow());
+        assertEquals(2500, tasks.get(1).getEndRow());
+    }
+
+    @Test
+    void testPlanNoShards() {
+        // as many models as workers
+        List<ModelTask> tasks = ModelTask.plan(List.of("A", "B"), 10000, 2, 1000);
+        assertEquals(2, tasks.size());
+        assertFalse(tasks.get(0).isShard());
+        assertEquals("A", tasks.get(0).getLabel());
+
+        // too few rows, or row count unknown
+        assertEquals(1, ModelTask.plan(List.of("A"), 500, 4, 1000).size());
+        assertEquals(1, ModelTask.plan(List.of("A"), 0, 4, 1000).size());
+    }
+
+    @Test
+    void testOutputDir(@TempDir Path tempDir) {
+        assertEquals(tempDir, ModelTask.whole("BCF").getOutputDir(tempDir));
+        assertEquals(tempDir.resolve(".shards").resolve("BCF").resolve("002"),
+                new ModelTask("BCF", 2, 4, 0, 10).getOutputDir(tempDir));
+    }
+
+    @Test
+    void testCountRows(@TempDir Path tempDir) throws IOException {
+        Path input = tempDir.resolve("input.txt");
+        Files.writeString(input, "ID\tSMILES\nm1\tCCO\n\nm2\tc1ccccc1\n  \nm3\tC\n");
+
+        assertEquals(3, ModelTask.countRows(input));
+    }
+
+    @Test
+    void testCountRowsGzip(@TempDir Path tempDir) throws IOException {
+        // recognized by content, not by name
+        Path input = tempDir.resolve("input.txt");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(input))) {
+            out.write("ID\tSMILES\nm1\tCCO\n\nm2\tc1ccccc1\n".getBytes(StandardCharsets.US_ASCII));
+        }
+
+        assertEquals(2, ModelTask.countRows(input));
+    }
+}
@@ -0,0 +1,46 @@
+package net.idea.wrapper.vega.parallel;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProgressTrackerTest {
+
+    @Test
+    void testEtaFromFinishedModels() {
+        ProgressTracker tracker = new ProgressTracker(4, 0);
+        tracker.modelStarted("A");
+        tracker.modelCompleted("A");
+        tracker.modelStarted("B");
+
+        assertEquals("Progress: 1/4 completed, 0 failed, 1 running, elapsed 1m 0s, 1.0 models/min, ETA 3m 0s",
+                tracker.formatProgress(60_000));
+    }
+
+    @Test
+    void testEtaFromPredictedMakespan() {
+        ProgressTracker tracker = new ProgressTracker(2, 0);
+        tracker.setPredictedMakespan(100_000);
+
+        assertEquals("Progress: 0/2 completed, 0 failed, 0 running, elapsed 10s, ETA 1m 30s",
+                tracker.formatProgress(10_000));
+    }
+
+    @Test
+    void testNoEtaWhenDone() {
+        ProgressTracker tracker = new ProgressTracker(1, 0);
+        tracker.modelStarted("A");
+        tracker.modelFailed("A", "error");
+
+        assertEquals("Progress: 0/1 completed, 1 failed, 0 running, elapsed 30s, 2.0 models/min",
+                tracker.formatProgress(30_000));
+        assertFalse(tracker.isSuccess());
+    }
+
+    @Test
+    void testParseDedup() {
+        assertArrayEquals(new long[] { 3000, 80 }, ProgressTracker.parseDedup(
+                "INFO: [BCF] Deduplicated: 3000 rows, 80 unique structures (ratio 37,50), 2920 rows reused a prediction"));
+        assertNull(ProgressTracker.parseDedup("INFO: [BCF] Processed: 3000 rows Elapsed time: 1.00 s"));
+    }
+}
@@ -0,0 +1,64 @@
+package net.idea.wrapper.vega.parallel;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResultCheckpointsTest {
+
+    @Test
+    void testCompleteCheckpoint(@TempDir Path tempDir) throws IOException {
+        Files.writeString(ResultCheckpoints.checkpointFile(tempDir, "BCF", true),
+                "row=100\noffset=12345\ncomplete=true\n");
+
+        assertTrue(ResultCheckpoints.isComplete(tempDir, "BCF", true));
+        // TXT results have their own checkpoint
+        assertFalse(ResultCheckpoints.isComplete(tempDir, "BCF", false));
+    }
+
+    @Test
+    void testCompressedCheckpoint(@TempDir Path tempDir) throws IOException {
+        Files.writeString(tempDir.resolve("resultsw_BCF.jsonl.gz.checkpoint"), "complete=true\n");
+
+        assertTrue(ResultCheckpoints.isComplete(tempDir, "BCF", true, true));
+        assertFalse(ResultCheckpoints.isComplete(tempDir, "BCF", true));
+    }
+
+    @Test
+    void testIncompleteOrMissingCheckpoint(@TempDir Path tempDir) throws IOException {
+        Files.writeString(ResultCheckpoints.checkpointFile(tempDir, "BCF", false),
+                "row=50\noffset=999\ncomplete=false\n");
+
+        assertFalse(ResultCheckpoints.isComplete(tempDir, "BCF", false));
+        assertFalse(ResultCheckpoints.isComplete(tempDir, "MUTAGENICITY", false));
+    }
+
+    @Test
+    void testCompleteForRowLimit(@TempDir Path tempDir) throws IOException {
+        // a run with -x 100 that did not reach the end of the input
+        Files.writeString(ResultCheckpoints.checkpointFile(tempDir, "BCF", true),
+                "row=100\noffset=12345\ncomplete=true\nmaxrows=100\n");
+
+        assertTrue(ResultCheckpoints.isComplete(tempDir, "BCF", true, false, 100));
+        assertTrue(ResultCheckpoints.isComplete(tempDir, "BCF", true, false, 50));
+        assertFalse(ResultCheckpoints.isComplete(tempDir, "BCF", true, false, 200));
+        // without -x the remaining rows are still to process
+        assertFalse(ResultCheckpoints.isComplete(tempDir, "BCF", true, false, 0));
+        assertEquals(List.of("BCF"), ResultCheckpoints.incompleteModels(tempDir, List.of("BCF"), true, false, 0));
+    }
+
+    @Test
+    void testIncompleteModels(@TempDir Path tempDir) throws IOException {
+        Files.writeString(ResultCheckpoints.checkpointFile(tempDir, "MODEL2", true), "complete=true\n");
+
+        List<String> models = ResultCheckpoints.incompleteModels(tempDir, List.of("MODEL1", "MODEL2", "MODEL3"), true);
+
+        assertEquals(List.of("MODEL1", "MODEL3"), models);
+    }
+}
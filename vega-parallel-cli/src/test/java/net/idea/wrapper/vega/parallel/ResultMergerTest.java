@@ -0,0 +1,98 @@
+package net.idea.wrapper.vega.parallel;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResultMergerTest {
+
+    private static final String TXT_HEADER = "intro\nversion\n\n\nNo.\tID\tSMILES\tPrediction\tSTATUS\n";
+
+    @Test
+    void testMergeTxtAndJsonl(@TempDir Path tempDir) throws IOException {
+        Files.writeString(tempDir.resolve("resultsw_BCF.txt"), TXT_HEADER + "1\tm1\tCC\t2.5\t1\n2\tm2\tCCC\t3.1\t1\n");
+        // row 2 missing
+        Files.writeString(tempDir.resolve("resultsw_LOGP.jsonl"),
+                "{\"No.\":1,\"ID\":\"m1\",\"SMILES\":\"CC\",\"Value\":\"1.0\",\"STATUS\":1}\n"
+                        + "{\"No.\":3,\"ID\":\"m3\",\"SMILES\":\"C\",\"Value\":null,\"STATUS\":-1}\n");
+        Path target = tempDir.resolve("merged.txt");
+
+        int rows = new ResultMerger(tempDir).merge(List.of("BCF", "LOGP"), target, false);
+
+        assertEquals(3, rows);
+        assertEquals(List.of(
+                "No.\tID\tSMILES\tBCF.Prediction\tBCF.STATUS\tLOGP.Value\tLOGP.STATUS",
+                "1\tm1\tCC\t2.5\t1\t1.0\t1",
+                "2\tm2\tCCC\t3.1\t1\t\t",
+                "3\tm3\tC\t\t\t-\t-1"), Files.readAllLines(target));
+    }
+
+    @Test
+    void testMergeShardsNotJoined(@TempDir Path tempDir) throws IOException {
+        for (int k = 0; k < 2; k++) {
+            Path dir = ModelTask.shardDir(tempDir, "BCF", k);
+            Files.createDirectories(dir);
+            String content = k == 0 ? TXT_HEADER + "1\tm1\tCC\t2.5\t1\n" : "2\tm2\tCCC\t3.1\t1\n";
+            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(dir.resolve("resultsw_BCF.txt.gz")))) {
+                out.write(content.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        Path target = tempDir.resolve("merged.txt");
+
+        assertEquals(2, ResultMerger.resultFiles(tempDir, "BCF").size());
+        new ResultMerger(tempDir).merge(List.of("BCF"), target, false);
+
+        assertEquals(List.of(
+                "No.\tID\tSMILES\tBCF.Prediction\tBCF.STATUS",
+                "1\tm1\tCC\t2.5\t1",
+                "2\tm2\tCCC\t3.1\t1"), Files.readAllLines(target));
+    }
+
+    @Test
+    void testLatestResultFile(@TempDir Path tempDir) throws IOException {
+        Files.writeString(tempDir.resolve("resultsw_BCF.txt"), "old");
+        Path latest = Files.writeString(tempDir.resolve("resultsw_BCF_1.txt"), "new");
+        Files.writeString(tempDir.resolve("resultsw_BCF_MEYLAN.txt"), "other model");
+        latest.toFile().setLastModified(System.currentTimeMillis() + 10000);
+
+        assertEquals(List.of(latest), ResultMerger.resultFiles(tempDir, "BCF"));
+        // resultsw_BCF_1 is a re-run of BCF, not another model
+        assertEquals(List.of("BCF", "BCF_MEYLAN"), ResultMerger.modelKeys(tempDir));
+    }
+
+    @Test
+    void testModelKeyWithNumber(@TempDir Path tempDir) throws IOException {
+        // no result file of MODEL: MODEL_2 is the key
+        Files.writeString(tempDir.resolve("resultsw_MODEL_2.jsonl"), "{}");
+        Files.writeString(tempDir.resolve("resultsw_MODEL_2.jsonl.checkpoint"), "complete=true\n");
+
+        assertEquals(List.of("MODEL_2"), ResultMerger.modelKeys(tempDir));
+    }
+
+    @Test
+    void testDifferentMolecules(@TempDir Path tempDir) throws IOException {
+        Files.writeString(tempDir.resolve("resultsw_BCF.txt"), TXT_HEADER + "1\tm1\tCC\t2.5\t1\n");
+        Files.writeString(tempDir.resolve("resultsw_LOGP.txt"), TXT_HEADER + "1\tother\tCC\t2.5\t1\n");
+
+        IOException e = assertThrows(IOException.class,
+                () -> new ResultMerger(tempDir).merge(List.of("BCF", "LOGP"), tempDir.resolve("merged.txt"), false));
+        assertTrue(e.getMessage().contains("Row 1"));
+    }
+
+    @Test
+    void testUnsortedRows(@TempDir Path tempDir) throws IOException {
+        Files.writeString(tempDir.resolve("resultsw_BCF.txt"), TXT_HEADER + "2\tm2\tCC\t2.5\t1\n1\tm1\tC\t1\t1\n");
+
+        assertThrows(IOException.class,
+                () -> new ResultMerger(tempDir).merge(List.of("BCF"), tempDir.resolve("merged.txt"), false));
+    }
+}
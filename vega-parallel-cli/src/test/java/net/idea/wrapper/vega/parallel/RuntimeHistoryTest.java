@@ -0,0 +1,103 @@
+package net.idea.wrapper.vega.parallel;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RuntimeHistoryTest {
+
+    @Test
+    void testRecordSaveLoad(@TempDir Path tempDir) throws IOException {
+        Path file = tempDir.resolve("history.tsv");
+        RuntimeHistory history = RuntimeHistory.load(file);
+        assertFalse(history.isKnown("BCF"));
+
+        // 10 s in total, 8 s on 1000 molecules
+        history.record("BCF", 1000, 10000, 8000, 300);
+        history.save();
+
+        RuntimeHistory loaded = RuntimeHistory.load(file);
+        assertTrue(loaded.isKnown("BCF"));
+        assertEquals(2000, loaded.get("BCF").loadMs, 0.1);
+        assertEquals(8, loaded.get("BCF").msPerMolecule, 0.001);
+        assertEquals(300, loaded.getPeakHeapMB("BCF"));
+        assertEquals(10000, loaded.estimate(ModelTask.whole("BCF"), 1000));
+        // a shard of 500 rows still loads the model
+        assertEquals(6000, loaded.estimate(new ModelTask("BCF", 0, 2, 0, 500), 1000));
+    }
+
+    @Test
+    void testPeakHeap(@TempDir Path tempDir) {
+        RuntimeHistory history = RuntimeHistory.load(tempDir.resolve("history.tsv"));
+        history.record("BCF", 100, 1000, 1000, 400);
+        // a higher peak is taken at once, a lower one lowers it gradually
+        history.record("BCF", 100, 1000, 1000, 1000);
+        assertEquals(1000, history.getPeakHeapMB("BCF"));
+        history.record("BCF", 100, 1000, 1000, 200);
+        assertEquals(600, history.getPeakHeapMB("BCF"));
+        assertEquals(-1, history.getOutOfMemoryHeapMB("BCF"));
+        // running out of heap is recorded apart, the measured peak is kept
+        history.recordOutOfMemory("BCF", 1024);
+        assertEquals(600, history.getPeakHeapMB("BCF"));
+        assertEquals(1024, history.getOutOfMemoryHeapMB("BCF"));
+        assertEquals(-1, history.getPeakHeapMB("UNKNOWN"));
+    }
+
+    @Test
+    void testInProcessKeepsPeakHeap(@TempDir Path tempDir) {
+        RuntimeHistory history = RuntimeHistory.load(tempDir.resolve("history.tsv"));
+        history.record("BCF", 100, 1000, 800, 400);
+        // in-process: wall time only, no processing time or peak heap of its own
+        history.record("BCF", 100, 1400, -1, -1);
+        assertEquals(400, history.getPeakHeapMB("BCF"));
+        assertEquals(2, history.get("BCF").runs);
+    }
+
+    @Test
+    void testSaveLoadOutOfMemory(@TempDir Path tempDir) throws IOException {
+        Path file = tempDir.resolve("history.tsv");
+        RuntimeHistory history = RuntimeHistory.load(file);
+        history.record("BCF", 100, 1000, 1000, 400);
+        history.recordOutOfMemory("BCF", 512);
+        history.save();
+
+        RuntimeHistory loaded = RuntimeHistory.load(file);
+        assertEquals(400, loaded.getPeakHeapMB("BCF"));
+        assertEquals(512, loaded.getOutOfMemoryHeapMB("BCF"));
+    }
+
+    @Test
+    void testScheduleLongestFirst(@TempDir Path tempDir) {
+        RuntimeHistory history = RuntimeHistory.load(tempDir.resolve("history.tsv"));
+        history.record("FAST", 100, 1000, 1000, -1);
+        history.record("SLOW", 100, 9000, 9000, -1);
+        history.record("MEDIUM", 100, 5000, 5000, -1);
+
+        List<ModelTask> tasks = List.of(ModelTask.whole("FAST"), ModelTask.whole("MEDIUM"),
+                ModelTask.whole("SLOW"), ModelTask.whole("NEW"));
+        List<ModelTask> ordered = history.schedule(tasks, 100);
+
+        // NEW is estimated as the average of the known models
+        assertEquals(List.of("SLOW", "MEDIUM", "NEW", "FAST"),
+                ordered.stream().map(ModelTask::getModelKey).toList());
+        // SLOW then FAST on one worker, MEDIUM then NEW on the other
+        assertEquals(10000, history.predictMakespan(ordered, 2, 100));
+        assertEquals(20000, history.predictMakespan(ordered, 1, 100));
+    }
+
+    @Test
+    void testParseProcessingMs() {
+        assertEquals(12340, RuntimeHistory.parseProcessingMs(
+                "2025-01-01 10:00:00,000 [BCF] Processed: 100 rows Elapsed time: 12.34 s Average time per molecule: 0.1234 s"));
+        // default locale with decimal comma
+        assertEquals(1500, RuntimeHistory.parseProcessingMs("[BCF] Processed: 100 rows Elapsed time: 1,50 s"));
+        assertEquals(-1, RuntimeHistory.parseProcessingMs("Processed rows: 100"));
+        assertEquals(812, RuntimeHistory.parsePeakHeapMB("2025-01-01 10:00:00,000 [BCF] Peak heap: 812 MB"));
+        assertEquals(-1, RuntimeHistory.parsePeakHeapMB("[BCF] Average Memory (used/free): 100/200 MB"));
+    }
+}
@@ -0,0 +1,89 @@
+package net.idea.wrapper.vega.parallel;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardMergerTest {
+
+    private static void writeShard(Path outputDir, int shard, String content) throws IOException {
+        Path dir = ModelTask.shardDir(outputDir, "BCF", shard);
+        Files.createDirectories(dir);
+        Files.writeString(dir.resolve("resultsw_BCF.txt"), content);
+    }
+
+    @Test
+    void testMergeInShardOrder(@TempDir Path tempDir) throws IOException {
+        writeShard(tempDir, 1, "3\tc\n4\td\n");
+        writeShard(tempDir, 0, "No.\tID\n1\ta\n2\tb\n");
+
+        List<Path> merged = new ShardMerger(tempDir, false).merge("BCF", 2);
+
+        assertEquals(List.of(tempDir.resolve("resultsw_BCF.txt")), merged);
+        assertEquals("No.\tID\n1\ta\n2\tb\n3\tc\n4\td\n", Files.readString(merged.get(0)));
+        assertFalse(Files.exists(tempDir.resolve(".shards")));
+    }
+
+    @Test
+    void testKeepsExistingResults(@TempDir Path tempDir) throws IOException {
+        Files.writeString(tempDir.resolve("resultsw_BCF.txt"), "old\n");
+        writeShard(tempDir, 0, "new\n");
+
+        List<Path> merged = new ShardMerger(tempDir, false).merge("BCF", 1);
+
+        assertEquals(tempDir.resolve("resultsw_BCF_1.txt"), merged.get(0));
+        assertEquals("old\n", Files.readString(tempDir.resolve("resultsw_BCF.txt")));
+    }
+
+    @Test
+    void testResumeWritesCompleteCheckpoint(@TempDir Path tempDir) throws IOException {
+        Files.writeString(tempDir.resolve("resultsw_BCF.txt"), "partial\n");
+        writeShard(tempDir, 0, "12345\n");
+
+        new ShardMerger(tempDir, true).merge("BCF", 1);
+
+        assertEquals("12345\n", Files.readString(tempDir.resolve("resultsw_BCF.txt")));
+        assertTrue(ResultCheckpoints.isComplete(tempDir, "BCF", false));
+    }
+
+    @Test
+    void testMergeGzipShards(@TempDir Path tempDir) throws IOException {
+        for (int k = 0; k < 2; k++) {
+            Path dir = ModelTask.shardDir(tempDir, "BCF", k);
+            Files.createDirectories(dir);
+            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(dir.resolve("resultsw_BCF.jsonl.gz")))) {
+                out.write(("{\"No.\":" + (k + 1) + "}\n").getBytes(StandardCharsets.US_ASCII));
+            }
+        }
+
+        List<Path> merged = new ShardMerger(tempDir, false).merge("BCF", 2);
+
+        assertEquals(List.of(tempDir.resolve("resultsw_BCF.jsonl.gz")), merged);
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(merged.get(0)))) {
+            assertEquals("{\"No.\":1}\n{\"No.\":2}\n", new String(in.readAllBytes(), StandardCharsets.US_ASCII));
+        }
+    }
+
+    @Test
+    void testKeepsShardMetrics(@TempDir Path tempDir) throws IOException {
+        writeShard(tempDir, 0, "1\ta\n");
+        writeShard(tempDir, 1, "2\tb\n");
+        Files.writeString(ModelTask.shardDir(tempDir, "BCF", 1).resolve("metrics_BCF.json"), "{}");
+
+        new ShardMerger(tempDir, false).merge("BCF", 2);
+
+        assertEquals("{}", Files.readString(tempDir.resolve("metrics_BCF.shard001.json")));
+        assertFalse(Files.exists(tempDir.resolve("metrics_BCF.shard000.json")));
+    }
+}
@@ -48,6 +48,20 @@ class VegaProcessBuilderTest {
         assertTrue(command.contains(tempDir.toString()));
     }
 
+    @Test
+    void testCreateWorkerProcess(@TempDir Path tempDir) {
+        List<String> baseArgs = Arrays.asList("-m", "PLACEHOLDER", "-o", "PLACEHOLDER");
+
+        VegaProcessBuilder builder = new VegaProcessBuilder("test.jar", "vega-gui.jar", baseArgs, tempDir, "vega");
+        List<String> command = builder.createWorkerProcess().command();
+
+        assertEquals("java", command.get(0));
+        assertEquals("-cp", command.get(2));
+        assertEquals("io.quarkus.runner.GeneratedMain", command.get(4));
+        // jobs are sent on stdin, not on the command line
+        assertEquals(List.of("worker"), command.subList(5, command.size()));
+    }
+
     @Test
     void testCustomCommand(@TempDir Path tempDir) throws IOException {
         String vegaJar = "test.jar";
@@ -83,6 +97,63 @@ class VegaProcessBuilderTest {
         assertTrue(pb2.command().contains(tempDir.toString()));
     }
 
+    @Test
+    void testBuildArgumentsMatchesProcessCommand(@TempDir Path tempDir) throws IOException {
+        List<String> baseArgs = Arrays.asList("-i", "input.txt", "-m", "PLACEHOLDER", "-o", "PLACEHOLDER", "-f");
+
+        VegaProcessBuilder builder = new VegaProcessBuilder("test.jar", "vega-gui.jar", baseArgs, tempDir, "vega");
+        List<String> args = builder.buildArguments("MELTING_POINT");
+        List<String> command = builder.createProcessForModel("MELTING_POINT").command();
+
+        assertEquals("vega", args.get(0));
+        assertEquals(Arrays.asList("vega", "-i", "input.txt", "-m", "MELTING_POINT", "-o", tempDir.toString(), "-f"),
+                args);
+        // Subprocess command is the java launcher followed by the same arguments
+        assertEquals(args, command.subList(5, command.size()));
+    }
+
+    @Test
+    void testShardArguments(@TempDir Path tempDir) throws IOException {
+        List<String> baseArgs = Arrays.asList("-i", "input.txt", "-m", "PLACEHOLDER", "-o", "PLACEHOLDER",
+                "-x", "5000", "-f");
+
+        VegaProcessBuilder builder = new VegaProcessBuilder("test.jar", "vega-gui.jar", baseArgs, tempDir, "vega");
+        List<String> args = builder.buildArguments(new ModelTask("BCF", 1, 4, 1000, 2000));
+
+        // shard writes to its own folder
+        Path shardDir = ModelTask.shardDir(tempDir, "BCF", 1);
+        assertTrue(Files.isDirectory(shardDir));
+        assertEquals(shardDir.toString(), args.get(args.indexOf("-o") + 1));
+        // the row range replaces the row limit
+        assertFalse(args.contains("5000"));
+        assertEquals(List.of("--skip-rows", "1000", "-x", "2000"), args.subList(args.size() - 4, args.size()));
+    }
+
+    @Test
+    void testNativeExecutable(@TempDir Path tempDir) throws IOException {
+        List<String> baseArgs = Arrays.asList("-i", "input.txt", "-m", "PLACEHOLDER", "-o", "PLACEHOLDER", "-f");
+
+        VegaProcessBuilder builder = new VegaProcessBuilder(null, null, baseArgs, tempDir, "vega");
+        builder.setNativeExecutable("/opt/vega/vega-wrapper-app-runner");
+        List<String> command = builder.createProcessForTask(ModelTask.whole("BCF_CAESAR"), 1024).command();
+
+        assertEquals(Arrays.asList("/opt/vega/vega-wrapper-app-runner", "-Xmx1024m", "vega", "-i", "input.txt", "-m",
+                "BCF_CAESAR", "-o", tempDir.toString(), "-f"), command);
+        assertEquals(Arrays.asList("/opt/vega/vega-wrapper-app-runner", "worker"),
+                builder.createWorkerProcess().command());
+    }
+
+    @Test
+    void testValidateVegaNative(@TempDir Path tempDir) throws IOException {
+        Path binary = Files.createFile(tempDir.resolve("vega-wrapper-app-runner"));
+        assertThrows(IOException.class, () -> VegaProcessBuilder.validateVegaNative(tempDir.resolve("missing").toString()));
+        if (binary.toFile().setExecutable(false) && !Files.isExecutable(binary)) {
+            assertThrows(IOException.class, () -> VegaProcessBuilder.validateVegaNative(binary.toString()));
+        }
+        binary.toFile().setExecutable(true);
+        VegaProcessBuilder.validateVegaNative(binary.toString());
+    }
+
     @Test
     void testValidateVegaJarThrowsExceptionForNonExistent() {
         assertThrows(IOException.class, () -> {
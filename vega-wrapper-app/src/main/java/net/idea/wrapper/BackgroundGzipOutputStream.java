@@ -0,0 +1,144 @@
+package net.idea.wrapper;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzip compression on a background thread. Written bytes are collected in blocks; each full block
+ * is compressed and written to the target by a compressor thread, so the writing thread only copies bytes.
+ * At most {@link #MAX_PENDING} blocks wait for the compressor, then the writing thread waits.
+ * <p>
+ * {@link #flush()} does not push data to the target: a sync flush per record would spoil the compression.
+ * {@link #finishMember()} compresses everything written so far and completes the gzip member,
+ * so the target up to that point is a complete gzip file; later data is written as a new member
+ * (gzip readers read concatenated members as one stream). {@link #close()} does the same and closes the target.
+ * Errors of the compressor thread are thrown by the next write, finishMember or close.
+ */
+public class BackgroundGzipOutputStream extends OutputStream {
+    static final int MAX_PENDING = 4;
+
+    private interface Task {
+        void run() throws IOException;
+    }
+
+    private final OutputStream target;
+    private final int blockSize;
+    private final ExecutorService compressor;
+    private final Deque<Future<?>> pending = new ArrayDeque<>();
+    // used on the compressor thread only
+    private GZIPOutputStream gzip;
+    private byte[] block;
+    private int count = 0;
+    private boolean started = false;
+    private boolean closed = false;
+
+    public BackgroundGzipOutputStream(OutputStream target, int blockSize) {
+        this.target = target;
+        this.blockSize = blockSize;
+        this.block = new byte[blockSize];
+        this.compressor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "gzip-compressor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == block.length) submitBlock();
+        block[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = Math.min(len, block.length - count);
+            System.arraycopy(b, off, block, count, n);
+            count += n;
+            off += n;
+            len -= n;
+            if (count == block.length) submitBlock();
+        }
+    }
+
+    /**
+     * Does nothing, see the class description.
+     */
+    @Override
+    public void flush() {
+    }
+
+    /**
+     * Compress and write all data written so far as a complete gzip member, and flush the target.
+     */
+    public void finishMember() throws IOException {
+        submitBlock();
+        submit(() -> {
+            if (gzip != null) {
+                gzip.finish();
+                gzip = null;
+            }
+            target.flush();
+        });
+        while (!pending.isEmpty()) await(pending.poll());
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            // an empty file is not valid gzip, write an empty member
+            if (!started) submit(this::gzip);
+            finishMember();
+        } finally {
+            compressor.shutdownNow();
+            target.close();
+        }
+    }
+
+    private void submitBlock() throws IOException {
+        if (count == 0) return;
+        byte[] data = block;
+        int length = count;
+        block = new byte[blockSize];
+        count = 0;
+        submit(() -> gzip().write(data, 0, length));
+    }
+
+    private void submit(Task task) throws IOException {
+        started = true;
+        while (!pending.isEmpty() && (pending.size() >= MAX_PENDING || pending.peek().isDone())) {
+            await(pending.poll());
+        }
+        pending.add(compressor.submit(() -> {
+            task.run();
+            return null;
+        }));
+    }
+
+    private void await(Future<?> task) throws IOException {
+        try {
+            task.get();
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing");
+        } catch (ExecutionException x) {
+            if (x.getCause() instanceof IOException) throw (IOException) x.getCause();
+            throw new IOException("Compression failed", x.getCause());
+        }
+    }
+
+    private GZIPOutputStream gzip() throws IOException {
+        if (gzip == null) gzip = new GZIPOutputStream(target, blockSize);
+        return gzip;
+    }
+}
@@ -0,0 +1,87 @@
+package net.idea.wrapper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Joins the TXT reports of consecutive chunks of the input into the report of the whole input.
+ * A chunk report is a header followed by one line per molecule, numbered from 1 in the first column
+ * ("No."), as written by ReportTXTSingle. The header is written once, from the first chunk,
+ * and the molecules of later chunks are renumbered to continue from the previous chunks,
+ * so the result is the report of a single run over all molecules.
+ * A chunk report that does not have this layout is rejected with an IOException.
+ */
+public class ChunkedReportWriter implements Closeable {
+    private final Writer out;
+    private String[] header;
+    private int rows = 0;
+
+    public ChunkedReportWriter(Writer out) {
+        this.out = out;
+    }
+
+    /**
+     * @param report    the report of one chunk
+     * @param molecules number of molecules in the chunk
+     */
+    public void append(String report, int molecules) throws IOException {
+        List<String> lines = lines(report);
+        int headerLines = lines.size() - molecules;
+        if (headerLines < 0) {
+            throw new IOException(String.format("Report of rows %d-%d has %d lines for %d molecules",
+                    rows + 1, rows + molecules, lines.size(), molecules));
+        }
+        if (header == null) {
+            header = lines.subList(0, headerLines).toArray(new String[0]);
+            for (String line : header) out.write(line);
+        } else if (headerLines != header.length || (headerLines > 0 && !header[0].equals(lines.get(0)))) {
+            throw new IOException(String.format("Report header of rows %d-%d differs from the first chunk", rows + 1, rows + molecules));
+        }
+        for (int i = 0; i < molecules; i++) {
+            String line = lines.get(headerLines + i);
+            String number = Integer.toString(i + 1);
+            if (!line.startsWith(number) || line.length() == number.length()
+                    || Character.isDigit(line.charAt(number.length()))) {
+                throw new IOException(String.format("Report line %d of rows %d-%d does not start with its number: %s",
+                        headerLines + i + 1, rows + 1, rows + molecules, line.trim()));
+            }
+            out.write(Integer.toString(rows + i + 1));
+            out.write(line, number.length(), line.length() - number.length());
+        }
+        rows += molecules;
+    }
+
+    /**
+     * @return number of molecules written so far
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * @return the lines of text, each with its line break
+     */
+    static List<String> lines(String text) {
+        List<String> lines = new ArrayList<>();
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            end = end < 0 ? text.length() : end + 1;
+            lines.add(text.substring(start, end));
+            start = end;
+        }
+        return lines;
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
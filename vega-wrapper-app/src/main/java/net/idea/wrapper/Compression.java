@@ -0,0 +1,67 @@
+package net.idea.wrapper;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Compression of result files, and detection of compressed input files.
+ * Input files are recognized by their content (the gzip magic bytes), not by their name.
+ */
+public enum Compression {
+    NONE(""),
+    GZIP(".gz");
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String ext;
+
+    Compression(String ext) {
+        this.ext = ext;
+    }
+
+    /**
+     * @return the suffix added to the file name, e.g. resultsw_MODEL.jsonl.gz
+     */
+    public String getExt() {
+        return ext;
+    }
+
+    /**
+     * @param name none or gzip, case insensitive; null is none
+     */
+    public static Compression of(String name) {
+        if (name == null) return NONE;
+        for (Compression compression : values()) {
+            if (compression.name().equalsIgnoreCase(name)) return compression;
+        }
+        throw new IllegalArgumentException("Unknown compression: " + name + ", expected none or gzip");
+    }
+
+    /**
+     * Compress what is written to out; the stream is closed with the returned one.
+     */
+    public OutputStream compress(OutputStream out) {
+        return this == GZIP ? new BackgroundGzipOutputStream(out, BUFFER_SIZE) : out;
+    }
+
+    /**
+     * @return true if the file starts with the gzip magic bytes
+     */
+    public static boolean isCompressed(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return in.read() == 0x1F && in.read() == 0x8B;
+        }
+    }
+
+    /**
+     * Open a file for reading, decompressing it if it is gzip compressed.
+     */
+    public static InputStream open(File file) throws IOException {
+        if (!isCompressed(file)) return new FileInputStream(file);
+        return new GZIPInputStream(new FileInputStream(file), BUFFER_SIZE);
+    }
+}
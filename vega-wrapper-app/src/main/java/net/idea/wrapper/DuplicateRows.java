@@ -0,0 +1,204 @@
+package net.idea.wrapper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rows of the input with the same structure, so each structure is predicted once and its result
+ * reused for the other rows. The input is scanned before the run for the rows with a duplicated key
+ * ({@link Mode}); during the run the value of such a key (the prediction) is kept from its first row
+ * until its last row is processed, so only structures still to come are in memory.
+ * <p>
+ * The scan keeps a 64-bit hash of the key of every row (8 bytes per row); values are kept by the key itself,
+ * so two keys with the same hash only keep a value longer, they never share it.
+ *
+ * @param <T> the value kept for the later rows of a key
+ */
+public class DuplicateRows<T> {
+
+    public enum Mode {
+        /** The SMILES as written in the input, trimmed, as the prediction cache. */
+        EXACT,
+        /**
+         * The SMILES without a title after it, with the components of a mixture or salt in sorted order,
+         * so "CC(=O)[O-].[Na+]" and "[Na+].CC(=O)[O-]" are the same structure. Other differences in how
+         * a structure is written (atom order, aromaticity) are not recognized.
+         */
+        CANONICAL;
+
+        /**
+         * @param name exact or canonical, case insensitive
+         */
+        public static Mode of(String name) {
+            for (Mode mode : values()) {
+                if (mode.name().equalsIgnoreCase(name)) return mode;
+            }
+            throw new IllegalArgumentException("Unknown dedup mode: " + name + ", expected exact or canonical");
+        }
+
+        public String key(String smiles) {
+            String key = smiles.trim();
+            if (this == EXACT) return key;
+            for (int i = 0; i < key.length(); i++) {
+                if (Character.isWhitespace(key.charAt(i))) {
+                    key = key.substring(0, i);
+                    break;
+                }
+            }
+            if (key.indexOf('.') < 0) return key;
+            String[] components = key.split("\\.", -1);
+            for (String component : components) {
+                // a ring bond from one component to another, the order matters
+                if (!closesRings(component)) return key;
+            }
+            Arrays.sort(components);
+            return String.join(".", components);
+        }
+    }
+
+    private final Mode mode;
+    private final int rows;
+    private final int unique;
+    // sorted hashes of the keys on more than one row, and the rows of each still to be processed
+    private final long[] hashes;
+    private final int[] remaining;
+    private final Map<String, T> kept = new HashMap<>();
+    private final AtomicLong reused = new AtomicLong();
+
+    private DuplicateRows(Mode mode, long[] rowHashes, int rows) {
+        this.mode = mode;
+        this.rows = rows;
+        Arrays.sort(rowHashes, 0, rows);
+        int distinct = 0;
+        List<long[]> duplicated = new ArrayList<>();
+        for (int i = 0; i < rows; ) {
+            int j = i + 1;
+            while (j < rows && rowHashes[j] == rowHashes[i]) j++;
+            distinct++;
+            if (j - i > 1) duplicated.add(new long[] { rowHashes[i], j - i });
+            i = j;
+        }
+        this.unique = distinct;
+        this.hashes = new long[duplicated.size()];
+        this.remaining = new int[duplicated.size()];
+        for (int k = 0; k < hashes.length; k++) {
+            hashes[k] = duplicated.get(k)[0];
+            remaining[k] = (int) duplicated.get(k)[1];
+        }
+    }
+
+    /**
+     * Read the rows the run will process: from the current row of the reader to maxRows.
+     *
+     * @param maxRows last row, 0 or less for all
+     */
+    public static <T> DuplicateRows<T> scan(SmilesReader reader, int maxRows, Mode mode) throws IOException {
+        long[] rowHashes = new long[1024];
+        int rows = 0;
+        reader.setMaxRows(maxRows);
+        SmilesReader.Row row;
+        while ((row = reader.next()) != null) {
+            if (rows == rowHashes.length) rowHashes = Arrays.copyOf(rowHashes, rows * 2);
+            rowHashes[rows++] = hash(mode.key(row.smiles));
+        }
+        return new DuplicateRows<>(mode, rowHashes, rows);
+    }
+
+    public String key(String smiles) {
+        return mode.key(smiles);
+    }
+
+    /**
+     * @return the value kept from an earlier row with the key, or null
+     */
+    public synchronized T get(String key) {
+        return kept.get(key);
+    }
+
+    /**
+     * @return true if rows after the current one (not yet {@link #processed}) have the key
+     */
+    public synchronized boolean hasLaterRows(String key) {
+        int k = Arrays.binarySearch(hashes, hash(key));
+        return k >= 0 && remaining[k] > 1;
+    }
+
+    /**
+     * Count a processed row. The value is kept for the later rows with the key, unless one is kept already;
+     * after the last row with the key the value is dropped.
+     *
+     * @param value null if the row has no value to reuse, e.g. the prediction failed
+     */
+    public synchronized void processed(String key, T value) {
+        int k = Arrays.binarySearch(hashes, hash(key));
+        if (k < 0) return; // a single row
+        if (--remaining[k] <= 0) {
+            kept.remove(key);
+        } else if (value != null) {
+            kept.putIfAbsent(key, value);
+        }
+    }
+
+    /**
+     * Count a row given the value of an earlier row.
+     */
+    public void countReused() {
+        reused.incrementAndGet();
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getUnique() {
+        return unique;
+    }
+
+    /**
+     * @return the figures for the log, read by vega-parallel-cli
+     */
+    public String summary() {
+        return String.format("Deduplicated: %d rows, %d unique structures (ratio %.2f), %d rows reused a prediction",
+                rows, unique, unique == 0 ? 1.0 : (double) rows / unique, reused.get());
+    }
+
+    /**
+     * @return true if every ring bond number opened in the component is closed in it
+     */
+    static boolean closesRings(String component) {
+        BitSet open = new BitSet(100);
+        boolean bracket = false;
+        for (int i = 0; i < component.length(); i++) {
+            char c = component.charAt(i);
+            if (c == '[') bracket = true;
+            else if (c == ']') bracket = false;
+            else if (bracket) continue;
+            else if (c >= '0' && c <= '9') open.flip(c - '0');
+            else if (c == '%') {
+                if (i + 2 >= component.length() || !Character.isDigit(component.charAt(i + 1))
+                        || !Character.isDigit(component.charAt(i + 2))) return false;
+                open.flip(Integer.parseInt(component.substring(i + 1, i + 3)));
+                i += 2;
+            }
+        }
+        return open.isEmpty();
+    }
+
+    /**
+     * 64-bit FNV-1a of the UTF-16 chars of the key.
+     */
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+}
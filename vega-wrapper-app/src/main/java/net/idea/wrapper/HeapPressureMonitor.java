@@ -0,0 +1,91 @@
+package net.idea.wrapper;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongConsumer;
+import java.util.logging.Logger;
+
+/**
+ * Signals when the heap retained after a garbage collection crosses a fraction of the maximum heap,
+ * so the model can be rebuilt only when memory actually grows, instead of every N rows.
+ * Listens to the heap after each collection ({@link HeapUsage#addAfterGcListener}); the next row claims
+ * the reinitialization. When a reinitialization reclaims little (the memory is not held by the model),
+ * the minimum number of rows before the next one is doubled.
+ */
+public class HeapPressureMonitor implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(HeapPressureMonitor.class.getName());
+
+    /** Rows between two reinitializations, so the model is not reloaded on every GC. */
+    static final int MIN_ROWS_BETWEEN = 100;
+    private static final int MAX_ROWS_BETWEEN = 100_000;
+
+    private final double fraction;
+    private final long maxHeap;
+    private final AtomicBoolean pressure = new AtomicBoolean();
+    private final LongConsumer listener;
+    private volatile long retained = 0;
+    private int rowsBetween = MIN_ROWS_BETWEEN;
+    private int lastRow = Integer.MIN_VALUE / 2;
+    private int reinitializations = 0;
+    private long reclaimedBytes = 0;
+
+    /**
+     * @param fraction heap retained after GC, as a fraction of the maximum heap, that triggers a reinitialization
+     */
+    public HeapPressureMonitor(double fraction) {
+        this.fraction = fraction;
+        this.maxHeap = Runtime.getRuntime().maxMemory();
+        listener = used -> {
+            retained = used;
+            if (used > maxHeap * fraction) pressure.set(true);
+        };
+        if (!HeapUsage.addAfterGcListener(listener)) {
+            logger.warning("No GC notifications, --reinitialize-on-heap has no effect");
+        }
+    }
+
+    /**
+     * Check whether the model should be rebuilt before this row. Only one caller gets true per signal.
+     */
+    public boolean claim(int rowNum) {
+        if (!pressure.get()) return false;
+        synchronized (this) {
+            if (rowNum - lastRow < rowsBetween || !pressure.compareAndSet(true, false)) return false;
+            lastRow = rowNum;
+            return true;
+        }
+    }
+
+    /**
+     * Report a reinitialization after the old instance was dropped: runs a GC and logs the heap it reclaimed.
+     */
+    public void reinitialized(String label, int rowNum) {
+        long before = retained;
+        System.gc();
+        long after = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        long reclaimed = Math.max(0, before - after);
+        synchronized (this) {
+            reinitializations++;
+            reclaimedBytes += reclaimed;
+            // the heap is not held by the model, reinitialize less often
+            if (reclaimed < before / 10) rowsBetween = Math.min(MAX_ROWS_BETWEEN, rowsBetween * 2);
+            else rowsBetween = MIN_ROWS_BETWEEN;
+        }
+        logger.info(String.format("[%s] Reinitialized model at row %d: retained heap %d MB -> %d MB, reclaimed %d MB",
+                label, rowNum, before / (1024 * 1024), after / (1024 * 1024), reclaimed / (1024 * 1024)));
+    }
+
+    public synchronized int getReinitializations() {
+        return reinitializations;
+    }
+
+    public synchronized void logStats(String label) {
+        logger.info(String.format("[%s] Heap reinitializations (threshold %.2f): %d, reclaimed %d MB",
+                label, fraction, reinitializations, reclaimedBytes / (1024 * 1024)));
+    }
+
+    @Override
+    public void close() {
+        HeapUsage.removeAfterGcListener(listener);
+    }
+}
@@ -0,0 +1,126 @@
+package net.idea.wrapper;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+/**
+ * Heap occupancy helpers.
+ */
+public class HeapUsage {
+
+    /** Highest heap after a collection since {@link #resetPeakAfterGc()}, -1 if no collection since. */
+    private static final AtomicLong peakAfterGc = new AtomicLong(-1);
+    private static boolean tracking = false;
+
+    private static final List<LongConsumer> afterGcListeners = new CopyOnWriteArrayList<>();
+    private static boolean listening = false;
+    private static boolean notifying = false;
+
+    /**
+     * Call the listener with the heap in use right after each garbage collection, summed over the heap pools.
+     * One GC notification listener per collector is registered on first use and serves all listeners.
+     *
+     * @return false if the JVM sends no GC notifications, so the listener is never called
+     */
+    public static boolean addAfterGcListener(LongConsumer listener) {
+        afterGcListeners.add(listener);
+        return listen();
+    }
+
+    public static void removeAfterGcListener(LongConsumer listener) {
+        afterGcListeners.remove(listener);
+    }
+
+    private static synchronized boolean listen() {
+        if (listening) return notifying;
+        listening = true;
+        Set<String> heapPools = new HashSet<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) heapPools.add(pool.getName());
+        }
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (!(gc instanceof NotificationEmitter)) continue;
+            ((NotificationEmitter) gc).addNotificationListener((notification, handback) -> {
+                if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) return;
+                GarbageCollectionNotificationInfo info =
+                        GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+                long used = 0;
+                for (Map.Entry<String, MemoryUsage> e : info.getGcInfo().getMemoryUsageAfterGc().entrySet()) {
+                    if (heapPools.contains(e.getKey())) used += e.getValue().getUsed();
+                }
+                for (LongConsumer listener : afterGcListeners) listener.accept(used);
+            }, null, null);
+            notifying = true;
+        }
+        return notifying;
+    }
+
+    /**
+     * Start recording the heap in use right after each garbage collection, from the GC notifications.
+     * Calling it again has no effect.
+     */
+    public static synchronized void trackPeakAfterGc() {
+        if (tracking) return;
+        tracking = true;
+        addAfterGcListener(used -> peakAfterGc.accumulateAndGet(used, Math::max));
+    }
+
+    /**
+     * Highest heap in use right after a garbage collection since tracking started or since {@link #resetPeakAfterGc()}.
+     * Unlike the peak usage of the pools, it does not count the garbage of the young generation, which grows with -Xmx.
+     * Without a collection since, the heap never filled up: the heap in use now is returned.
+     *
+     * @return bytes
+     */
+    public static long peakAfterGc() {
+        long peak = peakAfterGc.get();
+        return peak >= 0 ? peak : ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    public static void resetPeakAfterGc() {
+        peakAfterGc.set(-1);
+    }
+
+    /**
+     * Fraction of the heap retained after the last garbage collection, taken from the
+     * collection usage of the heap pools (old generation).
+     *
+     * @return -1 when no pool reports collection usage yet, e.g. before the first collection
+     */
+    public static double retainedFraction() {
+        double fraction = -1;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() != MemoryType.HEAP || !pool.isCollectionUsageThresholdSupported()) continue;
+            MemoryUsage usage = pool.getCollectionUsage();
+            if (usage == null || usage.getMax() <= 0 || usage.getUsed() == 0) continue;
+            fraction = Math.max(fraction, (double) usage.getUsed() / usage.getMax());
+        }
+        return fraction;
+    }
+
+    /**
+     * Number of garbage collections since the JVM started, over all collectors.
+     */
+    public static long collectionCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+}
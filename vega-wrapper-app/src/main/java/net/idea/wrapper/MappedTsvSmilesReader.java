@@ -0,0 +1,349 @@
+package net.idea.wrapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * {@link SmilesReader} over a memory map of the file. Each line is scanned once for its tabs and
+ * only the SMILES and ID fields are decoded; the other columns are never turned into strings.
+ * The offset of every {@link #INDEX_STRIDE}th row is kept in a row index, so {@link #skipTo(int)}
+ * scans at most INDEX_STRIDE lines. The index is built in one pass over the file the first time a reader
+ * skips past the rows it has read, and saved next to the file as FILE.idx; readers of the same file,
+ * such as the shards of a parallel run or a resumed run, read it instead of scanning the file again.
+ * The mapping is released in {@link #close()}, as a mapped file cannot be deleted or replaced on Windows.
+ * Needs an ASCII compatible encoding, see {@link #supports(Charset)}.
+ */
+public class MappedTsvSmilesReader implements SmilesReader {
+    private static final Logger logger = Logger.getLogger(MappedTsvSmilesReader.class.getName());
+
+    /** Rows between two entries of the row index. */
+    static final int INDEX_STRIDE = 64;
+    // a file larger than 2 GB is mapped in several regions of 1 GB
+    private static final int REGION_BITS = 30;
+    private static final long REGION_MASK = (1L << REGION_BITS) - 1;
+    private static final byte[] ASCII_PROBE = "\t\r\n SMILES ID 0123456789".getBytes(StandardCharsets.US_ASCII);
+    /** "VEGAIDX1", first bytes of the index file. */
+    private static final long INDEX_MAGIC = 0x5645474149445831L;
+    // magic, file size, file modification time, stride, number of offsets
+    private static final int INDEX_HEADER_BYTES = 8 + 8 + 8 + 4 + 4;
+    private static final Method INVOKE_CLEANER;
+    private static final Object UNSAFE;
+
+    static {
+        Method invokeCleaner = null;
+        Object unsafe = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException x) {
+            // the mapping is released when the buffers are garbage collected
+        }
+        INVOKE_CLEANER = invokeCleaner;
+        UNSAFE = unsafe;
+    }
+
+    private final Charset charset;
+    private final long size;
+    private final long modified;
+    private final Path indexFile;
+    private MappedByteBuffer[] regions;
+    private final int smilesIndex;
+    private final int idIndex;
+    // index[k] is the offset after row k * INDEX_STRIDE; index[0] the first line after the header
+    private long[] index = new long[1024];
+    private int indexSize = 0;
+    // the index covers the whole file
+    private boolean indexComplete = false;
+    private long pos = 0;
+    private int rowNum = 0;
+    private int maxRows = 0;
+    // set by readLine: number of fields and bounds of the SMILES and ID fields of the line
+    private int fields;
+    private long smilesStart, smilesEnd, idStart, idEnd;
+    private byte[] scratch = new byte[256];
+
+    public MappedTsvSmilesReader(File inputFile, String smilesFieldName, String idFieldName, Charset charset) throws IOException {
+        this.charset = charset;
+        this.indexFile = Paths.get(inputFile.getPath() + ".idx");
+        this.modified = Files.getLastModifiedTime(inputFile.toPath()).toMillis();
+        try (FileChannel channel = FileChannel.open(inputFile.toPath(), StandardOpenOption.READ)) {
+            size = channel.size();
+            if (size == 0) {
+                throw new IOException(String.format("Input file %s is empty.", inputFile.getAbsolutePath()));
+            }
+            // the mapping stays valid after the channel is closed
+            regions = new MappedByteBuffer[(int) ((size + REGION_MASK) >>> REGION_BITS)];
+            for (int i = 0; i < regions.length; i++) {
+                long start = (long) i << REGION_BITS;
+                regions[i] = channel.map(MapMode.READ_ONLY, start, Math.min(REGION_MASK + 1, size - start));
+            }
+        }
+        logger.fine(String.format("Reading %s (%s, memory mapped)", inputFile, charset));
+
+        if (StandardCharsets.UTF_8.equals(charset) && size >= 3
+                && byteAt(0) == (byte) 0xEF && byteAt(1) == (byte) 0xBB && byteAt(2) == (byte) 0xBF) {
+            pos = 3; // byte order mark
+        }
+        long end = pos;
+        while (end < size && byteAt(end) != '\n' && byteAt(end) != '\r') end++;
+        String[] headers = decode(pos, end).split("\t");
+        pos = skipLineBreak(end);
+
+        Map<String, Integer> headerIndex = new HashMap<>();
+        for (int i = 0; i < headers.length; i++) {
+            headerIndex.put(headers[i].trim(), i);
+        }
+        Integer smilesIdx = headerIndex.get(smilesFieldName);
+        Integer idIdx = headerIndex.get(idFieldName);
+        if (smilesIdx == null) {
+            throw new IllegalArgumentException("Missing required field: " + smilesFieldName);
+        }
+        this.smilesIndex = smilesIdx;
+        this.idIndex = idIdx == null ? -1 : idIdx;
+        index[indexSize++] = pos;
+    }
+
+    /**
+     * @return true if tabs, line breaks, digits and letters are single ASCII bytes in this encoding, as the reader expects
+     */
+    public static boolean supports(Charset charset) {
+        return Arrays.equals(ASCII_PROBE, new String(ASCII_PROBE, StandardCharsets.US_ASCII).getBytes(charset));
+    }
+
+    @Override
+    public Row next() throws IOException {
+        while (pos < size && (maxRows <= 0 || rowNum < maxRows)) {
+            if (!readLine()) continue;
+            if (fields <= Math.max(smilesIndex, idIndex)) continue;
+            String smiles = decode(smilesStart, smilesEnd);
+            String id = idIndex >= 0 ? decode(idStart, idEnd) : Integer.toString(rowNum);
+            return new Row(rowNum, id, smiles);
+        }
+        return null;
+    }
+
+    @Override
+    public void skipTo(int rowNum) throws IOException {
+        if (!indexComplete && Math.max(rowNum, 0) / INDEX_STRIDE >= indexSize && rowNum > this.rowNum + INDEX_STRIDE) {
+            completeIndex();
+        }
+        int k = Math.min(Math.max(rowNum, 0) / INDEX_STRIDE, indexSize - 1);
+        if (rowNum < this.rowNum || k * INDEX_STRIDE > this.rowNum) {
+            pos = index[k];
+            this.rowNum = k * INDEX_STRIDE;
+        }
+        while (this.rowNum < rowNum && pos < size) {
+            readLine();
+        }
+    }
+
+    @Override
+    public int getRowNum() {
+        return rowNum;
+    }
+
+    @Override
+    public void setMaxRows(int maxRows) {
+        this.maxRows = maxRows;
+    }
+
+    /**
+     * Read the row index from the index file, or build it and write the file if it is missing or older than
+     * the input. Readers in other processes wait for the one building it; if the file cannot be written,
+     * the index is only kept in memory.
+     */
+    private void completeIndex() {
+        long start = System.nanoTime();
+        // a file lock is held per JVM: readers in this JVM wait on the class
+        synchronized (MappedTsvSmilesReader.class) {
+            try (FileChannel channel = FileChannel.open(indexFile,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                 FileLock lock = channel.lock()) {
+                if (readIndex(channel)) {
+                    logger.fine(String.format("Read row index %s in %.2f s", indexFile, (System.nanoTime() - start) / 1e9));
+                    return;
+                }
+                buildIndex();
+                writeIndex(channel);
+            } catch (IOException x) {
+                logger.fine(String.format("Cannot use row index %s: %s", indexFile, x.getMessage()));
+                buildIndex();
+            }
+        }
+        logger.fine(String.format("Built row index of %d rows in %.2f s", indexSize * INDEX_STRIDE,
+                (System.nanoTime() - start) / 1e9));
+    }
+
+    /**
+     * Index the rest of the file from the last indexed row, in one pass; the position of the reader is kept.
+     */
+    private void buildIndex() {
+        if (indexComplete) return;
+        long savedPos = pos;
+        int savedRow = rowNum;
+        pos = index[indexSize - 1];
+        rowNum = (indexSize - 1) * INDEX_STRIDE;
+        while (pos < size) readLine();
+        indexComplete = true;
+        pos = savedPos;
+        rowNum = savedRow;
+    }
+
+    /**
+     * @return false if the file is empty, incomplete, or written for another version of the input
+     */
+    private boolean readIndex(FileChannel channel) throws IOException {
+        long length = channel.size();
+        if (length < INDEX_HEADER_BYTES) return false;
+        ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_BYTES);
+        channel.read(header, 0);
+        header.flip();
+        if (header.getLong() != INDEX_MAGIC || header.getLong() != size || header.getLong() != modified
+                || header.getInt() != INDEX_STRIDE) {
+            return false;
+        }
+        int count = header.getInt();
+        if (count < 1 || length != INDEX_HEADER_BYTES + 8L * count) return false;
+        ByteBuffer offsets = ByteBuffer.allocate(8 * count);
+        while (offsets.hasRemaining()) {
+            if (channel.read(offsets, INDEX_HEADER_BYTES + offsets.position()) < 0) return false;
+        }
+        offsets.flip();
+        long[] read = new long[count];
+        offsets.asLongBuffer().get(read);
+        // the first row after the header does not depend on the file
+        if (read[0] != index[0]) return false;
+        index = read;
+        indexSize = count;
+        indexComplete = true;
+        return true;
+    }
+
+    private void writeIndex(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(INDEX_HEADER_BYTES + 8 * indexSize);
+        buffer.putLong(INDEX_MAGIC).putLong(size).putLong(modified).putInt(INDEX_STRIDE).putInt(indexSize);
+        buffer.asLongBuffer().put(index, 0, indexSize);
+        buffer.position(buffer.limit());
+        buffer.flip();
+        channel.truncate(0);
+        while (buffer.hasRemaining()) channel.write(buffer, buffer.position());
+        channel.force(false);
+    }
+
+    /**
+     * Read the line at pos, counting it as a row unless it is blank, and move pos to the next line.
+     *
+     * @return false for a blank line
+     */
+    private boolean readLine() {
+        long fieldStart = pos;
+        long p = pos;
+        boolean blank = true;
+        int field = 0;
+        smilesStart = smilesEnd = idStart = idEnd = -1;
+        int r = (int) (p >>> REGION_BITS);
+        long regionStart = (long) r << REGION_BITS;
+        for (; p < size; p++) {
+            if (p - regionStart > REGION_MASK) {
+                r++;
+                regionStart = (long) r << REGION_BITS;
+            }
+            byte b = regions[r].get((int) (p - regionStart));
+            if (b == '\n' || b == '\r') break;
+            if (b == '\t') {
+                endField(field++, fieldStart, p);
+                fieldStart = p + 1;
+            } else if ((b & 0xFF) > ' ') {
+                blank = false;
+            }
+        }
+        endField(field, fieldStart, p);
+        fields = field + 1;
+        pos = skipLineBreak(p);
+        if (blank) return false;
+
+        rowNum++;
+        if (pos >= size) indexComplete = true;
+        if (rowNum % INDEX_STRIDE == 0 && rowNum / INDEX_STRIDE == indexSize) {
+            if (indexSize == index.length) index = Arrays.copyOf(index, indexSize * 2);
+            index[indexSize++] = pos;
+        }
+        return true;
+    }
+
+    private void endField(int field, long start, long end) {
+        if (field == smilesIndex) {
+            smilesStart = start;
+            smilesEnd = end;
+        }
+        if (field == idIndex) {
+            idStart = start;
+            idEnd = end;
+        }
+    }
+
+    /**
+     * @return the offset after the line break at end: \n, \r\n or \r, as BufferedReader.readLine
+     */
+    private long skipLineBreak(long end) {
+        if (end >= size) return end;
+        if (byteAt(end) == '\r' && end + 1 < size && byteAt(end + 1) == '\n') return end + 2;
+        return end + 1;
+    }
+
+    private byte byteAt(long offset) {
+        return regions[(int) (offset >>> REGION_BITS)].get((int) (offset & REGION_MASK));
+    }
+
+    private String decode(long start, long end) {
+        int length = (int) (end - start);
+        if (length > scratch.length) scratch = new byte[Math.max(length, scratch.length * 2)];
+        int copied = 0;
+        while (copied < length) {
+            long offset = start + copied;
+            MappedByteBuffer region = regions[(int) (offset >>> REGION_BITS)];
+            int from = (int) (offset & REGION_MASK);
+            int n = Math.min(length - copied, region.limit() - from);
+            region.get(from, scratch, copied, n);
+            copied += n;
+        }
+        return new String(scratch, 0, length, charset);
+    }
+
+    @Override
+    public void close() {
+        if (regions == null) return;
+        MappedByteBuffer[] mapped = regions;
+        // reading after close fails on null, not on unmapped memory
+        regions = null;
+        if (INVOKE_CLEANER == null) return;
+        for (MappedByteBuffer region : mapped) {
+            try {
+                INVOKE_CLEANER.invoke(UNSAFE, region);
+            } catch (ReflectiveOperationException | RuntimeException x) {
+                // unmapped when the buffer is garbage collected
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package net.idea.wrapper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import insilico.core.ad.item.iADIndex;
+import insilico.core.localization.StringSelectorCore;
+import insilico.core.model.InsilicoModelOutput;
+import insilico.core.model.iInsilicoModel;
+import insilico.core.molecule.InsilicoMolecule;
+import insilico.core.tools.utils.ModelUtilities;
+
+/**
+ * Columns of the result records of one model, resolved once per model key.
+ * Holds the column names, localized labels, AD item names and the placeholder
+ * values for structure errors, so encoding a record only fills values by position.
+ * As in a map, a repeated column name keeps its first position and the last value.
+ */
+public class ModelOutputSchema {
+
+    private static final Map<String, ModelOutputSchema> schemas = new ConcurrentHashMap<>();
+
+    /**
+     * Values of one record, in column order. Reusable for the next record of the same schema.
+     */
+    public static class Row {
+        final String[] values;
+        int index;
+        int status;
+
+        Row(int columns) {
+            this.values = new String[columns];
+        }
+    }
+
+    private final String[] columns;
+    private final int noPos;
+    private final int idPos;
+    private final int smilesPos;
+    private final int assessmentPos;
+    private final int[] resultPos;
+    private final int experimentalPos;
+    private final int alertsPos; // -1 if the model has no structural alerts
+    private final int adiPos;
+    private final int[] adItemPos;
+    private final int remarksPos;
+    private final int statusPos;
+    private final String[] structErrorValues;
+
+    private final String warningPrefix;
+    private final String errorPrefix;
+    private final String modelPrefix;
+
+    public static ModelOutputSchema forModel(iInsilicoModel model) {
+        return schemas.computeIfAbsent(model.getInfo().getKey(), k -> new ModelOutputSchema(model));
+    }
+
+    ModelOutputSchema(iInsilicoModel model) {
+        List<String> names = new ArrayList<>();
+        noPos = position(names, "No.");
+        idPos = position(names, "ID");
+        smilesPos = position(names, "SMILES");
+        assessmentPos = position(names, "Assessment");
+        String[] resultNames = model.GetResultsName();
+        resultPos = new int[resultNames.length];
+        for (int i = 0; i < resultNames.length; i++) resultPos[i] = position(names, resultNames[i]);
+        experimentalPos = position(names, StringSelectorCore.getString("report_txt_experimental"));
+        alertsPos = model.getInfo().hasAlerts()
+                ? position(names, StringSelectorCore.getString("report_txt_struct_alerts"))
+                : -1;
+        adiPos = position(names, StringSelectorCore.getString("report_txt_adi"));
+        String[] adItemNames = ModelResultWriter.GetADItemsName(model);
+        adItemPos = new int[adItemNames.length];
+        for (int i = 0; i < adItemNames.length; i++) adItemPos[i] = position(names, adItemNames[i]);
+        remarksPos = position(names, StringSelectorCore.getString("report_txt_struct_remarks"));
+        statusPos = position(names, "STATUS");
+        columns = names.toArray(new String[0]);
+
+        structErrorValues = new String[columns.length];
+        Arrays.fill(structErrorValues, "-");
+        structErrorValues[assessmentPos] = "[" + StringSelectorCore.getString("report_txt_struct_error") + "]";
+
+        warningPrefix = "[" + StringSelectorCore.getString("report_txt_molecule_warning") + "]";
+        errorPrefix = "[" + StringSelectorCore.getString("report_txt_molecule_error") + "]";
+        modelPrefix = "[" + StringSelectorCore.getString("report_txt_model") + "]";
+    }
+
+    private static int position(List<String> names, String name) {
+        int pos = names.indexOf(name);
+        if (pos >= 0) return pos;
+        names.add(name);
+        return names.size() - 1;
+    }
+
+    public String[] getColumns() {
+        return columns;
+    }
+
+    public Row newRow() {
+        return new Row(columns.length);
+    }
+
+    boolean isIndex(int pos) {
+        return pos == noPos;
+    }
+
+    boolean isStatus(int pos) {
+        return pos == statusPos;
+    }
+
+    /**
+     * Fill the row with the values of one model output.
+     * @param msg scratch buffer for the remarks column
+     */
+    public void fill(Row row, int index, InsilicoModelOutput output, InsilicoMolecule molecule, StringBuilder msg) {
+        String[] values = row.values;
+        int status = output.getStatus();
+        if (status < 1) {
+            System.arraycopy(structErrorValues, 0, values, 0, values.length);
+        } else {
+            values[assessmentPos] = output.getAssessment();
+            String[] results = output.getResults();
+            for (int i = 0; i < resultPos.length; i++) values[resultPos[i]] = results[i];
+            values[experimentalPos] = output.getExperimentalFormatted();
+            if (alertsPos >= 0) {
+                values[alertsPos] = ModelUtilities.BuildSANameList(output.getSAList().getSAList());
+            }
+            if (status != 2) {
+                values[adiPos] = output.getADI().GetIndexValueFormatted();
+                Iterator<iADIndex> adIndexIter = output.getADIndex().iterator();
+                for (int pos : adItemPos) {
+                    values[pos] = adIndexIter.hasNext() ? adIndexIter.next().GetIndexValueFormatted() : "-";
+                }
+            } else {
+                values[adiPos] = "-";
+                for (int pos : adItemPos) values[pos] = "-";
+            }
+        }
+        row.index = index;
+        row.status = status;
+        values[idPos] = output.getMoleculeId();
+        values[smilesPos] = output.getMoleculeSMILES();
+
+        // Remarks / messages
+        msg.setLength(0);
+        for (int w = 0; w < molecule.GetWarnings().GetSize(); w++) {
+            msg.append(warningPrefix).append(molecule.GetWarnings().GetMessages(w)).append(". ");
+        }
+        for (int e = 0; e < molecule.GetErrors().GetSize(); e++) {
+            msg.append(errorPrefix).append(molecule.GetErrors().GetMessages(e)).append(". ");
+        }
+        if (!output.getErrMessage().isEmpty()) {
+            msg.append(modelPrefix).append(output.getErrMessage()).append(".");
+        }
+        values[remarksPos] = msg.length() == 0 ? "-" : msg.toString();
+    }
+
+    /**
+     * Record of a molecule without prediction, e.g. one that timed out: structure error values and STATUS -1.
+     * @param remarks text of the remarks column
+     */
+    public Map<String, Object> errorRecord(int index, String id, String smiles, String remarks) {
+        Row row = newRow();
+        System.arraycopy(structErrorValues, 0, row.values, 0, row.values.length);
+        row.index = index;
+        row.status = -1;
+        row.values[idPos] = id;
+        row.values[smilesPos] = smiles;
+        row.values[remarksPos] = remarks;
+        return toRecord(row);
+    }
+
+    /**
+     * @return the row as an ordered record, as written to JSONL
+     */
+    public Map<String, Object> toRecord(Row row) {
+        Map<String, Object> record = new LinkedHashMap<>(); // preserves order
+        for (int pos = 0; pos < columns.length; pos++) {
+            if (pos == noPos) record.put(columns[pos], row.index);
+            else if (pos == statusPos) record.put(columns[pos], row.status);
+            else record.put(columns[pos], row.values[pos]);
+        }
+        return record;
+    }
+}
@@ -1,38 +1,212 @@
 package net.idea.wrapper;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
-import insilico.core.ad.item.iADIndex;
 import insilico.core.exception.InitFailureException;
 import insilico.core.localization.StringSelectorCore;
 import insilico.core.model.InsilicoModel;
 import insilico.core.model.InsilicoModelOutput;
 import insilico.core.model.iInsilicoModel;
 import insilico.core.molecule.InsilicoMolecule;
-import insilico.core.tools.utils.ModelUtilities;
 import insilico.core.version.InsilicoInfo;
 
 
 import java.io.*;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 
+/**
+ * Writes one resultsw_MODEL file per model key.
+ * Files are flushed every flushEvery records and/or every flushIntervalMillis (default: every record).
+ * With a queue capacity above zero, records are handed to a dedicated I/O thread
+ * and written there; the writing thread only blocks when the queue is full.
+ * Pending records are always written on close() and on JVM shutdown.
+ * Model outputs passed to {@link #writeOutput} are encoded directly into the file,
+ * without building an intermediate record map. Columns and header come from the
+ * {@link ModelOutputSchema} of the model, for both TXT and JSONL.
+ * With {@link #setResume(boolean)}, each file is resultsw_MODEL.ext without a counter suffix
+ * and a {@link ResultCheckpoint} of the last written row is kept next to it, so an
+ * interrupted run can continue appending to the same file.
+ * With {@link #setCompression(Compression)} gzip, files are resultsw_MODEL.ext.gz, compressed on a
+ * {@link BackgroundGzipOutputStream} thread per file; each checkpoint completes a gzip member,
+ * so a resumed file is truncated to a member boundary and continues with a new member.
+ */
 public class ModelResultWriter {
+    private static final Logger logger = Logger.getLogger(ModelResultWriter.class.getName());
+
     private Map<String, BufferedWriter> writers = new HashMap<>();
-    private ObjectMapper mapper = new ObjectMapper();
+    // one generator per JSONL file, reused for every record
+    private Map<String, JsonGenerator> generators = new HashMap<>();
+    private ObjectMapper mapper = new ObjectMapper(new JsonFactory().setRootValueSeparator(null));
+    // reused per model for encoding
+    private Map<String, ModelOutputSchema.Row> rows = new HashMap<>();
+    private final StringBuilder remarks = new StringBuilder();
     private File outputDir;
     private boolean jsonl = true;
     final static String _tab = "\t";
+
+    private final int flushEvery;
+    private final long flushIntervalMillis;
+    private int pendingRecords = 0;
+    private long lastFlush = System.currentTimeMillis();
+
+    private static class QueuedRecord {
+        final InsilicoModel model;
+        final Map<String, Object> record;
+        final int index;
+        final InsilicoModelOutput output;
+        final InsilicoMolecule molecule;
+
+        QueuedRecord(InsilicoModel model, Map<String, Object> record, int index,
+                InsilicoModelOutput output, InsilicoMolecule molecule) {
+            this.model = model;
+            this.record = record;
+            this.index = index;
+            this.output = output;
+            this.molecule = molecule;
+        }
+    }
+    private static final QueuedRecord END = new QueuedRecord(null, null, 0, null, null);
+    private final BlockingQueue<QueuedRecord> queue;
+    private final Thread ioThread;
+    // the error that stopped the I/O thread, thrown to the producers
+    private volatile Throwable failure;
+    private final Thread shutdownHook;
+    private boolean closed = false;
+
+    // checkpoints for --resume
+    private static final long CHECKPOINT_INTERVAL_MILLIS = 1000;
+    private boolean resume = false;
+    private Map<String, FileOutputStream> streams = new HashMap<>();
+    private Map<String, BackgroundGzipOutputStream> compressors = new HashMap<>();
+    private Compression compression = Compression.NONE;
+    private Map<String, File> files = new HashMap<>();
+    private Map<String, Integer> lastIndex = new HashMap<>();
+    // row limit per model marked complete
+    private Map<String, Integer> complete = new HashMap<>();
+    private long lastCheckpoint = System.currentTimeMillis();
+
+    private RunMetrics metrics;
+
+    /** Counts the bytes that reach a result file. */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private final LongAdder bytes;
+
+        CountingOutputStream(OutputStream out, LongAdder bytes) {
+            super(out);
+            this.bytes = bytes;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            bytes.increment();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            bytes.add(len);
+        }
+    }
+
     public ModelResultWriter(File outputDir) {
         this(outputDir, true);
     }
 
     public ModelResultWriter(File outputDir, boolean jsonl) {
+        this(outputDir, jsonl, 1, 0, 0);
+    }
+
+    /**
+     * @param flushEvery flush after this many records, 1 flushes every record
+     * @param flushIntervalMillis also flush when this many ms have passed since the last flush, 0 to disable
+     * @param queueCapacity records buffered for the I/O thread, 0 writes on the calling thread
+     */
+    public ModelResultWriter(File outputDir, boolean jsonl, int flushEvery, long flushIntervalMillis, int queueCapacity) {
         this.outputDir = outputDir;
         this.jsonl = jsonl;
+        this.flushEvery = Math.max(1, flushEvery);
+        this.flushIntervalMillis = flushIntervalMillis;
+        if (queueCapacity > 0) {
+            this.queue = new ArrayBlockingQueue<>(queueCapacity);
+            this.ioThread = new Thread(this::drainQueue, "result-writer");
+            this.ioThread.setDaemon(true);
+            this.ioThread.start();
+        } else {
+            this.queue = null;
+            this.ioThread = null;
+        }
+        if (queue != null || this.flushEvery > 1 || flushIntervalMillis > 0) {
+            this.shutdownHook = new Thread(() -> {
+                try {
+                    close();
+                } catch (IOException x) {
+                    logger.log(Level.SEVERE, "Failed to flush results on shutdown", x);
+                }
+            }, "result-writer-shutdown");
+            Runtime.getRuntime().addShutdownHook(shutdownHook);
+        } else {
+            this.shutdownHook = null;
+        }
+    }
+
+    /**
+     * Continue existing result files and keep a checkpoint of the last written row. Set before writing.
+     */
+    public void setResume(boolean resume) {
+        this.resume = resume;
+    }
+
+    /**
+     * Compress the result files. Set before writing.
+     */
+    public void setCompression(Compression compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * Count rows, bytes and write time per model in the metrics of the run. Set before writing.
+     */
+    public void setMetrics(RunMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return the result file used with {@link #setResume(boolean)}
+     */
+    public static File getResultFile(File outputDir, String modelKey, boolean jsonl, Compression compression) {
+        return new File(outputDir, "resultsw_" + modelKey + (jsonl ? ".jsonl" : ".txt") + compression.getExt());
+    }
+
+    /**
+     * Open the result file of the model for resuming: the file is truncated to its checkpoint, if any.
+     * @return the checkpoint the file continues from, null if it starts from the first row
+     */
+    public synchronized ResultCheckpoint resume(String modelKey) throws IOException {
+        ResultCheckpoint checkpoint = ResultCheckpoint.read(getResultFile(outputDir, modelKey, jsonl, compression));
+        getWriter(modelKey);
+        return lastIndex.getOrDefault(modelKey, 0) > 0 ? checkpoint : null;
+    }
+
+    /**
+     * Mark all rows of the model as written; recorded in the checkpoint on close.
+     * @param maxRows the row limit the run stopped at, 0 if it reached the end of the input
+     */
+    public synchronized void setComplete(String modelKey, int maxRows) throws IOException {
+        if (!resume) return;
+        getWriter(modelKey);
+        complete.put(modelKey, maxRows);
     }
 
     private File getUniqueFile(String baseName, String ext) {
@@ -95,23 +269,227 @@ public class ModelResultWriter {
         return names;
     }
     public void writeResult(InsilicoModel model, Map<String, Object> resultRecord, int index) throws IOException {
-        String modelName = model.getInfo().getKey();
+        if (queue == null) {
+            synchronized (this) {
+                write(model, resultRecord, index);
+                flushIfDue();
+            }
+            return;
+        }
+        checkFailure();
+        enqueue(new QueuedRecord(model, resultRecord, index, null, null));
+    }
+
+    /**
+     * Write a model output without building the record map of {@link #toRecord}.
+     * The output and molecule must not be modified after this call.
+     */
+    public void writeOutput(InsilicoModel model, int index, InsilicoModelOutput output, InsilicoMolecule molecule) throws IOException {
+        if (queue == null) {
+            synchronized (this) {
+                write(model, index, output, molecule);
+                flushIfDue();
+            }
+            return;
+        }
+        checkFailure();
+        enqueue(new QueuedRecord(model, null, index, output, molecule));
+    }
+
+    private void enqueue(QueuedRecord queued) throws IOException {
+        try {
+            // not put(): if the I/O thread stops, nobody takes from a full queue
+            while (!queue.offer(queued, 100, TimeUnit.MILLISECONDS)) {
+                checkFailure();
+            }
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while queueing result " + queued.index);
+        }
+    }
+
+    private void drainQueue() {
+        long pollMillis = flushIntervalMillis > 0 ? flushIntervalMillis : 1000;
+        try {
+            while (true) {
+                QueuedRecord queued = queue.poll(pollMillis, TimeUnit.MILLISECONDS);
+                if (queued == END) break;
+                synchronized (this) {
+                    if (queued == null) {
+                        // nothing to write, only check the flush interval
+                    } else if (queued.record != null) {
+                        write(queued.model, queued.record, queued.index);
+                    } else {
+                        write(queued.model, queued.index, queued.output, queued.molecule);
+                    }
+                    flushIfDue();
+                }
+            }
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable x) {
+            // also a RuntimeException of a record: the thread stops, the producers must not wait for it
+            failure = x;
+            logger.log(Level.SEVERE, "Failed to write results", x);
+            queue.clear();
+        }
+    }
+
+    /**
+     * Throw the error that stopped the I/O thread, if any.
+     */
+    private void checkFailure() throws IOException {
+        Throwable x = failure;
+        if (x == null) return;
+        if (x instanceof IOException) throw (IOException) x;
+        if (x instanceof RuntimeException) throw (RuntimeException) x;
+        if (x instanceof Error) throw (Error) x;
+        throw new IOException("Failed to write results", x);
+    }
+
+    private void flushIfDue() throws IOException {
+        if (pendingRecords == 0) return;
+        if (pendingRecords >= flushEvery
+                || (flushIntervalMillis > 0 && System.currentTimeMillis() - lastFlush >= flushIntervalMillis)) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        for (JsonGenerator generator : generators.values()) {
+            generator.flush();
+        }
+        for (BufferedWriter writer : writers.values()) {
+            writer.flush();
+        }
+        pendingRecords = 0;
+        lastFlush = System.currentTimeMillis();
+        if (resume && lastFlush - lastCheckpoint >= CHECKPOINT_INTERVAL_MILLIS) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * Sync the flushed result files and record how far they have been written.
+     */
+    private void checkpoint() throws IOException {
+        for (Map.Entry<String, FileOutputStream> e : streams.entrySet()) {
+            String modelName = e.getKey();
+            FileOutputStream stream = e.getValue();
+            BackgroundGzipOutputStream compressor = compressors.get(modelName);
+            if (compressor != null) compressor.finishMember();
+            stream.getFD().sync();
+            new ResultCheckpoint(lastIndex.getOrDefault(modelName, 0), stream.getChannel().position(),
+                    complete.containsKey(modelName), complete.getOrDefault(modelName, 0)).write(files.get(modelName));
+        }
+        lastCheckpoint = System.currentTimeMillis();
+    }
+
+    private BufferedWriter getWriter(InsilicoModel model) throws IOException {
+        return getWriter(model.getInfo().getKey());
+    }
+
+    private BufferedWriter getWriter(String modelName) throws IOException {
         BufferedWriter writer = writers.get(modelName);
         if (writer == null) {
-            String ext = this.jsonl ? ".jsonl" : ".txt";
+            String ext = (this.jsonl ? ".jsonl" : ".txt") + compression.getExt();
             String baseName = "resultsw_" + modelName;
-            File file = getUniqueFile(baseName, ext);
-
-            writer = new BufferedWriter(new FileWriter(file, false));
+            if (resume) {
+                File file = getResultFile(outputDir, modelName, jsonl, compression);
+                ResultCheckpoint checkpoint = ResultCheckpoint.read(file);
+                FileOutputStream stream;
+                if (checkpoint != null && checkpoint.row > 0 && file.length() >= checkpoint.offset) {
+                    stream = new FileOutputStream(file, true);
+                    // drop rows written after the checkpoint, they are processed again
+                    stream.getChannel().truncate(checkpoint.offset);
+                    lastIndex.put(modelName, checkpoint.row);
+                } else {
+                    if (checkpoint != null && checkpoint.row > 0) {
+                        logger.warning(String.format("%s is shorter than its checkpoint, starting from the first row", file));
+                    }
+                    stream = new FileOutputStream(file, false);
+                }
+                streams.put(modelName, stream);
+                files.put(modelName, file);
+                writer = new BufferedWriter(new OutputStreamWriter(open(modelName, stream)));
+            } else {
+                File file = getUniqueFile(baseName, ext);
+                writer = new BufferedWriter(new OutputStreamWriter(open(modelName, new FileOutputStream(file, false))));
+            }
             writers.put(modelName, writer);
-        }        
+            if (this.jsonl) {
+                JsonGenerator generator = mapper.getFactory().createGenerator(writer);
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                generators.put(modelName, generator);
+            }
+        }
+        return writer;
+    }
+
+    private OutputStream open(String modelName, OutputStream stream) {
+        OutputStream out = compression.compress(counting(modelName, stream));
+        if (out instanceof BackgroundGzipOutputStream) compressors.put(modelName, (BackgroundGzipOutputStream) out);
+        return out;
+    }
+
+    private OutputStream counting(String modelName, OutputStream stream) {
+        return metrics == null ? stream : new CountingOutputStream(stream, metrics.model(modelName).bytesWritten);
+    }
+
+    private void recordWrite(String modelName, long startTime) {
+        if (metrics == null) return;
+        RunMetrics.ModelMetrics modelMetrics = metrics.model(modelName);
+        modelMetrics.write.add(System.nanoTime() - startTime);
+        modelMetrics.rows.increment();
+    }
+
+    private void write(InsilicoModel model, int index, InsilicoModelOutput output, InsilicoMolecule molecule) throws IOException {
+        long startTime = System.nanoTime();
+        BufferedWriter writer = getWriter(model);
+        String modelName = model.getInfo().getKey();
+        ModelOutputSchema schema = ModelOutputSchema.forModel(model);
+        ModelOutputSchema.Row row = rows.computeIfAbsent(modelName, k -> schema.newRow());
+        schema.fill(row, index, output, molecule, remarks);
+        String[] columns = schema.getColumns();
         if (this.jsonl) {
-            String jsonLine = mapper.writeValueAsString(resultRecord);
-            writer.write(jsonLine);
+            JsonGenerator generator = generators.get(modelName);
+            generator.writeStartObject();
+            for (int pos = 0; pos < columns.length; pos++) {
+                generator.writeFieldName(columns[pos]);
+                if (schema.isIndex(pos)) generator.writeNumber(row.index);
+                else if (schema.isStatus(pos)) generator.writeNumber(row.status);
+                else generator.writeString(row.values[pos]);
+            }
+            generator.writeEndObject();
+            generator.writeRaw(System.lineSeparator());
+        } else {
+            if (index==1) {
+                writeHeader(model, Arrays.asList(columns), writer);
+            }
+            for (int pos = 0; pos < columns.length; pos++) {
+                if (pos > 0) writer.write(_tab);
+                if (schema.isIndex(pos)) writer.write(Integer.toString(row.index));
+                else if (schema.isStatus(pos)) writer.write(Integer.toString(row.status));
+                else writer.write(row.values[pos] != null ? row.values[pos] : "-");
+            }
             writer.newLine();
+        }
+        if (resume) lastIndex.put(modelName, index);
+        pendingRecords++;
+        recordWrite(modelName, startTime);
+    }
+
+    private void write(InsilicoModel model, Map<String, Object> resultRecord, int index) throws IOException {
+        long startTime = System.nanoTime();
+        BufferedWriter writer = getWriter(model);
+        String modelName = model.getInfo().getKey();
+        if (this.jsonl) {
+            JsonGenerator generator = generators.get(modelName);
+            mapper.writeValue(generator, resultRecord);
+            generator.writeRaw(System.lineSeparator());
         } else {
             if (index==1) {
-                writeHeader( model, resultRecord, writer);
+                writeHeader( model, Arrays.asList(ModelOutputSchema.forModel(model).getColumns()), writer);
             }
             boolean first = true;
             for (Object value : resultRecord.values()) {
@@ -121,10 +499,16 @@ public class ModelResultWriter {
             }
             writer.newLine();
         }
-        writer.flush();  // flush after each record to keep it safe
+        if (resume) lastIndex.put(modelName, index);
+        pendingRecords++;
+        recordWrite(modelName, startTime);
     }
 
     public void writeHeader(iInsilicoModel model, Map<String, Object> resultRecord, BufferedWriter writer) throws IOException {
+        writeHeader(model, resultRecord.keySet(), writer);
+    }
+
+    public void writeHeader(iInsilicoModel model, Iterable<?> columns, BufferedWriter writer) throws IOException {
         
         writer.write(StringSelectorCore.getString("report_txt_intro") + System.lineSeparator());
         String var10001 = String.format(StringSelectorCore.getString("report_txt_version"), model.getInfo().getName(), model.getInfo().getVersion());
@@ -141,7 +525,7 @@ public class ModelResultWriter {
         writer.write(System.lineSeparator());
         boolean first = true;
         // System.out.println(resultRecord);
-        for (Object key : resultRecord.keySet()) {
+        for (Object key : columns) {
             if (!first) writer.write(_tab);
             writer.write(key==null?"null":key.toString());
             first = false;
@@ -151,75 +535,47 @@ public class ModelResultWriter {
     }
 
     public void close() throws IOException {
-        for (BufferedWriter writer : writers.values()) {
-            writer.close();
+        if (ioThread != null && ioThread.isAlive()) {
+            try {
+                // drains the records still queued, then stops
+                queue.put(END);
+                ioThread.join();
+            } catch (InterruptedException x) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while writing remaining results");
+            }
         }
-        writers.clear();
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            if (resume) {
+                flush();
+                checkpoint();
+            }
+            for (JsonGenerator generator : generators.values()) {
+                generator.close();
+            }
+            generators.clear();
+            for (BufferedWriter writer : writers.values()) {
+                writer.close();
+            }
+            writers.clear();
+        }
+        if (shutdownHook != null && Thread.currentThread() != shutdownHook) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException x) {
+                // already shutting down
+            }
+        }
+        checkFailure();
     }
 
     public static Map<String, Object> toRecord(int index, InsilicoModelOutput output,
                          InsilicoMolecule molecule, iInsilicoModel model) throws IOException {
-        Map<String, Object> record = new LinkedHashMap<>(); // preserves order
-        String[] adi_names = ModelResultWriter.GetADItemsName(model);
-        // Core columns
-        record.put("No.", index);
-        record.put("ID", output.getMoleculeId());
-        record.put("SMILES", output.getMoleculeSMILES());
-
-        if (output.getStatus() < 1) {
-            record.put("Assessment", "[" + StringSelectorCore.getString("report_txt_struct_error") + "]");
-            for (String name : model.GetResultsName()) record.put(name, "-");
-            record.put(StringSelectorCore.getString("report_txt_experimental"), "-");
-            if (model.getInfo().hasAlerts()) {
-                record.put(StringSelectorCore.getString("report_txt_struct_alerts"), "-");
-            }
-            record.put(StringSelectorCore.getString("report_txt_adi"), "-");
-            for (String adiName : adi_names) record.put(adiName, "-");
-        } else {
-            record.put("Assessment", output.getAssessment());
-            String[] results = output.getResults();
-            String[] resultNames = model.GetResultsName();
-            for (int i = 0; i < resultNames.length; i++) {
-                record.put(resultNames[i], results[i]);
-            }
-            record.put(StringSelectorCore.getString("report_txt_experimental"), output.getExperimentalFormatted());
-
-            if (model.getInfo().hasAlerts()) {
-                record.put(StringSelectorCore.getString("report_txt_struct_alerts"),
-                           ModelUtilities.BuildSANameList(output.getSAList().getSAList()));
-            }
-
-            if (output.getStatus() != 2) {
-                record.put(StringSelectorCore.getString("report_txt_adi"), output.getADI().GetIndexValueFormatted());
-                Iterator<iADIndex> adIndexIter = output.getADIndex().iterator();
-                for (String adiName : adi_names) {
-                    record.put(adiName, adIndexIter.hasNext()
-                        ? adIndexIter.next().GetIndexValueFormatted()
-                        : "-");
-                }
-            } else {
-                record.put(StringSelectorCore.getString("report_txt_adi"), "-");
-                for (String adiName : adi_names) record.put(adiName, "-");
-            }
-        }
-
-        // Remarks / messages
-        StringBuilder msg = new StringBuilder();
-        for (int w = 0; w < molecule.GetWarnings().GetSize(); w++) {
-            msg.append("[").append(StringSelectorCore.getString("report_txt_molecule_warning")).append("]")
-               .append(molecule.GetWarnings().GetMessages(w)).append(". ");
-        }
-        for (int e = 0; e < molecule.GetErrors().GetSize(); e++) {
-            msg.append("[").append(StringSelectorCore.getString("report_txt_molecule_error")).append("]")
-               .append(molecule.GetErrors().GetMessages(e)).append(". ");
-        }
-        if (!output.getErrMessage().isEmpty()) {
-            msg.append("[").append(StringSelectorCore.getString("report_txt_model")).append("]")
-               .append(output.getErrMessage()).append(".");
-        }
-        if (msg.length() == 0) msg.append("-");
-        record.put(StringSelectorCore.getString("report_txt_struct_remarks"), msg.toString());
-        record.put("STATUS", output.getStatus());
-        return record;
-    }    
+        ModelOutputSchema schema = ModelOutputSchema.forModel(model);
+        ModelOutputSchema.Row row = schema.newRow();
+        schema.fill(row, index, output, molecule, new StringBuilder());
+        return schema.toRecord(row);
+    }
 }
@@ -0,0 +1,276 @@
+package net.idea.wrapper;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Persistent cache of result records for one model, keyed by SMILES.
+ * One file per model key (KEY.cache) in the cache directory, so parallel runs of different
+ * models never share a file. The model version is stored in the file header; a file written
+ * by another model version is discarded.
+ * <p>
+ * File layout, big-endian: magic "VPC1", int version length, version bytes (UTF-8), then entries of
+ * int key length, int value length, key bytes, value bytes (the record as JSON, UTF-8).
+ * Entries are only appended; the file is read once, sequentially, to build the index.
+ * Once the next entry would take the file beyond maxBytes, new entries are no longer added, so neither the file
+ * nor the index grows beyond the limit during a run; the file is then compacted on close, keeping the most
+ * recently used entries, to make room for the next run.
+ * If another process holds the file lock, the cache is used read-only.
+ */
+public class PredictionCache {
+    private static final Logger logger = Logger.getLogger(PredictionCache.class.getName());
+
+    private static final int MAGIC = 0x56504331; // "VPC1"
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final TypeReference<LinkedHashMap<String, Object>> RECORD = new TypeReference<>() {};
+
+    private static class Entry {
+        final long offset; // of the value bytes
+        final int length;
+        long lastUsed;
+
+        Entry(long offset, int length, long lastUsed) {
+            this.offset = offset;
+            this.length = length;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    private final Path file;
+    private final String modelKey;
+    private final String version;
+    private final long maxBytes;
+    private final Map<String, Entry> index = new HashMap<>();
+    private FileChannel channel;
+    private FileLock lock;
+    private long size;
+    private long tick = 0;
+    private boolean full = false;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong puts = new AtomicLong();
+    private long evictions = 0;
+
+    public static PredictionCache open(File cacheDir, String modelKey, String version, long maxBytes) throws IOException {
+        Files.createDirectories(cacheDir.toPath());
+        PredictionCache cache = new PredictionCache(cacheDir.toPath().resolve(modelKey + ".cache"), modelKey,
+                version == null ? "" : version, maxBytes);
+        cache.load();
+        return cache;
+    }
+
+    private PredictionCache(Path file, String modelKey, String version, long maxBytes) {
+        this.file = file;
+        this.modelKey = modelKey;
+        this.version = version;
+        this.maxBytes = maxBytes;
+    }
+
+    private void load() throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        lock = channel.tryLock();
+        if (lock == null) {
+            logger.warning(String.format("[%s] Prediction cache %s is in use by another process, using it read-only", modelKey, file));
+        }
+        size = channel.size();
+        long end = size > 0 ? scan() : -1;
+        if (end < 0) {
+            // new file, other model version or unreadable header
+            if (lock == null) {
+                size = 0;
+                return;
+            }
+            index.clear();
+            channel.truncate(0);
+            ByteBuffer header = header(version);
+            channel.write(header, 0);
+            size = header.capacity();
+        } else if (end < size && lock != null) {
+            // incomplete last entry, e.g. the previous run was killed while writing
+            channel.truncate(end);
+            size = end;
+        } else {
+            size = end;
+        }
+        logger.fine(String.format("[%s] Prediction cache %s: %d entries", modelKey, file, index.size()));
+    }
+
+    private static ByteBuffer header(String version) {
+        byte[] v = version.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer header = ByteBuffer.allocate(8 + v.length);
+        header.putInt(MAGIC).putInt(v.length).put(v).flip();
+        return header;
+    }
+
+    /**
+     * Build the index from the file, read sequentially through a small buffer, so the size of the file
+     * is not limited by a single memory map (2 GB).
+     * @return offset after the last complete entry, -1 if the header does not match
+     */
+    private long scan() throws IOException {
+        // not closed: that would close the channel
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(0)), 1 << 16));
+        if (size < 8 || in.readInt() != MAGIC) return -1;
+        int versionLength = in.readInt();
+        if (versionLength < 0 || versionLength > size - 8) return -1;
+        byte[] v = new byte[versionLength];
+        in.readFully(v);
+        if (!version.equals(new String(v, StandardCharsets.UTF_8))) return -1;
+
+        long end = 8L + versionLength;
+        while (size - end >= 8) {
+            int keyLength = in.readInt();
+            int valueLength = in.readInt();
+            if (keyLength < 0 || valueLength < 0 || 8L + keyLength + valueLength > size - end) break;
+            byte[] key = new byte[keyLength];
+            in.readFully(key);
+            long valueOffset = end + 8 + keyLength;
+            index.put(new String(key, StandardCharsets.UTF_8), new Entry(valueOffset, valueLength, 0));
+            in.skipNBytes(valueLength);
+            end = valueOffset + valueLength;
+        }
+        return end;
+    }
+
+    static String normalize(String smiles) {
+        return smiles.trim();
+    }
+
+    /**
+     * @return a copy of the cached record, or null if the SMILES is not cached
+     */
+    public Map<String, Object> get(String smiles) throws IOException {
+        Entry entry;
+        synchronized (this) {
+            entry = index.get(normalize(smiles));
+            if (entry != null) entry.lastUsed = ++tick;
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        ByteBuffer value = ByteBuffer.allocate(entry.length);
+        while (value.hasRemaining()) {
+            if (channel.read(value, entry.offset + value.position()) < 0) throw new IOException("Truncated cache file " + file);
+        }
+        hits.incrementAndGet();
+        return mapper.readValue(value.array(), RECORD);
+    }
+
+    public void put(String smiles, Map<String, Object> record) throws IOException {
+        if (lock == null) return;
+        String key = normalize(smiles);
+        byte[] k = key.getBytes(StandardCharsets.UTF_8);
+        byte[] v = mapper.writeValueAsBytes(record);
+        ByteBuffer buffer = ByteBuffer.allocate(8 + k.length + v.length);
+        buffer.putInt(k.length).putInt(v.length).put(k).put(v).flip();
+        synchronized (this) {
+            if (index.containsKey(key)) return;
+            if (size + buffer.remaining() > maxBytes) {
+                if (!full) logger.info(String.format("[%s] Prediction cache reached %d MB, new predictions are not cached in this run",
+                        modelKey, maxBytes / (1024 * 1024)));
+                full = true;
+                return;
+            }
+            long position = size;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            index.put(key, new Entry(size + 8 + k.length, v.length, ++tick));
+            size = position;
+        }
+        puts.incrementAndGet();
+    }
+
+    /**
+     * Compact the file if it reached the size limit and release it.
+     */
+    public synchronized void close() throws IOException {
+        Path compacted = null;
+        try {
+            if (lock != null && (full || size > maxBytes)) compacted = compact();
+        } finally {
+            if (lock != null) lock.release();
+            channel.close();
+        }
+        if (compacted == null) return;
+        // the file is closed and unlocked before it is replaced, it cannot be replaced while open on Windows
+        try {
+            Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.info(String.format("[%s] Prediction cache compacted, %d entries evicted", modelKey, evictions));
+        } catch (IOException x) {
+            logger.warning(String.format("[%s] Prediction cache not compacted: %s", modelKey, x));
+            Files.deleteIfExists(compacted);
+        }
+    }
+
+    /**
+     * Write the most recently used entries, up to 3/4 of the limit, to a new file next to the cache file.
+     * @return the new file
+     */
+    private Path compact() throws IOException {
+        List<Map.Entry<String, Entry>> entries = new ArrayList<>(index.entrySet());
+        entries.sort((a, b) -> Long.compare(b.getValue().lastUsed, a.getValue().lastUsed));
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        long budget = maxBytes / 4 * 3;
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = header(version);
+            long written = out.write(header);
+            for (Map.Entry<String, Entry> e : entries) {
+                byte[] k = e.getKey().getBytes(StandardCharsets.UTF_8);
+                long entrySize = 8L + k.length + e.getValue().length;
+                if (written + entrySize > budget) {
+                    evictions++;
+                    continue;
+                }
+                ByteBuffer buffer = ByteBuffer.allocate((int) entrySize);
+                buffer.putInt(k.length).putInt(e.getValue().length).put(k);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, e.getValue().offset + buffer.position() - 8 - k.length) < 0) break;
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) written += out.write(buffer);
+            }
+        }
+        return tmp;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public void logStats() {
+        long h = hits.get();
+        long total = h + misses.get();
+        logger.info(String.format("[%s] Prediction cache: hits %d misses %d (hit rate %.1f%%) new entries %d evicted %d size %.1f MB",
+                modelKey, h, misses.get(), total == 0 ? 0 : 100.0 * h / total, puts.get(), evictions,
+                size / (1024.0 * 1024.0)));
+    }
+}
@@ -0,0 +1,176 @@
+package net.idea.wrapper;
+
+import java.io.BufferedReader;
+import java.io.Console;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Shows the rows processed, rows per second and ETA from a background thread at a fixed rate,
+ * so the processing threads only update a counter.
+ * On a console the line is redrawn in place twice a second; otherwise (stdout redirected to a log)
+ * a plain line is printed every plainIntervalSeconds.
+ */
+public class ProgressReporter implements AutoCloseable {
+    private static final long CONSOLE_INTERVAL_MILLIS = 500;
+
+    private final PrintStream out;
+    private final boolean console;
+    private final long intervalMillis;
+    private final Supplier<String> extra;
+    private final AtomicInteger row = new AtomicInteger();
+    private volatile int total = -1;
+    private int startRow = -1;
+    private long startNanos;
+    private ScheduledExecutorService scheduler;
+    private Thread counter;
+
+    /**
+     * @param plainIntervalSeconds seconds between lines when stdout is not a console, 0 for no progress
+     * @param extra text appended to the line, e.g. memory usage; called on the reporting thread, may be null
+     */
+    public ProgressReporter(double plainIntervalSeconds, Supplier<String> extra) {
+        this.out = System.out;
+        this.console = isTerminal();
+        this.intervalMillis = plainIntervalSeconds <= 0 ? 0
+                : console ? CONSOLE_INTERVAL_MILLIS : (long) (plainIntervalSeconds * 1000);
+        this.extra = extra;
+    }
+
+    /**
+     * Start reporting; rows before startRow (skipped or resumed) do not count for the rate.
+     */
+    public synchronized ProgressReporter start(int startRow) {
+        this.startRow = startRow;
+        this.row.set(startRow);
+        this.startNanos = System.nanoTime();
+        if (intervalMillis > 0 && scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "progress");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleAtFixedRate(this::report, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+        return this;
+    }
+
+    /**
+     * Count rows of the input file on a thread of its own, for the ETA; maxRows, if set, limits the total.
+     * Progress is reported while counting, without a total until the count is done.
+     */
+    public synchronized ProgressReporter countRows(File inputFile, int maxRows) {
+        if (maxRows > 0) total = maxRows;
+        if (scheduler == null || inputFile == null || counter != null) return this;
+        counter = new Thread(() -> {
+            int rows = countRows(inputFile);
+            if (rows >= 0 && (total < 0 || rows < total)) total = rows;
+        }, "progress-count");
+        counter.setDaemon(true);
+        counter.start();
+        return this;
+    }
+
+    public void setTotal(int total) {
+        this.total = total;
+    }
+
+    /**
+     * Set the number of the last processed row. Cheap, called for every row.
+     */
+    public void update(int rowNum) {
+        row.lazySet(rowNum);
+    }
+
+    private void report() {
+        String line = format(row.get());
+        if (console) {
+            out.print("\r" + line + "          \r");
+        } else {
+            out.println(line);
+        }
+        out.flush();
+    }
+
+    String format(int current) {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        double rate = seconds > 0 ? (current - startRow) / seconds : 0;
+        StringBuilder line = new StringBuilder("Processed rows: ").append(current);
+        if (total > 0) line.append('/').append(total);
+        line.append(String.format(" %.1f rows/s", rate));
+        if (total > 0 && rate > 0 && current < total) {
+            line.append(" ETA ").append(formatDuration((long) ((total - current) / rate * 1000)));
+        }
+        if (extra != null) line.append(' ').append(extra.get());
+        return line.toString();
+    }
+
+    static String formatDuration(long millis) {
+        long seconds = millis / 1000;
+        long minutes = seconds / 60;
+        long hours = minutes / 60;
+        if (hours > 0) return String.format("%dh %dm %ds", hours, minutes % 60, seconds % 60);
+        if (minutes > 0) return String.format("%dm %ds", minutes, seconds % 60);
+        return String.format("%ds", seconds);
+    }
+
+    /**
+     * @return true if stdout is a terminal. Since JDK 22 System.console() is not null when stdout is redirected,
+     * {@code Console.isTerminal()} tells; it is called reflectively, the build targets Java 17.
+     */
+    static boolean isTerminal() {
+        Console console = System.console();
+        if (console == null) return false;
+        try {
+            return (Boolean) Console.class.getMethod("isTerminal").invoke(console);
+        } catch (ReflectiveOperationException x) {
+            // before JDK 22 a console is a terminal
+            return true;
+        }
+    }
+
+    /**
+     * @return data rows of a file with a header line, -1 if it cannot be read or the thread is interrupted
+     */
+    static int countRows(File file) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(Compression.open(file), StandardCharsets.ISO_8859_1))) {
+            int rows = 0;
+            String line = reader.readLine();
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty()) rows++;
+                if ((rows & 0xFFFF) == 0 && Thread.currentThread().isInterrupted()) return -1;
+            }
+            return rows;
+        } catch (IOException x) {
+            return -1;
+        }
+    }
+
+    /**
+     * Stop reporting and show the final count.
+     */
+    @Override
+    public synchronized void close() {
+        if (counter != null) {
+            counter.interrupt();
+            counter = null;
+        }
+        if (scheduler == null) return;
+        scheduler.shutdownNow();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+        }
+        scheduler = null;
+        report();
+    }
+}
@@ -0,0 +1,93 @@
+package net.idea.wrapper;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * Last row durably written to a result file, stored next to it as resultsw_MODEL.ext.checkpoint.
+ * The result file is synced before the checkpoint is written, so on resume the file is
+ * truncated to {@link #offset} and rows up to {@link #row} are skipped.
+ * A complete checkpoint records the row limit (-x) of the run, 0 if the run reached the end of the input,
+ * so a run with a higher limit or without one continues the file instead of skipping the model.
+ */
+public class ResultCheckpoint {
+    private static final Logger logger = Logger.getLogger(ResultCheckpoint.class.getName());
+
+    public static final String EXT = ".checkpoint";
+
+    public final int row;
+    public final long offset;
+    public final boolean complete;
+    /** Row limit the results are complete for, 0 for all rows of the input. */
+    public final int maxRows;
+
+    public ResultCheckpoint(int row, long offset, boolean complete) {
+        this(row, offset, complete, 0);
+    }
+
+    public ResultCheckpoint(int row, long offset, boolean complete, int maxRows) {
+        this.row = row;
+        this.offset = offset;
+        this.complete = complete;
+        this.maxRows = Math.max(0, maxRows);
+    }
+
+    /**
+     * @param maxRows row limit of this run, 0 or less for all rows
+     * @return true if the results are complete and have every row the run would process
+     */
+    public boolean isCompleteFor(int maxRows) {
+        if (!complete) return false;
+        if (this.maxRows == 0) return true;
+        return maxRows > 0 && this.maxRows >= maxRows;
+    }
+
+    public static File fileFor(File resultFile) {
+        return new File(resultFile.getParentFile(), resultFile.getName() + EXT);
+    }
+
+    /**
+     * @return the checkpoint of the result file, null if there is none or it cannot be read
+     */
+    public static ResultCheckpoint read(File resultFile) {
+        File file = fileFor(resultFile);
+        if (!file.exists()) return null;
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            properties.load(in);
+            return new ResultCheckpoint(
+                    Integer.parseInt(properties.getProperty("row")),
+                    Long.parseLong(properties.getProperty("offset")),
+                    Boolean.parseBoolean(properties.getProperty("complete")),
+                    Integer.parseInt(properties.getProperty("maxrows", "0")));
+        } catch (IOException | RuntimeException x) {
+            logger.warning(String.format("Ignoring invalid checkpoint %s: %s", file, x.getMessage()));
+            return null;
+        }
+    }
+
+    /**
+     * Replace the checkpoint of the result file atomically.
+     */
+    public void write(File resultFile) throws IOException {
+        File file = fileFor(resultFile);
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        Properties properties = new Properties();
+        properties.setProperty("row", Integer.toString(row));
+        properties.setProperty("offset", Long.toString(offset));
+        properties.setProperty("complete", Boolean.toString(complete));
+        if (complete && maxRows > 0) properties.setProperty("maxrows", Integer.toString(maxRows));
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            properties.store(out, null);
+            out.getFD().sync();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,134 @@
+package net.idea.wrapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * Counters and latency histograms of a run, per model key, written as JSON.
+ * SMILES conversion does not depend on the model and is kept once for the run.
+ * The file is written at the end of the run and, with an interval, periodically while it runs;
+ * it is replaced atomically, so a reader never sees a partial file. Thread safe.
+ */
+public class RunMetrics implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(RunMetrics.class.getName());
+
+    public static class ModelMetrics {
+        public final LatencyHistogram load = new LatencyHistogram();
+        public final LatencyHistogram execute = new LatencyHistogram();
+        public final LatencyHistogram write = new LatencyHistogram();
+        public final LongAdder rows = new LongAdder();
+        public final LongAdder errors = new LongAdder();
+        public final LongAdder bytesWritten = new LongAdder();
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("rows", rows.sum());
+            map.put("errors", errors.sum());
+            map.put("bytes_written", bytesWritten.sum());
+            map.put("load", RunMetrics.toMap(load));
+            map.put("execute", RunMetrics.toMap(execute));
+            map.put("write", RunMetrics.toMap(write));
+            return map;
+        }
+    }
+
+    private final File file;
+    private final long startMillis = System.currentTimeMillis();
+    private final LatencyHistogram conversion = new LatencyHistogram();
+    private final Map<String, ModelMetrics> models = new ConcurrentHashMap<>();
+    private final ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param file the JSON file, may be null to only collect
+     */
+    public RunMetrics(File file) {
+        this.file = file;
+    }
+
+    public ModelMetrics model(String key) {
+        return models.computeIfAbsent(key, k -> new ModelMetrics());
+    }
+
+    public LatencyHistogram conversion() {
+        return conversion;
+    }
+
+    /**
+     * Write the file every intervalSeconds until {@link #close()}.
+     */
+    public synchronized void startExport(double intervalSeconds) {
+        if (file == null || intervalSeconds <= 0 || scheduler != null) return;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-export");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long millis = (long) (intervalSeconds * 1000);
+        scheduler.scheduleAtFixedRate(this::export, millis, millis, TimeUnit.MILLISECONDS);
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("started", Instant.ofEpochMilli(startMillis).toString());
+        map.put("updated", Instant.now().toString());
+        map.put("elapsed_s", (System.currentTimeMillis() - startMillis) / 1000.0);
+        map.put("conversion", toMap(conversion));
+        Map<String, Object> byModel = new LinkedHashMap<>();
+        for (Map.Entry<String, ModelMetrics> e : models.entrySet()) {
+            byModel.put(e.getKey(), e.getValue().toMap());
+        }
+        map.put("models", byModel);
+        return map;
+    }
+
+    static Map<String, Object> toMap(LatencyHistogram histogram) {
+        long[] p = histogram.getPercentiles(50, 90, 99);
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("count", histogram.getCount());
+        map.put("mean_ms", histogram.getMean() / 1e6);
+        map.put("p50_ms", p[0] / 1e6);
+        map.put("p90_ms", p[1] / 1e6);
+        map.put("p99_ms", p[2] / 1e6);
+        map.put("max_ms", histogram.getMax() / 1e6);
+        return map;
+    }
+
+    /**
+     * Write the current values to the file, logging failures.
+     */
+    public synchronized void export() {
+        if (file == null) return;
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            mapper.writeValue(tmp, toMap());
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException x) {
+            logger.log(Level.WARNING, "Failed to write metrics to " + file, x);
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (scheduler != null) scheduler.shutdownNow();
+            scheduler = null;
+        }
+        export();
+    }
+}
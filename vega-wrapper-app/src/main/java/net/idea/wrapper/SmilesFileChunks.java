@@ -0,0 +1,84 @@
+package net.idea.wrapper;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Splits a tab-delimited file with a header line, gzip compressed or not, into uncompressed chunk files
+ * of chunkSize rows, each with the same header, so every chunk can be read by the same reader as the whole file.
+ * Lines are copied unchanged (read and written as ISO-8859-1, which keeps every byte);
+ * blank lines are copied too, but only non-empty lines count as rows, as in {@link SmilesReader}.
+ * For an input without an ID column, an ID column can be added in front of the others, holding the row number
+ * in the whole input, so the IDs continue from chunk to chunk instead of starting again in each.
+ */
+public class SmilesFileChunks implements Closeable {
+    private final BufferedReader reader;
+    private final String header;
+    private final int chunkSize;
+    private final boolean addId;
+    private String pending;
+    private int rowNum = 0;
+
+    public SmilesFileChunks(File inputFile, int chunkSize) throws IOException {
+        this(inputFile, chunkSize, null);
+    }
+
+    /**
+     * @param idColumn name of the ID column to add, null to copy the lines unchanged
+     */
+    public SmilesFileChunks(File inputFile, int chunkSize, String idColumn) throws IOException {
+        this.reader = new BufferedReader(new InputStreamReader(Compression.open(inputFile), StandardCharsets.ISO_8859_1));
+        String header = reader.readLine();
+        if (header == null) {
+            reader.close();
+            throw new IOException(String.format("Input file %s is empty.", inputFile.getAbsolutePath()));
+        }
+        this.addId = idColumn != null;
+        this.header = addId ? idColumn + "\t" + header : header;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Write the header and the next chunkSize rows to chunkFile, replacing it.
+     *
+     * @return number of rows written, 0 at the end of the input
+     */
+    public int next(File chunkFile) throws IOException {
+        int rows = 0;
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(chunkFile), StandardCharsets.ISO_8859_1))) {
+            writer.write(header);
+            writer.newLine();
+            String line = pending != null ? pending : reader.readLine();
+            pending = null;
+            for (; line != null; line = reader.readLine()) {
+                if (!line.trim().isEmpty()) {
+                    if (rows == chunkSize) {
+                        // first row of the next chunk
+                        pending = line;
+                        break;
+                    }
+                    rows++;
+                    if (addId) {
+                        writer.write(Integer.toString(++rowNum));
+                        writer.write('\t');
+                    }
+                }
+                writer.write(line);
+                writer.newLine();
+            }
+        }
+        return rows;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,109 @@
+package net.idea.wrapper;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Logger;
+
+import com.ibm.icu.text.CharsetDetector;
+import com.ibm.icu.text.CharsetMatch;
+
+/**
+ * Reads SMILES and ID columns from a tab-delimited file with a header line.
+ * Rows are numbered from 1, counting non-empty lines after the header,
+ * the same numbering used for the "No." column of the results.
+ * Rows with too few fields are counted but not returned.
+ */
+public interface SmilesReader extends Closeable {
+
+    /** Bytes of the file used to detect its encoding. */
+    int CHARSET_SNIFF_BYTES = 64 * 1024;
+
+    class Row {
+        public final int rowNum;
+        public final String id;
+        public final String smiles;
+
+        public Row(int rowNum, String id, String smiles) {
+            this.rowNum = rowNum;
+            this.id = id;
+            this.smiles = smiles;
+        }
+    }
+
+    /**
+     * @return the next row, or null at the end of file
+     */
+    Row next() throws IOException;
+
+    /**
+     * Position the reader after row rowNum, so that {@link #next()} returns the rows after it.
+     * Stops at the end of file.
+     */
+    void skipTo(int rowNum) throws IOException;
+
+    /**
+     * @return number of rows read or skipped so far
+     */
+    int getRowNum();
+
+    /**
+     * Stop at row maxRows: {@link #next()} returns null once the row is read or skipped,
+     * also when it has too few fields, so that rows after it are not returned.
+     *
+     * @param maxRows last row, 0 or less for all
+     */
+    void setMaxRows(int maxRows);
+
+    /**
+     * Open the input file, gzip compressed or not, in the encoding detected from its first bytes.
+     *
+     * @param mapped read through a memory map with a row index ({@link MappedTsvSmilesReader});
+     *               gzip compressed files and files in an encoding that is not ASCII compatible (UTF-16)
+     *               are read with {@link SmilesRowReader}
+     */
+    static SmilesReader open(File inputFile, String smilesFieldName, String idFieldName, boolean mapped) throws IOException {
+        Charset charset = detectCharset(inputFile);
+        boolean compressed = Compression.isCompressed(inputFile);
+        if (mapped && !compressed && MappedTsvSmilesReader.supports(charset)) {
+            return new MappedTsvSmilesReader(inputFile, smilesFieldName, idFieldName, charset);
+        }
+        if (mapped) {
+            Logger.getLogger(SmilesReader.class.getName()).warning(
+                    String.format("%s is %s, reading without memory map", inputFile, compressed ? "compressed" : charset));
+        }
+        return new SmilesRowReader(inputFile, smilesFieldName, idFieldName, charset);
+    }
+
+    /**
+     * Detect the encoding from the first {@link #CHARSET_SNIFF_BYTES} of the file with ICU, as {@code readKeys} does for whole files.
+     *
+     * @return the detected charset, or the platform default if there is no match
+     */
+    static Charset detectCharset(File file) throws IOException {
+        byte[] prefix;
+        try (InputStream in = Compression.open(file)) {
+            prefix = in.readNBytes(CHARSET_SNIFF_BYTES);
+        }
+        if (prefix.length == 0) return Charset.defaultCharset();
+        // an ASCII prefix, by far the most common for SMILES files, says nothing about the rest;
+        // UTF-8 reads ASCII and is the usual encoding of the rest
+        boolean ascii = true;
+        for (byte b : prefix) {
+            if (b <= 0) { // NUL bytes: UTF-16
+                ascii = false;
+                break;
+            }
+        }
+        if (ascii) return StandardCharsets.UTF_8;
+
+        CharsetDetector detector = new CharsetDetector();
+        detector.setText(prefix);
+        CharsetMatch match = detector.detect();
+        if (match == null || !Charset.isSupported(match.getName())) return Charset.defaultCharset();
+        return Charset.forName(match.getName());
+    }
+}
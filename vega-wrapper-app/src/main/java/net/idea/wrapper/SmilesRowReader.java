@@ -0,0 +1,96 @@
+package net.idea.wrapper;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * {@link SmilesReader} reading the file line by line, splitting each line into fields.
+ */
+public class SmilesRowReader implements SmilesReader {
+    private static final Logger logger = Logger.getLogger(SmilesRowReader.class.getName());
+
+    private final BufferedReader reader;
+    private final int smilesIndex;
+    private final int idIndex;
+    private int rowNum = 0;
+    private int maxRows = 0;
+
+    public SmilesRowReader(File inputFile, String smilesFieldName, String idFieldName) throws IOException {
+        this(inputFile, smilesFieldName, idFieldName, Charset.defaultCharset());
+    }
+
+    public SmilesRowReader(File inputFile, String smilesFieldName, String idFieldName, Charset charset) throws IOException {
+        this.reader = new BufferedReader(new InputStreamReader(Compression.open(inputFile), charset));
+        try {
+            logger.fine("Reading " + inputFile);
+            String headerLine = reader.readLine();
+            if (headerLine == null) {
+                throw new IOException(String.format("Input file %s is empty.", inputFile.getAbsolutePath()));
+            }
+
+            String[] headers = headerLine.split("\t");
+            Map<String, Integer> headerIndex = new HashMap<>();
+            StringBuilder _log = new StringBuilder();
+            for (int i = 0; i < headers.length; i++) {
+                _log.append(headers[i].trim());
+                _log.append("\t");
+                headerIndex.put(headers[i].trim(), i);
+            }
+            logger.finer(_log.toString());
+
+            Integer smilesIdx = headerIndex.get(smilesFieldName);
+            Integer idIdx = headerIndex.get(idFieldName);
+            if (smilesIdx == null) {
+                throw new IllegalArgumentException("Missing required field: " + smilesFieldName);
+            }
+            this.smilesIndex = smilesIdx;
+            this.idIndex = idIdx == null ? -1 : idIdx;
+        } catch (IOException | RuntimeException x) {
+            reader.close();
+            throw x;
+        }
+    }
+
+    @Override
+    public Row next() throws IOException {
+        String line;
+        while ((maxRows <= 0 || rowNum < maxRows) && (line = reader.readLine()) != null) {
+            if (line.trim().isEmpty()) continue;
+            rowNum++;
+            String[] fields = line.split("\t", -1); // include trailing empty fields
+            if (fields.length <= Math.max(smilesIndex, idIndex)) continue;
+            String id = idIndex >= 0 ? fields[idIndex] : Integer.toString(rowNum);
+            return new Row(rowNum, id, fields[smilesIndex]);
+        }
+        return null;
+    }
+
+    @Override
+    public void skipTo(int rowNum) throws IOException {
+        String line;
+        while (this.rowNum < rowNum && (line = reader.readLine()) != null) {
+            if (!line.trim().isEmpty()) this.rowNum++;
+        }
+    }
+
+    @Override
+    public int getRowNum() {
+        return rowNum;
+    }
+
+    @Override
+    public void setMaxRows(int maxRows) {
+        this.maxRows = maxRows;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -1,23 +1,32 @@
 package net.idea.wrapper;
 
+/**
+ * Running mean of a stream of values. Thread safe: values are added by the processing thread
+ * and sampled by the progress reporter.
+ */
 public class StreamingMeanLong {
     private long count = 0;
-    private long mean = 0;
+    // kept as double: with integer division the update truncates to 0 once count is large
+    private double mean = 0;
 
     // Add a new value to the stream
-    public void add(long value) {
+    public synchronized void add(long value) {
         count++;
         mean += (value - mean) / count;
     }
 
+    // Get the current mean, rounded
+    public synchronized long getMean() {
+        return Math.round(mean);
+    }
+
     // Get the current mean
-    public long getMean() {
+    public synchronized double getMeanDouble() {
         return mean;
     }
 
     // Get how many values have been processed
-    public long getCount() {
+    public synchronized long getCount() {
         return count;
     }
 }
-
@@ -0,0 +1,17 @@
+package net.idea.wrapper.vega;
+
+import picocli.CommandLine;
+
+/**
+ * Entry point for running the wrapper inside an already running JVM,
+ * without the Quarkus bootstrap (used by vega-parallel-cli in-process mode).
+ * Arguments are the same as on the command line, starting with the subcommand, e.g. "vega".
+ * Commands may run concurrently, so they neither report the peak heap nor show progress.
+ */
+public class EmbeddedMain {
+
+    public static int execute(String... args) {
+        WrapperCommand.sharedJvm = true;
+        return new CommandLine(new Main()).execute(args);
+    }
+}
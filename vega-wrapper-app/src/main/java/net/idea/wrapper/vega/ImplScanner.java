@@ -11,24 +11,20 @@ import java.io.PrintWriter;
 import java.nio.charset.StandardCharsets;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 
 public class ImplScanner {
 
     public static void list_models(boolean classnames_only,  File outputFile) throws Exception {
-        try (ScanResult scanResult = new ClassGraph()
-                .enableClassInfo()
-                .acceptPackages("insilico.*") // adjust to match your package(s)
-                .scan();
-            PrintWriter out = new PrintWriter(
+        try (PrintWriter out = new PrintWriter(
                 new BufferedWriter(
                     new OutputStreamWriter(
                         new FileOutputStream(outputFile), StandardCharsets.UTF_8)))            
                 ) {
 
-            var implClasses = scanResult
-                    .getClassesImplementing("insilico.core.model.iInsilicoModel")
-                    .loadClasses();
+            List<Class<?>> implClasses = isNativeImage() ? registeredClasses() : scanClasses();
 
             if (! classnames_only)
                 // Header
@@ -64,6 +60,37 @@ public class ImplScanner {
         }
     }
 
+    private static List<Class<?>> scanClasses() {
+        try (ScanResult scanResult = new ClassGraph()
+                .enableClassInfo()
+                .acceptPackages("insilico.*") // adjust to match your package(s)
+                .scan()) {
+            return scanResult
+                    .getClassesImplementing("insilico.core.model.iInsilicoModel")
+                    .loadClasses();
+        }
+    }
+
+    /**
+     * A native image has no class path to scan: the models are those of models.txt,
+     * built into the image with their reflection metadata (see NativeConfigGenerator).
+     */
+    private static List<Class<?>> registeredClasses() {
+        List<Class<?>> classes = new ArrayList<>();
+        for (String key : ModelRegistry.getAvailableModelKeys()) {
+            try {
+                classes.add(Class.forName(ModelRegistry.getClassName(key)));
+            } catch (ClassNotFoundException e) {
+                // not in the image
+            }
+        }
+        return classes;
+    }
+
+    static boolean isNativeImage() {
+        return "runtime".equals(System.getProperty("org.graalvm.nativeimage.imagecode"));
+    }
+
     private static String nullToEmpty(Object obj) {
         return obj == null ? "" : obj.toString();
     }
@@ -6,7 +6,9 @@ import picocli.CommandLine.Command;
 
 @TopCommand
 @Command(name = "main", subcommands = {
-    WrapperCommand.class
+    WrapperCommand.class,
+    ServeCommand.class,
+    WorkerCommand.class
 })
 public class Main {
 }
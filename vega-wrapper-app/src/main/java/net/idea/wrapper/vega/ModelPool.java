@@ -0,0 +1,198 @@
+package net.idea.wrapper.vega;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import insilico.core.model.InsilicoModel;
+import net.idea.wrapper.HeapUsage;
+import net.idea.wrapper.RunMetrics;
+
+/**
+ * Keeps constructed models warm between uses.
+ * A model instance is handed out to one thread at a time by {@link #acquire(String)}
+ * and returned by {@link #release(String, InsilicoModel)}. Idle instances are evicted,
+ * least recently used model key first, when there are more than maxIdle of them
+ * or, if enabled, when the heap retained after a garbage collection is above heapFraction
+ * of the maximum heap (one instance per collection, as memory is only freed by the next one).
+ * A model key in use, or the one just released, keeps its last idle instance,
+ * so a model running on other threads is not reloaded for every row.
+ */
+public class ModelPool {
+    private static final Logger logger = Logger.getLogger(ModelPool.class.getName());
+
+    public static class Stats {
+        final AtomicLong hits = new AtomicLong();
+        final AtomicLong misses = new AtomicLong();
+        final AtomicLong loads = new AtomicLong();
+        final AtomicLong loadNanos = new AtomicLong();
+        final AtomicLong evictions = new AtomicLong();
+
+        public long getHits() { return hits.get(); }
+        public long getMisses() { return misses.get(); }
+        public long getLoads() { return loads.get(); }
+        public long getEvictions() { return evictions.get(); }
+
+        public double getMeanLoadSeconds() {
+            long n = loads.get();
+            return n == 0 ? 0 : loadNanos.get() / (n * 1_000_000_000.0);
+        }
+    }
+
+    private final int maxIdle;
+    private final double heapFraction;
+    // idle instances per model key, in least recently used order
+    private final LinkedHashMap<String, Deque<InsilicoModel>> idle = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Stats> stats = new ConcurrentHashMap<>();
+    // instances handed out and not yet released, per model key
+    private final Map<String, Integer> inUse = new HashMap<>();
+    private int idleCount = 0;
+    private long lastEvictionGc = -1;
+    private volatile RunMetrics metrics;
+
+    /**
+     * @param maxIdle maximum number of idle instances over all keys, -1 for no limit
+     * @param heapFraction evict idle instances while the heap retained after GC is above this fraction,
+     *                     0 or less, or 1 or more, to disable
+     */
+    public ModelPool(int maxIdle, double heapFraction) {
+        this.maxIdle = maxIdle;
+        this.heapFraction = heapFraction;
+    }
+
+    /**
+     * Also record model load times in the metrics of the run, null to stop.
+     */
+    public void setMetrics(RunMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public InsilicoModel acquire(String key) throws Exception {
+        Stats stat = getStats(key);
+        synchronized (this) {
+            Deque<InsilicoModel> instances = idle.get(key);
+            inUse.merge(key, 1, Integer::sum);
+            if (instances != null && !instances.isEmpty()) {
+                idleCount--;
+                stat.hits.incrementAndGet();
+                return instances.pollLast();
+            }
+        }
+        stat.misses.incrementAndGet();
+        try {
+            return load(key, stat);
+        } catch (Exception | Error e) {
+            synchronized (this) {
+                inUse.computeIfPresent(key, (k, n) -> n > 1 ? n - 1 : null);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Return an instance from {@link #acquire(String)} or {@link #reload(String)}; null if the caller
+     * dropped it, which still ends its use of the model key.
+     */
+    public void release(String key, InsilicoModel model) {
+        synchronized (this) {
+            inUse.computeIfPresent(key, (k, n) -> n > 1 ? n - 1 : null);
+            if (model == null) return;
+            idle.computeIfAbsent(key, k -> new ArrayDeque<>()).addLast(model);
+            idleCount++;
+            evict(key);
+        }
+    }
+
+    /**
+     * Construct a fresh instance to replace one in use, e.g. to release memory held by the old instance.
+     * The caller drops the old instance instead of releasing it.
+     */
+    public InsilicoModel reload(String key) throws Exception {
+        return load(key, getStats(key));
+    }
+
+    private InsilicoModel load(String key, Stats stat) throws Exception {
+        long startTime = System.nanoTime();
+        InsilicoModel model = ModelRegistry.getModelByKey(key);
+        long elapsedNano = System.nanoTime() - startTime;
+        stat.loadNanos.addAndGet(elapsedNano);
+        stat.loads.incrementAndGet();
+        RunMetrics runMetrics = metrics;
+        if (runMetrics != null) runMetrics.model(key).load.add(elapsedNano);
+        return model;
+    }
+
+    private void evict(String released) {
+        while (maxIdle >= 0 && idleCount > maxIdle) {
+            if (!evictEldest(released)) break;
+        }
+        if (idleCount == 0 || heapFraction <= 0 || heapFraction >= 1) return;
+        // after a collection only: the figure does not change until the next one,
+        // and the memory of an evicted instance is only freed by it
+        long collections = HeapUsage.collectionCount();
+        if (collections != lastEvictionGc && HeapUsage.retainedFraction() > heapFraction) {
+            if (evictEldest(released)) lastEvictionGc = collections;
+        }
+    }
+
+    /**
+     * Evict the least recently used idle instance, except the last one of a key in use or just released.
+     *
+     * @return false if no instance could be evicted
+     */
+    private boolean evictEldest(String released) {
+        Iterator<Map.Entry<String, Deque<InsilicoModel>>> entries = idle.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<String, Deque<InsilicoModel>> entry = entries.next();
+            String key = entry.getKey();
+            if (entry.getValue().size() <= 1 && (key.equals(released) || inUse.containsKey(key))) continue;
+            InsilicoModel evicted = entry.getValue().pollFirst();
+            if (entry.getValue().isEmpty()) entries.remove();
+            if (evicted != null) {
+                idleCount--;
+                getStats(key).evictions.incrementAndGet();
+                logger.fine(String.format("[%s] Evicted idle model instance", key));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Drop all idle instances of a model key, at the end of its run: instances still handed out
+     * are no longer counted as in use.
+     */
+    public synchronized void invalidate(String key) {
+        Deque<InsilicoModel> instances = idle.remove(key);
+        if (instances != null) idleCount -= instances.size();
+        inUse.remove(key);
+    }
+
+    public synchronized void clear() {
+        idle.clear();
+        idleCount = 0;
+    }
+
+    public Stats getStats(String key) {
+        return stats.computeIfAbsent(key, k -> new Stats());
+    }
+
+    public Map<String, Stats> getStats() {
+        return stats;
+    }
+
+    public void logStats() {
+        for (Map.Entry<String, Stats> entry : stats.entrySet()) {
+            Stats stat = entry.getValue();
+            logger.info(String.format("[%s] Model pool: loads %d (average %.2f s) hits %d misses %d evictions %d",
+                entry.getKey(), stat.getLoads(), stat.getMeanLoadSeconds(), stat.getHits(), stat.getMisses(),
+                stat.getEvictions()));
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package net.idea.wrapper.vega;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import insilico.core.model.InsilicoModel;
+import insilico.core.model.InsilicoModelOutput;
+import insilico.core.molecule.InsilicoMolecule;
+import insilico.core.molecule.conversion.SmilesMolecule;
+
+import net.idea.wrapper.LatencyHistogram;
+import net.idea.wrapper.ModelOutputSchema;
+import net.idea.wrapper.ModelResultWriter;
+
+/**
+ * Queue of the molecules of concurrent requests for one model.
+ * Each thread owns a warm model instance from the {@link ModelPool} for its lifetime and takes
+ * the queued molecules one at a time, as VEGA models predict one molecule per call.
+ * Requests share the threads and instances instead of loading a model each.
+ * Every job is completed, with an error record if the prediction fails in any way; after a timeout
+ * or an Error the thread drops its instance and loads a new one for the next molecule.
+ */
+public class ModelQueue implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(ModelQueue.class.getName());
+
+    static class Job {
+        final int index;
+        final String id;
+        final String smiles;
+        final CompletableFuture<Map<String, Object>> result = new CompletableFuture<>();
+
+        Job(int index, String id, String smiles) {
+            this.index = index;
+            this.id = id;
+            this.smiles = smiles;
+        }
+    }
+
+    private final String modelKey;
+    private final ModelPool modelPool;
+    private final MoleculeWatchdog watchdog;
+    private final BlockingQueue<Job> queue = new LinkedBlockingQueue<>();
+    private final List<Thread> threads = new ArrayList<>();
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder molecules = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    /**
+     * Loads one model instance per thread.
+     * @param watchdog limits the time of one molecule, null for no limit
+     * @throws Exception if the model key is unknown or the model fails to load
+     */
+    public ModelQueue(String modelKey, ModelPool modelPool, int nThreads, MoleculeWatchdog watchdog) throws Exception {
+        this.modelKey = modelKey;
+        this.modelPool = modelPool;
+        this.watchdog = watchdog;
+        List<InsilicoModel> models = new ArrayList<>();
+        try {
+            for (int i = 0; i < Math.max(1, nThreads); i++) models.add(modelPool.acquire(modelKey));
+        } catch (Exception x) {
+            for (InsilicoModel model : models) modelPool.release(modelKey, model);
+            throw x;
+        }
+        for (int i = 0; i < models.size(); i++) {
+            InsilicoModel model = models.get(i);
+            Thread thread = new Thread(() -> run(model), "model-" + modelKey + "-" + i);
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+    }
+
+    public String getModelKey() {
+        return modelKey;
+    }
+
+    /**
+     * Queue the molecules of one request.
+     * @param ids molecule IDs, same size as smiles
+     * @return one future record per molecule, in the layout of {@link ModelResultWriter#toRecord}
+     */
+    public List<CompletableFuture<Map<String, Object>>> submit(List<String> smiles, List<String> ids) {
+        List<CompletableFuture<Map<String, Object>>> results = new ArrayList<>(smiles.size());
+        long start = System.nanoTime();
+        for (int i = 0; i < smiles.size(); i++) {
+            Job job = new Job(i + 1, ids.get(i), smiles.get(i));
+            results.add(job.result);
+            queue.add(job);
+        }
+        requests.increment();
+        // request latency for this model: from queueing to the last molecule done
+        CompletableFuture.allOf(results.toArray(new CompletableFuture[0]))
+                .whenComplete((r, x) -> latency.add(System.nanoTime() - start));
+        return results;
+    }
+
+    private void run(InsilicoModel first) {
+        InsilicoModel model = first;
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Job job = queue.take();
+                // cancelled, e.g. the request timed out
+                if (job.result.isDone()) continue;
+                molecules.increment();
+                try {
+                    if (model == null) model = modelPool.reload(modelKey);
+                    job.result.complete(predict(model, job));
+                } catch (InterruptedException x) {
+                    job.result.cancel(false);
+                    throw x;
+                } catch (Throwable x) {
+                    Throwable cause = x instanceof ExecutionException && x.getCause() != null ? x.getCause() : x;
+                    fail(model, job, cause);
+                    // a timed out instance may still be running the molecule, one that threw an Error may be broken
+                    if (cause instanceof TimeoutException || cause instanceof Error) model = null;
+                }
+            }
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+        } finally {
+            modelPool.release(modelKey, model);
+        }
+    }
+
+    private Map<String, Object> predict(InsilicoModel model, Job job) throws Exception {
+        InsilicoMolecule mol = SmilesMolecule.Convert(job.smiles.trim());
+        mol.SetId(job.id);
+        InsilicoModelOutput output = watchdog == null ? model.Execute(mol) : watchdog.execute(model, mol);
+        return ModelResultWriter.toRecord(job.index, output, mol, model);
+    }
+
+    /**
+     * Complete the job with an error record, or exceptionally if there is no model instance to make one.
+     */
+    private void fail(InsilicoModel model, Job job, Throwable x) {
+        errors.increment();
+        if (x instanceof TimeoutException) {
+            logger.warning(String.format("[%s] %s: %s", modelKey, x.getMessage(), job.smiles));
+        } else {
+            logger.log(Level.WARNING, String.format("[%s] %s", modelKey, job.smiles), x);
+        }
+        try {
+            if (model != null) {
+                job.result.complete(ModelOutputSchema.forModel(model).errorRecord(job.index, job.id, job.smiles,
+                        String.valueOf(x.getMessage())));
+                return;
+            }
+        } catch (RuntimeException | Error y) {
+            x.addSuppressed(y);
+        }
+        job.result.completeExceptionally(x);
+    }
+
+    /**
+     * @return counters and request latency percentiles in ms
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long[] p = latency.getPercentiles(50, 90, 99);
+        stats.put("requests", requests.sum());
+        stats.put("molecules", molecules.sum());
+        stats.put("errors", errors.sum());
+        stats.put("queued", queue.size());
+        stats.put("latency_p50_ms", p[0] / 1e6);
+        stats.put("latency_p90_ms", p[1] / 1e6);
+        stats.put("latency_p99_ms", p[2] / 1e6);
+        stats.put("latency_max_ms", latency.getMax() / 1e6);
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        for (Thread thread : threads) thread.interrupt();
+        Job job;
+        while ((job = queue.poll()) != null) job.result.cancel(false);
+    }
+}
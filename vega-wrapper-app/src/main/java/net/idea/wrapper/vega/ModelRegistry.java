@@ -5,38 +5,62 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.lang.reflect.Constructor;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import insilico.core.model.InsilicoModel;
 
 public class ModelRegistry {
 
     private static final Map<String, String> modelMap = new HashMap<>();
+    // resolved once per key, so repeated construction skips the class lookup
+    private static final Map<String, Constructor<? extends InsilicoModel>> constructors = new ConcurrentHashMap<>();
 
     static {
         try (InputStream is = ModelRegistry.class.getResourceAsStream("/models.txt")) {
             if (is == null) {
                 throw new FileNotFoundException("models.txt not found in resources");
             }
+            modelMap.putAll(readModels(is));
+        } catch (IOException e) {
+            throw new RuntimeException("Error loading model registry", e);
+        }
+    }
 
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(is))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    if (line.trim().isEmpty() || line.startsWith("#")) continue;
-                    String[] parts = line.split("\t");
-                    if (parts.length == 3) {
-                        modelMap.put(parts[0].trim(), parts[1].trim());
-                    }
+    /**
+     * Read a models.txt file: key, class name and enabled flag, tab-delimited, after a header line.
+     *
+     * @return class name by model key, in file order
+     */
+    public static Map<String, String> readModels(InputStream is) throws IOException {
+        Map<String, String> models = new LinkedHashMap<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(is))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty() || line.startsWith("#")) continue;
+                String[] parts = line.split("\t");
+                if (parts.length == 3 && !parts[0].trim().equals("Key")) {
+                    models.put(parts[0].trim(), parts[1].trim());
                 }
             }
-        } catch (IOException e) {
-            throw new RuntimeException("Error loading model registry", e);
         }
+        return models;
     }
 
     public static InsilicoModel getModelByKey(String key) throws Exception {
+        Constructor<? extends InsilicoModel> constructor = constructors.get(key);
+        if (constructor == null) {
+            constructor = getConstructor(key);
+            constructors.put(key, constructor);
+        }
+        return constructor.newInstance();
+    }
+
+    private static Constructor<? extends InsilicoModel> getConstructor(String key) throws Exception {
         String className = modelMap.get(key);
         if (className == null) {
             throw new IllegalArgumentException("Unknown model key: " + key);
@@ -47,7 +71,22 @@ public class ModelRegistry {
             throw new IllegalArgumentException("Class " + className + " does not implement InsilicoModel");
         }
 
-        return (InsilicoModel) cls.getDeclaredConstructor().newInstance();
+        return cls.asSubclass(InsilicoModel.class).getDeclaredConstructor();
+    }
+
+    /**
+     * Add a model key that is not in models.txt, or map a key to another class.
+     */
+    public static synchronized void register(String key, String className) {
+        modelMap.put(key, className);
+        constructors.remove(key);
+    }
+
+    /**
+     * @return the class of the model key, null if the key is unknown
+     */
+    public static String getClassName(String key) {
+        return modelMap.get(key);
     }
 
     public static Set<String> getAvailableModelKeys() {
@@ -0,0 +1,110 @@
+package net.idea.wrapper.vega;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+import insilico.core.model.InsilicoModel;
+import insilico.core.model.InsilicoModelOutput;
+import insilico.core.molecule.InsilicoMolecule;
+
+/**
+ * Runs model.Execute(molecule) with a deadline.
+ * The prediction runs on a daemon thread of its own; when it overruns, the caller gets a TimeoutException
+ * and the thread is interrupted and abandoned, since a model stuck in a loop cannot be stopped.
+ * The model instance may still be in use by the abandoned thread, so the caller must not use it again.
+ * An abandoned thread stuck in a loop keeps a CPU busy until the JVM exits, see {@link #stuckThreads()}.
+ * Shared by all threads of a run.
+ */
+public class MoleculeWatchdog implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(MoleculeWatchdog.class.getName());
+
+    /** Threads of molecules that timed out, of all watchdogs in this JVM. */
+    private static final Set<Thread> abandoned = ConcurrentHashMap.newKeySet();
+
+    private final long timeoutNanos;
+    private final ExecutorService executor;
+    private final AtomicInteger timedOut = new AtomicInteger();
+    private final AtomicLong timedOutNanos = new AtomicLong();
+
+    /**
+     * @param timeoutSeconds time allowed for one molecule
+     */
+    public MoleculeWatchdog(double timeoutSeconds) {
+        this.timeoutNanos = (long) (timeoutSeconds * 1_000_000_000L);
+        AtomicInteger threads = new AtomicInteger();
+        // threads of molecules that timed out stay busy, new ones are started for the next molecules
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "vega-molecule-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public InsilicoModelOutput execute(InsilicoModel model, InsilicoMolecule molecule) throws Exception {
+        long startTime = System.nanoTime();
+        AtomicReference<Thread> thread = new AtomicReference<>();
+        Future<InsilicoModelOutput> future = executor.submit(() -> {
+            thread.set(Thread.currentThread());
+            return model.Execute(molecule);
+        });
+        try {
+            return future.get(timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException x) {
+            future.cancel(true);
+            if (thread.get() != null) abandoned.add(thread.get());
+            timedOut.incrementAndGet();
+            timedOutNanos.addAndGet(System.nanoTime() - startTime);
+            throw new TimeoutException(String.format("Timed out after %.1f s", timeoutNanos / 1e9));
+        } catch (ExecutionException x) {
+            throw x.getCause() instanceof Exception ? (Exception) x.getCause() : x;
+        } catch (InterruptedException x) {
+            future.cancel(true);
+            throw x;
+        }
+    }
+
+    /**
+     * @return number of molecules that timed out
+     */
+    public int getTimedOut() {
+        return timedOut.get();
+    }
+
+    /**
+     * @return time spent on molecules that timed out, not included in the time per molecule
+     */
+    public long getTimedOutNanos() {
+        return timedOutNanos.get();
+    }
+
+    /**
+     * @return number of threads of timed out molecules that are still running, in this JVM;
+     * only meaningful while one command runs at a time, so it is not reported for {@link EmbeddedMain}
+     */
+    public static int stuckThreads() {
+        abandoned.removeIf(thread -> !thread.isAlive());
+        return abandoned.size();
+    }
+
+    public void logStats(String label) {
+        if (timedOut.get() > 0) {
+            logger.warning(String.format("[%s] Timed out molecules: %d Time spent on them: %.2f s (not in the average time per molecule)",
+                    label, timedOut.get(), timedOutNanos.get() / 1e9));
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,134 @@
+package net.idea.wrapper.vega;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Writes the GraalVM reachability metadata of the VEGA models for the native build (-Pnative):
+ * reflect-config.json with the no-argument constructor of every class in models.txt, which
+ * {@link ModelRegistry} calls reflectively, and resource-config.json with models.txt and the
+ * resources (not classes) in the packages of the models, such as training sets, in the jars that hold them.
+ * Other resources of those jars, e.g. of the libraries bundled in Vega-GUI, are left out of the image,
+ * unless they are under one of the extra resource directories.
+ * <p>
+ * Run by the build before the native image, the jars with the models on the classpath:
+ * <pre>
+ * NativeConfigGenerator src/main/resources/models.txt target/classes/META-INF/native-image/net.idea.wrapper.vega/vega-wrapper-app [dir/,...]
+ * </pre>
+ * native-image reads the files from META-INF/native-image of the application jar.
+ * Reflection inside the models' own libraries is not covered; it is recorded with the native-image agent.
+ */
+public class NativeConfigGenerator {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("Usage: NativeConfigGenerator <models.txt> <output directory> [extra resource directories, comma separated]");
+            System.exit(2);
+        }
+        Map<String, String> models;
+        try (InputStream is = new FileInputStream(args[0])) {
+            models = ModelRegistry.readModels(is);
+        }
+        File outputDir = new File(args[1]);
+        outputDir.mkdirs();
+
+        ClassLoader loader = NativeConfigGenerator.class.getClassLoader();
+        List<Map<String, Object>> reflection = new ArrayList<>();
+        Set<URL> jars = new LinkedHashSet<>();
+        Set<String> directories = new TreeSet<>();
+        if (args.length > 2) {
+            for (String dir : args[2].split(",")) {
+                dir = dir.trim();
+                if (!dir.isEmpty()) directories.add(dir.endsWith("/") ? dir : dir + "/");
+            }
+        }
+        for (Map.Entry<String, String> model : models.entrySet()) {
+            Class<?> cls;
+            try {
+                // not initialized: static blocks of the models run in the image, not in the build
+                cls = Class.forName(model.getValue(), false, loader);
+            } catch (ClassNotFoundException | LinkageError e) {
+                System.err.println("Skipped " + model.getKey() + ": class " + model.getValue() + " not found");
+                continue;
+            }
+            Map<String, Object> constructor = new LinkedHashMap<>();
+            constructor.put("name", "<init>");
+            constructor.put("parameterTypes", List.of());
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("name", cls.getName());
+            entry.put("methods", List.of(constructor));
+            reflection.add(entry);
+            if (cls.getPackageName().length() > 0) directories.add(cls.getPackageName().replace('.', '/') + "/");
+            CodeSource source = cls.getProtectionDomain().getCodeSource();
+            if (source != null && source.getLocation() != null) {
+                jars.add(source.getLocation());
+            }
+        }
+
+        Set<String> resources = new TreeSet<>();
+        resources.add("models.txt");
+        for (URL jar : jars) {
+            addResources(Paths.get(jar.toURI()), directories, resources);
+        }
+        List<Map<String, String>> includes = new ArrayList<>();
+        for (String path : resources) {
+            includes.add(Map.of("pattern", Pattern.quote(path)));
+        }
+
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.writerWithDefaultPrettyPrinter().writeValue(new File(outputDir, "reflect-config.json"), reflection);
+        mapper.writerWithDefaultPrettyPrinter().writeValue(new File(outputDir, "resource-config.json"),
+                Map.of("resources", Map.of("includes", includes)));
+        System.out.println("Native image metadata: " + reflection.size() + " models, " + resources.size()
+                + " resources from " + jars.size() + " jars (" + String.join(", ", directories) + ") in " + outputDir);
+    }
+
+    /**
+     * Add the resources of a jar, or of a folder of classes, under the directories (and their subdirectories),
+     * without classes.
+     */
+    static void addResources(Path location, Set<String> directories, Set<String> resources) throws IOException {
+        if (Files.isDirectory(location)) {
+            try (Stream<Path> files = Files.walk(location)) {
+                files.filter(Files::isRegularFile)
+                        .map(f -> location.relativize(f).toString().replace(File.separatorChar, '/'))
+                        .filter(path -> isResource(path, directories))
+                        .forEach(resources::add);
+            }
+        } else {
+            try (JarFile jar = new JarFile(location.toFile())) {
+                jar.stream().filter(e -> !e.isDirectory()).map(JarEntry::getName)
+                        .filter(path -> isResource(path, directories))
+                        .forEach(resources::add);
+            }
+        }
+    }
+
+    static boolean isResource(String path, Set<String> directories) {
+        if (path.endsWith(".class") || path.startsWith("META-INF/")) return false;
+        for (String dir : directories) {
+            if (path.startsWith(dir)) return true;
+        }
+        return false;
+    }
+}
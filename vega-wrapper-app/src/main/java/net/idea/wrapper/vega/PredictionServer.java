@@ -0,0 +1,220 @@
+package net.idea.wrapper.vega;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local HTTP endpoint for predictions with warm models.
+ * <ul>
+ * <li>POST /predict with {"models": ["KEY", ...], "smiles": ["CCO", ...], "ids": [...]} (ids optional)
+ * returns {"KEY": [record, ...], ...}, records as in resultsw_MODEL.jsonl, numbered from 1 per request</li>
+ * <li>GET /models lists the loaded models</li>
+ * <li>GET /stats returns counters and latency percentiles per model</li>
+ * </ul>
+ * Models are loaded on first use (or at start) and kept for the lifetime of the server,
+ * one {@link ModelQueue} per model.
+ * All models of a request are checked and loaded before any molecule is queued.
+ * A request not answered within the request timeout gets a 504, and its molecules still queued are dropped.
+ */
+public class PredictionServer implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(PredictionServer.class.getName());
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ModelPool modelPool;
+    private final Map<String, ModelQueue> queues = new ConcurrentHashMap<>();
+    private final int modelThreads;
+    private final MoleculeWatchdog watchdog;
+    private final long requestTimeoutNanos;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * @param watchdog limits the time of one molecule, null for no limit
+     * @param requestTimeoutSeconds time allowed for the predictions of a request, 0 or less for no limit
+     */
+    public PredictionServer(String host, int port, int httpThreads, ModelPool modelPool,
+                            int modelThreads, MoleculeWatchdog watchdog, double requestTimeoutSeconds) throws IOException {
+        this.modelPool = modelPool;
+        this.modelThreads = modelThreads;
+        this.watchdog = watchdog;
+        this.requestTimeoutNanos = requestTimeoutSeconds > 0 ? (long) (requestTimeoutSeconds * 1e9) : Long.MAX_VALUE;
+        this.server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        this.executor = Executors.newFixedThreadPool(Math.max(1, httpThreads));
+        server.setExecutor(executor);
+        server.createContext("/predict", this::handlePredict);
+        server.createContext("/models", exchange -> {
+            if (allowMethod(exchange, "GET")) send(exchange, 200, new ArrayList<>(queues.keySet()));
+        });
+        server.createContext("/stats", exchange -> {
+            if (allowMethod(exchange, "GET")) send(exchange, 200, getStats());
+        });
+    }
+
+    public void start() {
+        server.start();
+        logger.info(String.format("Prediction server listening on http://%s:%d",
+                server.getAddress().getHostString(), server.getAddress().getPort()));
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Load a model and start its threads, if not already loaded.
+     */
+    public ModelQueue load(String modelKey) throws Exception {
+        ModelQueue queue = queues.get(modelKey);
+        if (queue != null) return queue;
+        synchronized (queues) {
+            queue = queues.get(modelKey);
+            if (queue == null) {
+                long start = System.nanoTime();
+                queue = new ModelQueue(modelKey, modelPool, modelThreads, watchdog);
+                queues.put(modelKey, queue);
+                logger.info(String.format("[%s] Loaded in %.2f s", modelKey, (System.nanoTime() - start) / 1e9));
+            }
+            return queue;
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        for (ModelQueue queue : queues.values()) stats.put(queue.getModelKey(), queue.getStats());
+        return stats;
+    }
+
+    private void handlePredict(HttpExchange exchange) throws IOException {
+        if (!allowMethod(exchange, "POST")) return;
+        try {
+            JsonNode request;
+            try (InputStream in = exchange.getRequestBody()) {
+                request = mapper.readTree(in);
+            }
+            List<String> models = strings(request, "models");
+            List<String> smiles = strings(request, "smiles");
+            List<String> ids = strings(request, "ids");
+            if (models.isEmpty() || smiles.isEmpty()) {
+                sendError(exchange, 400, "\"models\" and \"smiles\" are required");
+                return;
+            }
+            if (ids.isEmpty()) {
+                for (int i = 0; i < smiles.size(); i++) ids.add(Integer.toString(i + 1));
+            } else if (ids.size() != smiles.size()) {
+                sendError(exchange, 400, "\"ids\" and \"smiles\" differ in size");
+                return;
+            }
+
+            // no molecule is queued for a request with a model that is not available
+            Map<String, ModelQueue> requested = new LinkedHashMap<>();
+            for (String key : models) {
+                if (ModelRegistry.getClassName(key) == null) {
+                    sendError(exchange, 404, "Model not available: " + key);
+                    return;
+                }
+                try {
+                    requested.put(key, load(key));
+                } catch (Exception x) {
+                    logger.log(Level.WARNING, key, x);
+                    sendError(exchange, 404, "Model not available: " + key);
+                    return;
+                }
+            }
+            Map<String, List<CompletableFuture<Map<String, Object>>>> pending = new LinkedHashMap<>();
+            for (Map.Entry<String, ModelQueue> e : requested.entrySet()) {
+                pending.put(e.getKey(), e.getValue().submit(smiles, ids));
+            }
+
+            Map<String, Object> response = new LinkedHashMap<>();
+            long deadline = System.nanoTime() + requestTimeoutNanos;
+            try {
+                for (Map.Entry<String, List<CompletableFuture<Map<String, Object>>>> e : pending.entrySet()) {
+                    List<Map<String, Object>> records = new ArrayList<>();
+                    for (CompletableFuture<Map<String, Object>> result : e.getValue()) {
+                        records.add(result.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+                    }
+                    response.put(e.getKey(), records);
+                }
+            } catch (TimeoutException x) {
+                // molecules not started yet are skipped by the model threads
+                for (List<CompletableFuture<Map<String, Object>>> results : pending.values()) {
+                    for (CompletableFuture<Map<String, Object>> result : results) result.cancel(false);
+                }
+                sendError(exchange, 504, String.format("Timed out after %.0f s", requestTimeoutNanos / 1e9));
+                return;
+            }
+            send(exchange, 200, response);
+        } catch (IOException x) {
+            sendError(exchange, 400, "Invalid request: " + x.getMessage());
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+            sendError(exchange, 503, "Server is shutting down");
+        } catch (ExecutionException | RuntimeException x) {
+            logger.log(Level.SEVERE, "Prediction failed", x);
+            sendError(exchange, 500, String.valueOf(x.getMessage()));
+        }
+    }
+
+    private static List<String> strings(JsonNode request, String field) {
+        List<String> values = new ArrayList<>();
+        JsonNode node = request == null ? null : request.get(field);
+        if (node == null) return values;
+        if (node.isArray()) {
+            for (JsonNode value : node) values.add(value.asText());
+        } else {
+            values.add(node.asText());
+        }
+        return values;
+    }
+
+    private boolean allowMethod(HttpExchange exchange, String method) throws IOException {
+        if (method.equals(exchange.getRequestMethod())) return true;
+        exchange.getResponseHeaders().set("Allow", method);
+        sendError(exchange, 405, "Use " + method);
+        return false;
+    }
+
+    private void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        Map<String, Object> error = new LinkedHashMap<>();
+        error.put("error", message);
+        send(exchange, status, error);
+    }
+
+    private void send(HttpExchange exchange, int status, Object body) throws IOException {
+        byte[] bytes = mapper.writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(1);
+        executor.shutdownNow();
+        for (ModelQueue queue : queues.values()) queue.close();
+        queues.clear();
+        if (watchdog != null) watchdog.close();
+    }
+}
@@ -0,0 +1,66 @@
+package net.idea.wrapper.vega;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+@Command(name = "serve", mixinStandardHelpOptions = true,
+         description = "Run a local HTTP prediction server with warm models (POST /predict, GET /models, GET /stats)")
+public class ServeCommand implements Callable<Integer> {
+    private static final Logger logger = Logger.getLogger(ServeCommand.class.getName());
+
+    @Option(names = {"--host"}, description = "Address to listen on. Default 127.0.0.1")
+    String host = "127.0.0.1";
+
+    @Option(names = {"--port"}, description = "Port to listen on, 0 for any free port. Default 8085")
+    int port = 8085;
+
+    @Option(names = {"-m", "--model"}, description = "Model key or file with model keys to load at start. Other models are loaded on first request")
+    String modelKey;
+
+    @Option(names = {"--http-threads"}, description = "Threads handling HTTP requests. Default 16")
+    int httpThreads = 16;
+
+    @Option(names = {"-t", "--threads"}, description = "Threads per model, each with its own model instance. Default 1")
+    int modelThreads = 1;
+
+    @Option(names = {"--molecule-timeout"},
+            description = "Seconds allowed for one molecule; a molecule that takes longer gets an error record with STATUS -1 and the model instance is replaced. Default 0 (no limit)")
+    double moleculeTimeout = 0;
+
+    @Option(names = {"--request-timeout"},
+            description = "Seconds allowed for the predictions of one request, including the time queued; a request that takes longer gets HTTP 504. Default 600, 0 for no limit")
+    double requestTimeout = 600;
+
+    @Override
+    public Integer call() throws Exception {
+        ModelPool modelPool = new ModelPool(-1, 1.0);
+        CountDownLatch stopped = new CountDownLatch(1);
+        MoleculeWatchdog watchdog = moleculeTimeout > 0 ? new MoleculeWatchdog(moleculeTimeout) : null;
+        try (PredictionServer server = new PredictionServer(host, port, httpThreads, modelPool,
+                modelThreads, watchdog, requestTimeout)) {
+            if (modelKey != null) {
+                File file = new File(modelKey);
+                List<String> keys = file.exists() ? WrapperCommand.readKeys(file.toPath()) : List.of(modelKey);
+                for (String key : keys) try {
+                    server.load(key.trim());
+                } catch (Exception x) {
+                    logger.log(Level.SEVERE, key, x);
+                }
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.close();
+                stopped.countDown();
+            }, "prediction-server-shutdown"));
+            server.start();
+            stopped.await();
+        }
+        return 0;
+    }
+}
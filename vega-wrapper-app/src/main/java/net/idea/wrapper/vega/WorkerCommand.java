@@ -0,0 +1,56 @@
+package net.idea.wrapper.vega;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Callable;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import picocli.CommandLine.Command;
+
+/**
+ * Long-lived worker for vega-parallel-cli: runs one job per line read from stdin, in this JVM,
+ * so loaded classes and JIT-compiled code are reused across jobs.
+ * <p>
+ * A job line is the subcommand and its arguments separated by tabs, e.g. vega\t-m\tBCF\t-i\tin.txt\t-o\tout.
+ * After each job a line "@@vega-worker done EXITCODE USED_HEAP_MB STUCK_THREADS" is printed to stdout,
+ * STUCK_THREADS being the threads of molecules that timed out (--molecule-timeout) and are still running;
+ * "@@vega-worker ready" is printed at start. An empty line or end of input stops the worker.
+ */
+@Command(name = "worker", mixinStandardHelpOptions = true,
+         description = "Run jobs read from stdin in this JVM (used by vega-parallel-cli --persistent-workers)")
+public class WorkerCommand implements Callable<Integer> {
+    private static final Logger logger = Logger.getLogger(WorkerCommand.class.getName());
+
+    public static final String MARKER = "@@vega-worker";
+
+    @Override
+    public Integer call() throws Exception {
+        PrintStream out = System.out;
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        out.println(MARKER + " ready");
+        out.flush();
+        String line;
+        while ((line = in.readLine()) != null && !line.isEmpty()) {
+            String[] args = line.split("\t");
+            int exitCode;
+            // the peak heap logged by the job is its own, not the one of previous jobs
+            WrapperCommand.resetPeakHeap();
+            try {
+                exitCode = EmbeddedMain.execute(args);
+            } catch (Exception x) {
+                logger.log(Level.SEVERE, line, x);
+                exitCode = 1;
+            }
+            // release the models of this job before reporting the heap used by the worker
+            System.gc();
+            long usedMB = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() / (1024 * 1024);
+            out.println(MARKER + " done " + exitCode + " " + usedMB + " " + MoleculeWatchdog.stuckThreads());
+            out.flush();
+        }
+        return 0;
+    }
+}
@@ -2,19 +2,29 @@ package net.idea.wrapper.vega;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Deque;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.ServiceLoader;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 
 import com.ibm.icu.text.CharsetDetector;
@@ -31,7 +41,19 @@ import insilico.core.molecule.InsilicoMolecule;
 import insilico.core.molecule.conversion.SmilesMolecule;
 import insilico.core.molecule.conversion.file.MoleculeFileSmiles;
 
+import net.idea.wrapper.ChunkedReportWriter;
+import net.idea.wrapper.Compression;
+import net.idea.wrapper.DuplicateRows;
+import net.idea.wrapper.HeapPressureMonitor;
+import net.idea.wrapper.HeapUsage;
+import net.idea.wrapper.ModelOutputSchema;
 import net.idea.wrapper.ModelResultWriter;
+import net.idea.wrapper.PredictionCache;
+import net.idea.wrapper.ProgressReporter;
+import net.idea.wrapper.RunMetrics;
+import net.idea.wrapper.ResultCheckpoint;
+import net.idea.wrapper.SmilesFileChunks;
+import net.idea.wrapper.SmilesReader;
 import net.idea.wrapper.StreamingMeanLong;
 import picocli.CommandLine.ArgGroup;
 import picocli.CommandLine.Command;
@@ -46,10 +68,18 @@ public class WrapperCommand implements Callable<Integer> {
     // Create a logger for this class
     private static final Logger logger = Logger.getLogger(WrapperCommand.class.getName());
 
+    /**
+     * Set by {@link EmbeddedMain}: other commands run concurrently in this JVM (vega-parallel-cli in-process mode),
+     * so the peak heap is not the command's own and progress lines of the commands would interleave on stdout.
+     */
+    static volatile boolean sharedJvm = false;
+
     StreamingMeanLong freeMemory = new StreamingMeanLong();
     StreamingMeanLong usedMemory = new StreamingMeanLong();
     StreamingMeanLong modelTimePerRecord = new StreamingMeanLong();
     StreamingMeanLong globalTimePerRecord = new StreamingMeanLong();
+    ModelPool modelPool = new ModelPool(-1, 0);
+    RunMetrics metrics = new RunMetrics(null);
     
 
     static class InputGroup {
@@ -84,10 +114,94 @@ public class WrapperCommand implements Callable<Integer> {
     description = "Write resultw_MODEL.jsonl instead of original resultw_MODEL.txt format in fastmode")
     boolean jsonl = false;
 
+    @Option(names = {"--async-writer"},
+            description = "Write results on a separate I/O thread in fastmode (default: false)")
+    boolean asyncWriter = false;
+
+    @Option(names = {"--flush-every"},
+            description = "Flush result files every N records in fastmode. Default 1 (every record)")
+    int flushEvery = 1;
+
+    @Option(names = {"--flush-interval"},
+            description = "Also flush result files when N ms have passed since the last flush, 0 disabled. Default 0")
+    long flushInterval = 0;
+
     @Option(names = {"-z", "--reinicialize-model"},
             description = "Reinitialize model on every N rows. Default -1 (do not reinitialize)")
      private int reinicializeModel=-1;
 
+    @Option(names = {"--reinitialize-on-heap"},
+            description = "Fast mode: reinitialize the model when the heap retained after GC is above this fraction of max heap, e.g. 0.8. Default -1 (disabled)")
+    double reinitializeOnHeap = -1;
+
+    @Option(names = {"-t", "--threads"},
+            description = "Number of threads processing molecules in fast mode, each with its own model instance. Default 1")
+    int threads = 1;
+
+    @Option(names = {"-p", "--single-pass"},
+            description = "Fast mode with a file of model keys: read and convert each molecule once and run all models on it. All models are kept in memory")
+    boolean singlePass = false;
+
+    @Option(names = {"--pool-max-idle"},
+            description = "Max number of idle model instances kept warm for reuse, -1 no limit. Default -1")
+    int poolMaxIdle = -1;
+
+    @Option(names = {"--pool-heap-fraction"},
+            description = "Evict idle model instances, one per garbage collection, while the heap retained after GC is above this fraction of max heap. Default 0, off")
+    double poolHeapFraction = 0;
+
+    @Option(names = {"--cache"},
+            description = "Folder with the prediction cache, one file per model. Rows with a SMILES already predicted by the same model version are not run again (fast mode)")
+    File cacheDir;
+
+    @Option(names = {"--cache-max-mb"},
+            description = "Approximate size limit of the prediction cache file of each model in MB: when reached, new predictions are not cached and the least recently used entries are evicted at the end of the run. Default 1024")
+    long cacheMaxMb = 1024;
+
+    @Option(names = {"--resume"},
+            description = "Fast mode: continue the resultsw_MODEL files of an interrupted run from their checkpoint, skip models already complete")
+    boolean resume = false;
+
+    @Option(names = {"--skip-rows"},
+            description = "Fast mode: skip the first N rows of the input file; row numbers (No.) still count them. With -x, processes rows N+1 to the -x row. Default 0")
+    int skipRows = 0;
+
+    @Option(names = {"--molecule-timeout"},
+            description = "Fast mode: seconds allowed for one molecule; a molecule that takes longer gets an error record with STATUS -1 and the model instance is replaced. Default 0 (no limit)")
+    double moleculeTimeout = 0;
+
+    @Option(names = {"--metrics-file"},
+            description = "JSON file with row, error and byte counts and latency percentiles per model. Default metrics_MODEL.json in the output folder")
+    File metricsFile;
+
+    @Option(names = {"--metrics-interval"},
+            description = "Also write the metrics file every N seconds while running, 0 only at the end. Default 60")
+    double metricsInterval = 60;
+
+    @Option(names = {"--no-metrics"},
+            description = "Do not write the metrics file")
+    boolean noMetrics = false;
+
+    @Option(names = {"--progress-interval"},
+            description = "Seconds between progress lines when the output is not a console (e.g. redirected to a log), 0 for no progress. Default 30")
+    double progressInterval = 30;
+
+    @Option(names = {"--chunk-size"},
+            description = "Without fast mode: read, predict and append to the report N molecules at a time, so memory does not grow with the input. Default 0 (all molecules at once)")
+    int chunkSize = 0;
+
+    @Option(names = {"--compress"},
+            description = "Fast mode: compress the resultsw_MODEL files, none or gzip (resultsw_MODEL.jsonl.gz). Compression runs on a separate thread per file. Default none")
+    String compress = "none";
+
+    @Option(names = {"--dedup"},
+            description = "Fast mode: predict each structure once and reuse the result for its other rows, with their own No. and ID. exact (same SMILES) or canonical (also salts and mixtures with components in another order). Default off")
+    String dedup;
+
+    @Option(names = {"--mmap"},
+            description = "Fast mode: read the input file through a memory map, decoding only the SMILES and ID columns; --skip-rows and --resume seek through a row index")
+    boolean mmap = false;
+
     @Option(names = {"-x", "--maxrows"}, description = "Max rows to process from file, default ALL", required = false)
     int maxRows = -1;
 
@@ -114,7 +228,7 @@ public class WrapperCommand implements Callable<Integer> {
         String msg = String.format("Memory (used/free): %d/%d MB Time per molecule: %.4f s",
             _usedMemory / (1024 * 1024),
             _freeMemory / (1024 * 1024),            
-            modelTimePerRecord.getMean() / 1_000_000_000.0
+            modelTimePerRecord.getMeanDouble() / 1_000_000_000.0
         );
 
         this.usedMemory.add(_usedMemory / (1024 * 1024));
@@ -122,10 +236,27 @@ public class WrapperCommand implements Callable<Integer> {
         return msg;
 
     }
+
+    /**
+     * Peak heap since the JVM started or since {@link #resetPeakHeap()}, as the highest heap in use after
+     * a garbage collection ({@link HeapUsage#peakAfterGc()}). vega-parallel-cli sizes -Xmx of the model from it.
+     */
+    public static long peakHeapMB() {
+        return HeapUsage.peakAfterGc() / (1024 * 1024);
+    }
+
+    public static void resetPeakHeap() {
+        HeapUsage.trackPeakAfterGc();
+        HeapUsage.resetPeakAfterGc();
+    }
     protected int runModel(String modelKey) throws Exception {
+        if (isComplete(modelKey)) {
+            logger.info(String.format("[%s] Results already complete, skipping", modelKey));
+            return 0;
+        }
         try {
             long startTime = System.nanoTime();
-            InsilicoModel model = ModelRegistry.getModelByKey(modelKey);
+            InsilicoModel model = modelPool.acquire(modelKey);
             long endTime = System.nanoTime();
             long elapsedNano = endTime - startTime;
             double elapsedSeconds = elapsedNano / 1_000_000_000.0;                
@@ -137,14 +268,34 @@ public class WrapperCommand implements Callable<Integer> {
             if (fastmode) {
                 System.out.println();
                 logger.info(String.format("[%s] Processing in fast mode ...", modelKey));
-                rowNum = run_fast(
-                            model,
+                if (threads > 1)
+                    rowNum = run_fast_parallel(
+                            List.of(modelKey),
+                            List.of(model),
+                            inputGroup.inputFile,
+                            outputDir,
+                            smilesField,
+                            idField,
+                            !jsonl,
+                            threads
+                    );
+                else {
+                    // run_fast owns the instance: when it reinitializes the model, the old one must not be referenced here
+                    modelPool.release(modelKey, model);
+                    model = null;
+                    rowNum = run_fast(
+                            modelKey,
+                            modelPool.acquire(modelKey),
                             inputGroup.inputFile,
                             outputDir,
                             smilesField,
                             idField,
                             !jsonl
                     );
+                }
+            } else if (inputGroup.inputFile != null && (chunkSize > 0 || Compression.isCompressed(inputGroup.inputFile))) {
+                // MoleculeFileSmiles reads plain files only, the chunks are uncompressed
+                rowNum = run_vega_chunked(model, inputGroup.inputFile, outputDir);
             } else {
                 ArrayList<InsilicoMolecule> dataset = null;
                 if (inputGroup.smiles != null) {
@@ -152,18 +303,7 @@ public class WrapperCommand implements Callable<Integer> {
                     InsilicoMolecule mol = SmilesMolecule.Convert(inputGroup.smiles.trim());
                     dataset.add(mol);
                 } else {
-                    int[] positions = WrapperCommand.getFieldPositions(
-                        inputGroup.inputFile, smilesField, idField);
-                    int smilesPos = positions[0];
-                    int idPos = positions[1]; // can be -1   
-                    logger.fine(String.format("%s %d %s %d", smilesField, smilesPos,idField, idPos));
-                    MoleculeFileSmiles SMIReader = new MoleculeFileSmiles();
-                    SMIReader.setCASField(-1);
-                    SMIReader.setIdField(idPos);
-                    SMIReader.setSmilesField(smilesPos);
-                    SMIReader.OpenFile(inputGroup.inputFile.getAbsolutePath());
-                    dataset = SMIReader.ReadAll();
-                    SMIReader.CloseFile();                        
+                    dataset = readMolecules(inputGroup.inputFile);
                     logger.log(Level.FINE,"Loaded  "+ inputGroup.inputFile);
                 }
                 
@@ -178,7 +318,7 @@ public class WrapperCommand implements Callable<Integer> {
             System.out.flush();
             if (rowNum > 0) {
                 logger.info(String.format("[%s] Processed: %d rows Elapsed time: %.2f s Average time per molecule: %.4f s", 
-                    model.getInfo().getKey(), rowNum, elapsedSeconds, globalTimePerRecord.getMean() /  1_000_000_000.0 ));
+                    modelKey, rowNum, elapsedSeconds, globalTimePerRecord.getMeanDouble() / 1_000_000_000.0 ));
             } else {
                 logger.log(Level.WARNING,"No rows processed.");
             }         
@@ -186,23 +326,92 @@ public class WrapperCommand implements Callable<Integer> {
                 printMemoryUsage();
             logger.info(String.format(
             "[%s] Average Memory (used/free): %d/%d MB",
-            model.getInfo().getKey(),
+            modelKey,
             this.usedMemory.getMean(),
             this.freeMemory.getMean()            
             ));
+            if (!sharedJvm) logger.info(String.format("[%s] Peak heap: %d MB", modelKey, peakHeapMB()));
             return rowNum>0?0:1;
         }  catch (Exception x) {
             throw x;
+        } finally {
+            // each model key is run once per invocation, no need to keep its instances
+            modelPool.invalidate(modelKey);
+        }
+    }
+    /**
+     * Single pass fast mode: every molecule is read and converted once and passed to all models.
+     */
+    protected int runModels(List<String> modelKeys) throws Exception {
+        List<String> keys = new ArrayList<>();
+        List<InsilicoModel> models = new ArrayList<>();
+        for (String key : modelKeys) try {
+            if (isComplete(key)) {
+                logger.info(String.format("[%s] Results already complete, skipping", key));
+                continue;
+            }
+            long startTime = System.nanoTime();
+            models.add(modelPool.acquire(key));
+            keys.add(key);
+            double elapsedSeconds = (System.nanoTime() - startTime) / 1_000_000_000.0;
+            logger.fine(String.format("Loading model %s in: %.2f seconds%n", key, elapsedSeconds));
+        } catch (Exception x) {
+            logger.log(Level.SEVERE, key, x);
+        }
+        if (models.isEmpty()) {
+            if (modelKeys.stream().allMatch(this::isComplete)) return 0;
+            logger.log(Level.WARNING,"No models loaded.");
+            return 1;
+        }
+
+        System.out.println();
+        logger.info(String.format("[%d models] Processing in single pass fast mode ...", models.size()));
+        long startTime = System.nanoTime();
+        int rowNum = run_fast_parallel(
+                keys,
+                models,
+                inputGroup.inputFile,
+                outputDir,
+                smilesField,
+                idField,
+                !jsonl,
+                Math.max(1, threads)
+        );
+        double elapsedSeconds = (System.nanoTime() - startTime) / 1_000_000_000.0;
+        System.out.print("\r--------------------------------------------------------------------------------------------------\n");
+        System.out.flush();
+        if (rowNum > 0) {
+            logger.info(String.format("[%d models] Processed: %d rows Elapsed time: %.2f s Average time per molecule (all models): %.4f s",
+                models.size(), rowNum, elapsedSeconds, globalTimePerRecord.getMeanDouble() / 1_000_000_000.0 ));
+        } else {
+            logger.log(Level.WARNING,"No rows processed.");
         }
+        if (this.freeMemory.getCount()==0)
+            printMemoryUsage();
+        logger.info(String.format(
+        "[%d models] Average Memory (used/free): %d/%d MB",
+        models.size(),
+        this.usedMemory.getMean(),
+        this.freeMemory.getMean()
+        ));
+        if (!sharedJvm) logger.info(String.format("[%d models] Peak heap: %d MB", models.size(), peakHeapMB()));
+        for (String key : keys) modelPool.invalidate(key);
+        return rowNum>0?0:1;
     }
+
     @Override
     public Integer call() throws Exception {
         try {
+            HeapUsage.trackPeakAfterGc();
 
             if (listModels) {
                 ImplScanner.list_models(false, outputDir);
                 return 0;
-            } else {
+            } else try {
+                modelPool = new ModelPool(poolMaxIdle, poolHeapFraction);
+                metrics = new RunMetrics(noMetrics ? null : metricsFile());
+                modelPool.setMetrics(metrics);
+                metrics.startExport(metricsInterval);
                 if (!outputDir.exists()) {
                     if (!outputDir.mkdirs()) {
                         throw new IOException("Failed to create output directory: " + outputDir.getAbsolutePath());
@@ -213,6 +422,10 @@ public class WrapperCommand implements Callable<Integer> {
                 File file_models = new File(modelKey);
                 if (file_models.exists()) { 
                     List<String> model_keys = readKeys(file_models.toPath());
+                    if (singlePass && fastmode && inputGroup.inputFile != null) {
+                        List<String> keys = model_keys.stream().map(String::trim).collect(Collectors.toList());
+                        return runModels(keys);
+                    }
                     int rownum = 0;
                     for (String model_key:model_keys) try {
                         logger.fine(String.format("Running %s",model_key));
@@ -234,6 +447,9 @@ public class WrapperCommand implements Callable<Integer> {
                     throw x;
                 }
 
+            } finally {
+                modelPool.logStats();
+                metrics.close();
             }
         } catch (Exception e) {
             logger.log(Level.SEVERE, "Error" , e);
@@ -241,12 +457,86 @@ public class WrapperCommand implements Callable<Integer> {
         }
     }
 
+    private ArrayList<InsilicoMolecule> readMolecules(File inputFile) throws Exception {
+        int[] positions = WrapperCommand.getFieldPositions(
+            inputFile, smilesField, idField);
+        int smilesPos = positions[0];
+        int idPos = positions[1]; // can be -1   
+        logger.fine(String.format("%s %d %s %d", smilesField, smilesPos,idField, idPos));
+        MoleculeFileSmiles SMIReader = new MoleculeFileSmiles();
+        SMIReader.setCASField(-1);
+        SMIReader.setIdField(idPos);
+        SMIReader.setSmilesField(smilesPos);
+        SMIReader.OpenFile(inputFile.getAbsolutePath());
+        try {
+            return SMIReader.ReadAll();
+        } finally {
+            SMIReader.CloseFile();
+        }
+    }
+
+    /**
+     * Report mode with --chunk-size: read, predict and append to report_MODEL.txt chunkSize molecules at a time.
+     * A compressed input without --chunk-size is one chunk.
+     * Each chunk is copied to a file with the input header and read by MoleculeFileSmiles as the whole file would be;
+     * the chunk reports are joined by {@link ChunkedReportWriter}. Without an ID column in the input, the chunks get
+     * one with the row number in the whole input, as the IDs the reader would generate start again in every chunk.
+     */
+    private int run_vega_chunked(InsilicoModel model, File inputFile, File outputDir) throws Exception {
+        String key = model.getInfo().getKey();
+        String addId = null;
+        if (chunkSize > 0 && getFieldPositions(inputFile, smilesField, idField)[1] < 0) {
+            logger.info(String.format("[%s] No %s column: molecules get their row number as %s", key, idField, idField));
+            addId = idField;
+        }
+        File outputFile = new File(outputDir, "report_" + key + ".txt");
+        File chunkFile = File.createTempFile("chunk_" + key + "_", ".txt", outputDir);
+        ProgressReporter progress = newProgress(0).countRows(inputFile, -1);
+        iInsilicoModelRunnerMessenger messenger = new iInsilicoModelRunnerMessenger() {
+            int rowNum = 0;
+            @Override
+            public void SendMessage(String msg) {
+                System.out.printf("%s", msg);
+                System.out.flush();
+            }
+
+            @Override
+            public void UpdateProgress() {
+                progress.update(++rowNum);
+            }
+        };
+        logger.fine("Writing to  "+ outputFile);
+        try (SmilesFileChunks chunks = new SmilesFileChunks(inputFile, chunkSize > 0 ? chunkSize : Integer.MAX_VALUE, addId);
+             ChunkedReportWriter report = new ChunkedReportWriter(new PrintWriter(outputFile))) {
+            while (chunks.next(chunkFile) > 0) {
+                ArrayList<InsilicoMolecule> dataset = readMolecules(chunkFile);
+                // a new runner per chunk: the results of the previous chunks are not kept
+                InsilicoModelRunnerByMolecule runner = new InsilicoModelRunnerByMolecule();
+                runner.setMessenger(messenger);
+                runner.AddModel(model);
+                runner.Run(dataset);
+                for (InsilicoModelWrapper curModel : runner.GetModelWrappers()) {
+                    StringWriter text = new StringWriter();
+                    ReportTXTSingle.PrintReport(dataset, curModel, new PrintWriter(text));
+                    report.append(text.toString(), dataset.size());
+                }
+                report.flush();
+            }
+            return report.getRows();
+        } finally {
+            progress.close();
+            chunkFile.delete();
+        }
+    }
+
     private int run_vega( InsilicoModel model, ArrayList<InsilicoMolecule> dataset, File outputDir) throws Exception {
         // long startTime = System.nanoTime();
         try {
             try { 
                 InsilicoModelRunnerByMolecule runner = new InsilicoModelRunnerByMolecule();
                 // Messenger for progress bar
+                ProgressReporter progress = newProgress(0);
+                progress.setTotal(dataset.size());
                 iInsilicoModelRunnerMessenger Messenger = new iInsilicoModelRunnerMessenger() {
                     int rowNum = 0;
                     @Override
@@ -257,19 +547,17 @@ public class WrapperCommand implements Callable<Integer> {
 
                     @Override
                     public void UpdateProgress() {
-                        rowNum++;
-                        System.out.print("\rProcessed rows: " + rowNum);
-                        if (rowNum % 100 == 0) {
-                            System.out.print(" " + printMemoryUsage() + "\r");
-                        }
-                        System.out.flush();
-                        
+                        progress.update(++rowNum);
                     } 
                 };
                 runner.setMessenger(Messenger);                
                 runner.AddModel(model);
                 runner.getMessenger().SendMessage("Processing...");
-                runner.Run(dataset);
+                try {
+                    runner.Run(dataset);
+                } finally {
+                    progress.close();
+                }
                 for (InsilicoModelWrapper curModel : runner.GetModelWrappers()) {
                     File outputFile = new File(outputDir, "report_" + model.getInfo().getKey()  + ".txt");
                     logger.fine("Writing to  "+ outputFile);                    
@@ -293,6 +581,7 @@ public class WrapperCommand implements Callable<Integer> {
     }
 
     private int run_fast(
+            String modelKey,
             InsilicoModel model,
             File inputFile,
             File outputDir,
@@ -302,78 +591,86 @@ public class WrapperCommand implements Callable<Integer> {
     ) throws Exception {
         int rowNum = 0; 
         ModelResultWriter resultWriter = null;
-        resultWriter = new ModelResultWriter(outputDir, ! originalFormat);
-        String lastMemoryInfo = "";
-        try (BufferedReader reader = new BufferedReader(new FileReader(inputFile))) {
-            logger.fine("Reading "+ inputFile);
-            String headerLine = reader.readLine();
-            if (headerLine == null) {
-                throw new IOException(String.format("Input file %s is empty.", inputFile.getAbsolutePath()));
-            }
-
-            String[] headers = headerLine.split("\t");
-            Map<String, Integer> headerIndex = new HashMap<>();
-            StringBuilder _log= new StringBuilder();
-            for (int i = 0; i < headers.length; i++) {
-                _log.append(headers[i].trim());
-                _log.append("\t" );
-                headerIndex.put(headers[i].trim(), i);
-            }
-            logger.finer(_log.toString());
-            
-            Integer smilesIndex = headerIndex.get(smilesFieldName);
-            Integer idIndex = headerIndex.get(idFieldName);
-            
-            if (idIndex == null) idIndex = -1;
-
-            if (smilesIndex == null) {
-                throw new IllegalArgumentException("Missing required field: " +
-                        smilesFieldName );
-            }
+        resultWriter = newResultWriter(outputDir, originalFormat);
+        PredictionCache cache = openCache(model);
+        MoleculeWatchdog watchdog = newWatchdog();
+        HeapPressureMonitor heapMonitor = newHeapMonitor();
+        ProgressReporter progress = null;
+        try (SmilesReader reader = SmilesReader.open(inputFile, smilesFieldName, idFieldName, mmap)) {
             logger.fine(String.format("Writing resultsw_%s%s to %s",
             model.getInfo().getKey(),jsonl?".jsonl":".txt",outputDir));
-   
-            
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (line.trim().isEmpty()) continue;
+            int resumeRow = resumeRow(resultWriter, modelKey);
+            progress = newProgress(resumeRow).countRows(inputFile, maxRows);
+            // skipped or already in the result file
+            reader.skipTo(maxRows > 0 ? Math.min(resumeRow, maxRows) : resumeRow);
+            reader.setMaxRows(maxRows);
+            DuplicateRows<Outcome> dups = scanDuplicates(inputFile, resumeRow, modelKey);
 
-                rowNum++;                
+            SmilesReader.Row row;
+            while ((row = reader.next()) != null) {
+                rowNum = row.rowNum;
                 if (reinicializeModel > 2) {    
                     if (rowNum % reinicializeModel == 0) {
                         logger.info("Reinitialize Model at: " + rowNum);
-                        Class cls = model.getClass();
                         model = null;
-                        model = (InsilicoModel) cls.getDeclaredConstructor().newInstance();
+                        model = modelPool.reload(modelKey);
                         logger.info(String.format("[%s] %s", model.getInfo().getKey(), printMemoryUsage()));
                     }
                 }                  
-
-                if (rowNum % 100 == 0) {
-                    lastMemoryInfo = printMemoryUsage();
-                }                
-                System.out.print("\rProcessed rows: " + rowNum + " " + lastMemoryInfo + "          \r");
-                System.out.flush();
-            
+                if (heapMonitor != null && heapMonitor.claim(rowNum)) {
+                    model = null;
+                    model = modelPool.reload(modelKey);
+                    heapMonitor.reinitialized(modelKey, rowNum);
+                }
+                progress.update(rowNum);
 
                 long startTime = System.nanoTime();
-                String[] fields = line.split("\t", -1); // include trailing empty fields
-                if (fields.length <= Math.max(smilesIndex, idIndex)) continue;
-
-                String smiles = fields[smilesIndex];
+                String smiles = row.smiles;
                 InsilicoMolecule mol = null;
-                Map<String, Object> record = null;                
+                boolean timedOut = false;
+                String key = dups == null ? null : dups.key(smiles);
+                // the outcome to reuse for the later rows with the same structure
+                Outcome kept = null;
                 try {
-                    mol = SmilesMolecule.Convert(smiles); 
-                    if (idIndex != null & idIndex>=0)
-                        mol.SetId(String.format("%s",fields[idIndex]));   
-                    else
-                        mol.SetId(String.format("%d",rowNum));                 
-                    InsilicoModelOutput output = model.Execute(mol);
-                    record = ModelResultWriter.toRecord(rowNum, output,mol, model);
-                    resultWriter.writeResult(model, record, rowNum);
+                    Outcome reused = reuse(dups, key, row);
+                    Map<String, Object> record = reused != null ? null : cachedRecord(cache, row);
+                    if (reused != null) {
+                        // failed or timed out before: the structure would fail or time out again
+                        timedOut = reused.timedOut;
+                        if (reused.error) metrics.model(modelKey).errors.increment();
+                        if (reused.record != null) resultWriter.writeResult(model, reused.record, rowNum);
+                    } else if (record != null) {
+                        resultWriter.writeResult(model, record, rowNum);
+                        kept = new Outcome(record, false, false);
+                    } else {
+                        long stageTime = System.nanoTime();
+                        mol = SmilesMolecule.Convert(smiles); 
+                        mol.SetId(row.id);
+                        metrics.conversion().add(System.nanoTime() - stageTime);
+                        stageTime = System.nanoTime();
+                        InsilicoModelOutput output = execute(watchdog, model, mol);
+                        metrics.model(modelKey).execute.add(System.nanoTime() - stageTime);
+                        if (cache != null || (dups != null && dups.hasLaterRows(key))) {
+                            record = ModelResultWriter.toRecord(rowNum, output, mol, model);
+                            if (cache != null) cacheRecord(cache, row, record);
+                            resultWriter.writeResult(model, record, rowNum);
+                            kept = new Outcome(record, false, false);
+                        } else
+                            resultWriter.writeOutput(model, rowNum, output, mol);
+                    }
 
+                } catch (TimeoutException x) {
+                    timedOut = true;
+                    metrics.model(modelKey).errors.increment();
+                    Map<String, Object> record = timeoutRecord(model, row, x);
+                    kept = new Outcome(record, true, true);
+                    resultWriter.writeResult(model, record, rowNum);
+                    // the old instance may still be running the molecule
+                    model = modelPool.reload(modelKey);
                 } catch (Exception x) {
+                    metrics.model(modelKey).errors.increment();
+                    // nothing written, the later rows with the structure are counted as failed too
+                    if (kept == null) kept = new Outcome(null, true, false);
                     logger.log(Level.SEVERE, "Unexpected error occurred", x);
                     /*
                     record = new HashMap<>();  
@@ -396,22 +693,488 @@ public class WrapperCommand implements Callable<Integer> {
                     }
                                              */
                 } finally {
-                    long endTime = System.nanoTime();
-                    long elapsedNano = endTime - startTime;
-                    modelTimePerRecord.add(elapsedNano);
-                    globalTimePerRecord.add(elapsedNano);
-                    
+                    if (dups != null) dups.processed(key, kept);
+                    if (!timedOut) {
+                        long elapsedNano = System.nanoTime() - startTime;
+                        modelTimePerRecord.add(elapsedNano);
+                        globalTimePerRecord.add(elapsedNano);
+                    }
                 }                
                 // resultWriter.writeResult(model.getInfo().getKey(), record);
-                if ((maxRows>0) & (rowNum>=maxRows)) break;
             }
+            rowNum = reader.getRowNum();
+            if (dups != null) logger.info(String.format("[%s] %s", modelKey, dups.summary()));
+            resultWriter.setComplete(modelKey, completeFor(reader));
+        } finally {
+            if (progress != null) progress.close();
+            closeCache(cache);
+            closeWatchdog(watchdog, modelKey);
+            closeHeapMonitor(heapMonitor, modelKey);
         }
         resultWriter.close();
         return rowNum;
     }
 
+    private ModelResultWriter newResultWriter(File outputDir, Boolean originalFormat) {
+        ModelResultWriter writer = new ModelResultWriter(outputDir, ! originalFormat, flushEvery, flushInterval, asyncWriter ? 4096 : 0);
+        writer.setResume(resume);
+        writer.setCompression(Compression.of(compress));
+        writer.setMetrics(metrics);
+        return writer;
+    }
+
+    /**
+     * @return the watchdog for --molecule-timeout, null if not set
+     */
+    private MoleculeWatchdog newWatchdog() {
+        return moleculeTimeout > 0 ? new MoleculeWatchdog(moleculeTimeout) : null;
+    }
+
+    /**
+     * @return --metrics-file, or metrics_MODEL.json in the output folder; MODEL is the model key or the name of the file with model keys
+     */
+    private File metricsFile() {
+        if (metricsFile != null) return metricsFile;
+        String name = new File(modelKey).getName();
+        if (new File(modelKey).exists() && name.lastIndexOf('.') > 0) name = name.substring(0, name.lastIndexOf('.'));
+        return new File(outputDir, "metrics_" + name + ".json");
+    }
+
+    /**
+     * @return a started progress reporter showing the rows after startRow, with memory usage; silent in a shared JVM
+     */
+    private ProgressReporter newProgress(int startRow) {
+        return new ProgressReporter(sharedJvm ? 0 : progressInterval, this::printMemoryUsage).start(startRow);
+    }
+
+    /**
+     * @return the monitor for --reinitialize-on-heap, null if not set
+     */
+    private HeapPressureMonitor newHeapMonitor() {
+        return reinitializeOnHeap > 0 ? new HeapPressureMonitor(reinitializeOnHeap) : null;
+    }
+
+    private static void closeHeapMonitor(HeapPressureMonitor heapMonitor, String label) {
+        if (heapMonitor == null) return;
+        heapMonitor.logStats(label);
+        heapMonitor.close();
+    }
+
+    private static InsilicoModelOutput execute(MoleculeWatchdog watchdog, InsilicoModel model, InsilicoMolecule mol) throws Exception {
+        return watchdog == null ? model.Execute(mol) : watchdog.execute(model, mol);
+    }
+
+    private static void closeWatchdog(MoleculeWatchdog watchdog, String label) {
+        if (watchdog == null) return;
+        watchdog.logStats(label);
+        watchdog.close();
+    }
+
+    /**
+     * @return the error record written for a molecule that timed out
+     */
+    private static Map<String, Object> timeoutRecord(InsilicoModel model, SmilesReader.Row row, TimeoutException x) {
+        logger.warning(String.format("[%s] Row %d %s: %s", model.getInfo().getKey(), row.rowNum, x.getMessage(), row.smiles));
+        return ModelOutputSchema.forModel(model).errorRecord(row.rowNum, row.id, row.smiles, x.getMessage());
+    }
+
+    /**
+     * @return true if --resume is set and the result file of the model has a checkpoint complete for -x
+     */
+    private boolean isComplete(String modelKey) {
+        if (!resume || !fastmode || inputGroup.inputFile == null) return false;
+        ResultCheckpoint checkpoint = ResultCheckpoint.read(ModelResultWriter.getResultFile(outputDir, modelKey, jsonl, Compression.of(compress)));
+        return checkpoint != null && checkpoint.isCompleteFor(maxRows);
+    }
+
+    /**
+     * The row limit the results are complete for, after the last row was read: 0 if the reader reached
+     * the end of the input, otherwise -x.
+     */
+    private int completeFor(SmilesReader reader) throws IOException {
+        if (maxRows <= 0 || reader.getRowNum() < maxRows) return 0;
+        // stopped at -x: complete for all rows only if there are no more
+        reader.setMaxRows(0);
+        return reader.next() == null ? 0 : maxRows;
+    }
+
+    /**
+     * @return the last row not to process: rows up to --skip-rows and rows already in the result file of the model
+     */
+    private int resumeRow(ModelResultWriter resultWriter, String modelKey) throws IOException {
+        int skip = Math.max(0, skipRows);
+        if (!resume) return skip;
+        ResultCheckpoint checkpoint = resultWriter.resume(modelKey);
+        if (checkpoint == null || checkpoint.row <= skip) return skip;
+        logger.info(String.format("[%s] Resuming after row %d", modelKey, checkpoint.row));
+        return checkpoint.row;
+    }
+
+    /**
+     * @return the prediction cache of the model, null if --cache is not set or the cache cannot be opened
+     */
+    private PredictionCache openCache(InsilicoModel model) {
+        if (cacheDir == null) return null;
+        try {
+            return PredictionCache.open(cacheDir, model.getInfo().getKey(), model.getInfo().getVersion(),
+                    cacheMaxMb * 1024 * 1024);
+        } catch (IOException x) {
+            logger.log(Level.WARNING, String.format("[%s] Prediction cache disabled", model.getInfo().getKey()), x);
+            return null;
+        }
+    }
+
+    private static void closeCache(PredictionCache cache) {
+        if (cache == null) return;
+        cache.logStats();
+        try {
+            cache.close();
+        } catch (IOException x) {
+            logger.log(Level.WARNING, "Failed to close prediction cache", x);
+        }
+    }
+
+    /**
+     * @return the cached record of the row SMILES with the row number and ID of this row, or null if not cached
+     */
+    private static Map<String, Object> cachedRecord(PredictionCache cache, SmilesReader.Row row) {
+        if (cache == null) return null;
+        try {
+            Map<String, Object> record = cache.get(row.smiles);
+            if (record != null) {
+                record.put("No.", row.rowNum);
+                record.put("ID", row.id);
+            }
+            return record;
+        } catch (IOException x) {
+            logger.log(Level.WARNING, "Prediction cache read failed", x);
+            return null;
+        }
+    }
+
+    /**
+     * @return the outcome kept for an earlier row with the same structure, with a copy of its record with the
+     * row number, ID and SMILES of this row; null if there is none
+     */
+    static Outcome reuse(DuplicateRows<Outcome> dups, String key, SmilesReader.Row row) {
+        if (dups == null) return null;
+        Outcome earlier = dups.get(key);
+        if (earlier == null) return null;
+        dups.countReused();
+        return new Outcome(earlier.record == null ? null : reusedRecord(earlier.record, row), earlier.error, earlier.timedOut);
+    }
+
+    private static Map<String, Object> reusedRecord(Map<String, Object> record, SmilesReader.Row row) {
+        // same column order
+        Map<String, Object> copy = new LinkedHashMap<>(record);
+        copy.put("No.", row.rowNum);
+        copy.put("ID", row.id);
+        if (copy.containsKey("SMILES")) copy.put("SMILES", row.smiles);
+        return copy;
+    }
+
+    /**
+     * @return the rows with the same structure after startRow, null if --dedup is not set
+     */
+    private <T> DuplicateRows<T> scanDuplicates(File inputFile, int startRow, String label) throws IOException {
+        if (dedup == null) return null;
+        DuplicateRows.Mode mode = DuplicateRows.Mode.of(dedup);
+        long startTime = System.nanoTime();
+        try (SmilesReader reader = SmilesReader.open(inputFile, smilesField, idField, mmap)) {
+            reader.skipTo(maxRows > 0 ? Math.min(startRow, maxRows) : startRow);
+            DuplicateRows<T> dups = DuplicateRows.scan(reader, maxRows, mode);
+            logger.info(String.format("[%s] Dedup (%s): %d rows, %d unique structures, scanned in %.2f s",
+                    label, mode.name().toLowerCase(), dups.getRows(), dups.getUnique(),
+                    (System.nanoTime() - startTime) / 1_000_000_000.0));
+            return dups;
+        }
+    }
+
+    private static void cacheRecord(PredictionCache cache, SmilesReader.Row row, Map<String, Object> record) {
+        try {
+            cache.put(row.smiles, record);
+        } catch (IOException x) {
+            logger.log(Level.WARNING, "Prediction cache write failed", x);
+        }
+    }
+
+    /**
+     * Outcome of a row in single-thread fast mode, reused for the later rows with the same structure.
+     */
+    static class Outcome {
+        // the record written, null if the prediction failed and nothing was written
+        final Map<String, Object> record;
+        // the model failed or timed out on this row
+        final boolean error;
+        // the model timed out on this row, its time is not in the averages
+        final boolean timedOut;
+
+        Outcome(Map<String, Object> record, boolean error, boolean timedOut) {
+            this.record = record;
+            this.error = error;
+            this.timedOut = timedOut;
+        }
+    }
+
+    static class Prediction {
+        final SmilesReader.Row row;
+        final InsilicoModelOutput[] outputs;
+        // records from the prediction cache, or new records to cache
+        final Map<String, Object>[] records;
+        InsilicoMolecule molecule;
+        long elapsedNano;
+        // the model failed or timed out on this row
+        final boolean[] errors;
+        // a model timed out on this row, its time is not in the averages
+        boolean timedOut;
+
+        @SuppressWarnings("unchecked")
+        Prediction(SmilesReader.Row row, int nModels) {
+            this.row = row;
+            this.outputs = new InsilicoModelOutput[nModels];
+            this.records = new Map[nModels];
+            this.errors = new boolean[nModels];
+        }
+    }
+
+    /**
+     * Fast mode with molecules split across worker threads.
+     * Each row is read and converted once and then passed to every model.
+     * Every worker uses its own model instances; results are written by the calling thread
+     * in input order, so the output is the same as with a single thread and a single model.
+     */
+    private int run_fast_parallel(
+            List<String> modelKeys,
+            List<InsilicoModel> models,
+            File inputFile,
+            File outputDir,
+            String smilesFieldName,
+            String idFieldName,
+            Boolean originalFormat,
+            int nThreads
+    ) throws Exception {
+        int rowNum = 0;
+        ModelResultWriter resultWriter = newResultWriter(outputDir, originalFormat);
+        List<PredictionCache> caches = new ArrayList<>();
+        for (InsilicoModel model : models) caches.add(openCache(model));
+        // the loaded instances go to the pool for the workers; here they only provide model info for the writer
+        for (int i = 0; i < models.size(); i++) {
+            modelPool.release(modelKeys.get(i), models.get(i));
+        }
+        ExecutorService workers = Executors.newFixedThreadPool(nThreads);
+        MoleculeWatchdog watchdog = newWatchdog();
+        HeapPressureMonitor heapMonitor = newHeapMonitor();
+        ProgressReporter progress = null;
+        // bounded number of rows in flight, written in submission order
+        Deque<Future<Prediction>> pending = new ArrayDeque<>();
+        int window = nThreads * 16;
+        try (SmilesReader reader = SmilesReader.open(inputFile, smilesFieldName, idFieldName, mmap)) {
+            logger.fine(String.format("Writing resultsw_%s%s to %s using %d threads",
+            String.join(",", modelKeys),jsonl?".jsonl":".txt",outputDir, nThreads));
+            int[] resumeRows = new int[modelKeys.size()];
+            int resumeRow = Integer.MAX_VALUE;
+            for (int i = 0; i < modelKeys.size(); i++) {
+                resumeRows[i] = resumeRow(resultWriter, modelKeys.get(i));
+                resumeRow = Math.min(resumeRow, resumeRows[i]);
+            }
+            progress = newProgress(resumeRow).countRows(inputFile, maxRows);
+            // skipped or already in the result files of all models
+            reader.skipTo(maxRows > 0 ? Math.min(resumeRow, maxRows) : resumeRow);
+            reader.setMaxRows(maxRows);
+            String label = String.join(",", modelKeys);
+            DuplicateRows<Future<Prediction>> dups = scanDuplicates(inputFile, resumeRow, label);
+            // rows up to here are already in the result file of some models, they are not reused
+            int lastResumeRow = Arrays.stream(resumeRows).max().orElse(0);
+
+            SmilesReader.Row row;
+            while ((row = reader.next()) != null) {
+                rowNum = row.rowNum;
+                final SmilesReader.Row task = row;
+                String key = dups == null ? null : dups.key(row.smiles);
+                boolean reusable = dups != null && row.rowNum > lastResumeRow;
+                Future<Prediction> earlier = reusable ? dups.get(key) : null;
+                Future<Prediction> future;
+                if (earlier != null) {
+                    // run by the writing thread, after the earlier row is written
+                    future = new FanOut(() -> reuse(earlier, modelKeys, models, dups, task));
+                } else {
+                    future = workers.submit(() -> predict(modelKeys, models, caches, resumeRows, watchdog, heapMonitor, task));
+                }
+                if (dups != null) dups.processed(key, reusable ? future : null);
+                pending.add(future);
+                if (pending.size() >= window) {
+                    writePrediction(pending.poll(), models, resultWriter, progress);
+                }
+            }
+            while (!pending.isEmpty()) {
+                writePrediction(pending.poll(), models, resultWriter, progress);
+            }
+            rowNum = reader.getRowNum();
+            if (dups != null) logger.info(String.format("[%s] %s", label, dups.summary()));
+            int completeFor = completeFor(reader);
+            for (String key : modelKeys) resultWriter.setComplete(key, completeFor);
+        } finally {
+            if (progress != null) progress.close();
+            workers.shutdownNow();
+            resultWriter.close();
+            for (PredictionCache cache : caches) closeCache(cache);
+            closeWatchdog(watchdog, String.join(",", modelKeys));
+            closeHeapMonitor(heapMonitor, String.join(",", modelKeys));
+        }
+        return rowNum;
+    }
+
+    private Prediction predict(List<String> modelKeys, List<InsilicoModel> models, List<PredictionCache> caches,
+                               int[] resumeRows, MoleculeWatchdog watchdog, HeapPressureMonitor heapMonitor,
+                               SmilesReader.Row row) throws Exception {
+        Prediction prediction = new Prediction(row, modelKeys.size());
+        long startTime = System.nanoTime();
+        boolean cached = true;
+        boolean[] skip = new boolean[modelKeys.size()];
+        for (int i = 0; i < modelKeys.size(); i++) {
+            // the row is skipped or already in the result file of this model
+            skip[i] = row.rowNum <= resumeRows[i];
+            if (skip[i]) continue;
+            prediction.records[i] = cachedRecord(caches.get(i), row);
+            cached &= prediction.records[i] != null;
+        }
+        if (cached) {
+            prediction.elapsedNano = System.nanoTime() - startTime;
+            return prediction;
+        }
+        InsilicoMolecule mol;
+        try {
+            mol = SmilesMolecule.Convert(row.smiles);
+            mol.SetId(row.id);
+            prediction.molecule = mol;
+            metrics.conversion().add(System.nanoTime() - startTime);
+        } catch (Exception x) {
+            for (int i = 0; i < modelKeys.size(); i++) {
+                if (skip[i] || prediction.records[i] != null) continue;
+                prediction.errors[i] = true;
+                metrics.model(modelKeys.get(i)).errors.increment();
+            }
+            logger.log(Level.SEVERE, "Unexpected error occurred", x);
+            prediction.elapsedNano = System.nanoTime() - startTime;
+            return prediction;
+        }
+        for (int i = 0; i < modelKeys.size(); i++) {
+            if (skip[i] || prediction.records[i] != null) continue;
+            InsilicoModel model = null;
+            try {
+                // one instance per worker thread at a time
+                model = modelPool.acquire(modelKeys.get(i));
+                if (reinicializeModel > 2 && row.rowNum % reinicializeModel == 0) {
+                    logger.info(String.format("[%s] Reinitialize Model at: %d", modelKeys.get(i), row.rowNum));
+                    model = null;
+                    model = modelPool.reload(modelKeys.get(i));
+                }
+                if (heapMonitor != null && heapMonitor.claim(row.rowNum)) {
+                    // this instance and the idle ones are replaced, instances in use by other threads are kept
+                    model = null;
+                    modelPool.clear();
+                    model = modelPool.reload(modelKeys.get(i));
+                    heapMonitor.reinitialized(modelKeys.get(i), row.rowNum);
+                }
+                long executeTime = System.nanoTime();
+                InsilicoModelOutput output = execute(watchdog, model, mol);
+                metrics.model(modelKeys.get(i)).execute.add(System.nanoTime() - executeTime);
+                if (caches.get(i) != null) {
+                    // the record is encoded here, off the writer thread
+                    prediction.records[i] = ModelResultWriter.toRecord(row.rowNum, output, mol, models.get(i));
+                    cacheRecord(caches.get(i), row, prediction.records[i]);
+                } else
+                    prediction.outputs[i] = output;
+            } catch (TimeoutException x) {
+                prediction.timedOut = true;
+                prediction.errors[i] = true;
+                metrics.model(modelKeys.get(i)).errors.increment();
+                prediction.records[i] = timeoutRecord(models.get(i), row, x);
+                // the instance may still be running the molecule, the pool loads a new one
+                model = null;
+            } catch (Exception x) {
+                prediction.errors[i] = true;
+                metrics.model(modelKeys.get(i)).errors.increment();
+                logger.log(Level.SEVERE, modelKeys.get(i), x);
+            } finally {
+                modelPool.release(modelKeys.get(i), model);
+            }
+        }
+        prediction.elapsedNano = System.nanoTime() - startTime;
+        return prediction;
+    }
+
+    /**
+     * A row with the structure of an earlier row, see {@link #reuse}. Runs on the writing thread.
+     */
+    private static class FanOut extends FutureTask<Prediction> {
+        FanOut(Callable<Prediction> reuse) {
+            super(reuse);
+        }
+    }
+
+    /**
+     * Prediction of a row from the prediction of an earlier row with the same structure: its records
+     * with the No., ID and SMILES of this row. The outcome of a model that failed or timed out on the earlier row
+     * is reused too, as the structure would fail or time out again and block the writing thread meanwhile:
+     * the timeout record is written with this row's No. and ID, and nothing for a model that failed.
+     */
+    private Prediction reuse(Future<Prediction> earlier, List<String> modelKeys, List<InsilicoModel> models,
+                             DuplicateRows<?> dups, SmilesReader.Row row) throws Exception {
+        long startTime = System.nanoTime();
+        Prediction first;
+        try {
+            first = earlier.get();
+        } catch (ExecutionException x) {
+            first = null;
+        }
+        Prediction prediction = new Prediction(row, models.size());
+        prediction.timedOut = first != null && first.timedOut;
+        for (int i = 0; i < models.size(); i++) {
+            Map<String, Object> record = null;
+            if (first != null && first.records[i] != null) {
+                record = first.records[i];
+            } else if (first != null && first.outputs[i] != null) {
+                record = ModelResultWriter.toRecord(first.row.rowNum, first.outputs[i], first.molecule, models.get(i));
+            }
+            if (first == null || first.errors[i]) {
+                prediction.errors[i] = true;
+                metrics.model(modelKeys.get(i)).errors.increment();
+            }
+            if (record != null) prediction.records[i] = reusedRecord(record, row);
+        }
+        dups.countReused();
+        prediction.elapsedNano = System.nanoTime() - startTime;
+        return prediction;
+    }
+
+    private void writePrediction(Future<Prediction> future, List<InsilicoModel> models, ModelResultWriter resultWriter,
+                                 ProgressReporter progress) throws Exception {
+        if (future instanceof FanOut) ((FanOut) future).run();
+        Prediction prediction;
+        try {
+            prediction = future.get();
+        } catch (ExecutionException x) {
+            logger.log(Level.SEVERE, "Unexpected error occurred", x.getCause());
+            return;
+        }
+        int rowNum = prediction.row.rowNum;
+        for (int i = 0; i < models.size(); i++) {
+            if (prediction.outputs[i] != null) {
+                resultWriter.writeOutput(models.get(i), rowNum, prediction.outputs[i], prediction.molecule);
+            } else if (prediction.records[i] != null) {
+                resultWriter.writeResult(models.get(i), prediction.records[i], rowNum);
+            }
+        }
+        if (!prediction.timedOut) {
+            modelTimePerRecord.add(prediction.elapsedNano);
+            globalTimePerRecord.add(prediction.elapsedNano);
+        }
+        progress.update(rowNum);
+    }
+
     public static int[] getFieldPositions(File inputFile, String smilesField, String idField) throws IOException {
-        try (BufferedReader reader = new BufferedReader(new FileReader(inputFile))) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(Compression.open(inputFile)))) {
             String[] headers = reader.readLine().split("\t");
             int smilesIdx = -1, idIdx = -1;
 
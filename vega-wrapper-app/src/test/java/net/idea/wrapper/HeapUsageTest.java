@@ -0,0 +1,38 @@
+package net.idea.wrapper;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HeapUsageTest {
+
+    @Test
+    void testAfterGcListeners() throws InterruptedException {
+        CountDownLatch first = new CountDownLatch(1);
+        CountDownLatch second = new CountDownLatch(1);
+        AtomicLong used = new AtomicLong(-1);
+        LongConsumer a = bytes -> {
+            used.set(bytes);
+            first.countDown();
+        };
+        LongConsumer b = bytes -> second.countDown();
+        assertTrue(HeapUsage.addAfterGcListener(a));
+        assertTrue(HeapUsage.addAfterGcListener(b));
+        try {
+            System.gc();
+            // notifications are sent from a JMX thread
+            assertTrue(first.await(10, TimeUnit.SECONDS));
+            assertTrue(second.await(10, TimeUnit.SECONDS));
+            assertTrue(used.get() > 0);
+            assertTrue(used.get() <= Runtime.getRuntime().maxMemory());
+        } finally {
+            HeapUsage.removeAfterGcListener(a);
+            HeapUsage.removeAfterGcListener(b);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package net.idea.wrapper;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PredictionCacheTest {
+
+    private static final long MAX_BYTES = 4096;
+
+    private static Map<String, Object> record(int i) {
+        return Map.of("No.", i, "Prediction", "value " + i);
+    }
+
+    @Test
+    void testSizeLimitWhileAppending(@TempDir Path tempDir) throws IOException {
+        File dir = tempDir.toFile();
+        Path file = tempDir.resolve("BCF.cache");
+        PredictionCache cache = PredictionCache.open(dir, "BCF", "1.0", MAX_BYTES);
+        for (int i = 0; i < 1000; i++) {
+            cache.put("C".repeat(i % 20 + 1) + i, record(i));
+            assertTrue(Files.size(file) <= MAX_BYTES);
+        }
+        // the first entries were added, the last ones not
+        assertEquals(record(0), cache.get("C0"));
+        assertNull(cache.get("C".repeat(20) + 999));
+        cache.get("CC1");
+        cache.close();
+
+        // compacted on close to 3/4 of the limit, keeping the most recently used
+        assertTrue(Files.size(file) <= MAX_BYTES / 4 * 3);
+        cache = PredictionCache.open(dir, "BCF", "1.0", MAX_BYTES);
+        assertEquals(record(1), cache.get("CC1"));
+        assertEquals(record(0), cache.get("C0"));
+        // room for new entries again
+        cache.put("CCO", record(-1));
+        assertEquals(record(-1), cache.get("CCO"));
+        cache.close();
+    }
+}
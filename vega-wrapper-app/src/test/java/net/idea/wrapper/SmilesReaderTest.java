@@ -0,0 +1,93 @@
+package net.idea.wrapper;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SmilesReaderTest {
+
+    // row 3 has no SMILES field: it is counted but not returned
+    private static final String INPUT = "ID\tSMILES\n"
+            + "a\tC\n"
+            + "b\tCC\n"
+            + "c\n"
+            + "d\tCCCC\n"
+            + "e\tCCCCC\n";
+
+    private static List<Integer> rows(SmilesReader reader) throws IOException {
+        List<Integer> rows = new ArrayList<>();
+        SmilesReader.Row row;
+        while ((row = reader.next()) != null) rows.add(row.rowNum);
+        return rows;
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void testShortRowAtShardBoundary(boolean mapped, @TempDir Path tempDir) throws IOException {
+        File input = Files.writeString(tempDir.resolve("in.tsv"), INPUT).toFile();
+        // shard 1 ends at row 3, the short row; row 4 belongs to shard 2 only
+        try (SmilesReader reader = SmilesReader.open(input, "SMILES", "ID", mapped)) {
+            reader.setMaxRows(3);
+            assertEquals(List.of(1, 2), rows(reader));
+            assertEquals(3, reader.getRowNum());
+        }
+        try (SmilesReader reader = SmilesReader.open(input, "SMILES", "ID", mapped)) {
+            reader.skipTo(3);
+            reader.setMaxRows(5);
+            assertEquals(List.of(4, 5), rows(reader));
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void testNoMaxRows(boolean mapped, @TempDir Path tempDir) throws IOException {
+        File input = Files.writeString(tempDir.resolve("in.tsv"), INPUT).toFile();
+        try (SmilesReader reader = SmilesReader.open(input, "SMILES", "ID", mapped)) {
+            reader.setMaxRows(2);
+            assertEquals(List.of(1, 2), rows(reader));
+            // lifted: the rest of the input
+            reader.setMaxRows(0);
+            assertEquals(List.of(4, 5), rows(reader));
+        }
+    }
+
+    @Test
+    void testRowIndexFile(@TempDir Path tempDir) throws IOException {
+        StringBuilder text = new StringBuilder("ID\tSMILES\n");
+        for (int i = 1; i <= 1000; i++) {
+            text.append(i % 7 == 0 ? "\n" : "").append(i).append('\t').append("C".repeat(i % 5 + 1)).append('\n');
+        }
+        File input = Files.writeString(tempDir.resolve("in.tsv"), text).toFile();
+        File index = new File(input.getPath() + ".idx");
+        try (MappedTsvSmilesReader reader = new MappedTsvSmilesReader(input, "SMILES", "ID", StandardCharsets.UTF_8)) {
+            reader.skipTo(700);
+            assertEquals("701", reader.next().id);
+        }
+        assertTrue(index.isFile());
+        // read from the index file
+        try (MappedTsvSmilesReader reader = new MappedTsvSmilesReader(input, "SMILES", "ID", StandardCharsets.UTF_8)) {
+            reader.skipTo(999);
+            assertEquals("1000", reader.next().id);
+            assertNull(reader.next());
+        }
+        // an index of another version of the file is rebuilt
+        Files.writeString(input.toPath(), "ID\tSMILES\nx\tC\n" + text.substring(text.indexOf("\n") + 1));
+        assertTrue(input.setLastModified(System.currentTimeMillis() + 10_000));
+        try (MappedTsvSmilesReader reader = new MappedTsvSmilesReader(input, "SMILES", "ID", StandardCharsets.UTF_8)) {
+            // rows are one later, the offsets of the old index 4 bytes off
+            reader.skipTo(701);
+            assertEquals("701", reader.next().id);
+        }
+    }
+}
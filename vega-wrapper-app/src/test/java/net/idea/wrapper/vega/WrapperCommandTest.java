@@ -0,0 +1,82 @@
+package net.idea.wrapper.vega;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.idea.wrapper.DuplicateRows;
+import net.idea.wrapper.SmilesReader;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WrapperCommandTest {
+
+    private static final String INPUT = "ID\tSMILES\n"
+            + "a\tSPIN\n"
+            + "b\tCC\n"
+            + "c\tSPIN\n"
+            + "d\tX\n"
+            + "e\tSPIN\n"
+            + "f\tX\n";
+
+    private static DuplicateRows<WrapperCommand.Outcome> scan(File input) throws IOException {
+        try (SmilesReader reader = SmilesReader.open(input, "SMILES", "ID", false)) {
+            return DuplicateRows.scan(reader, 0, DuplicateRows.Mode.EXACT);
+        }
+    }
+
+    private static Map<String, Object> errorRecord(SmilesReader.Row row, String message) {
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("No.", row.rowNum);
+        record.put("ID", row.id);
+        record.put("SMILES", row.smiles);
+        record.put("report_txt_struct_remarks", message);
+        record.put("STATUS", -1);
+        return record;
+    }
+
+    @Test
+    void testReuseTimedOutAndFailed(@TempDir Path tempDir) throws IOException {
+        File input = Files.writeString(tempDir.resolve("in.tsv"), INPUT).toFile();
+        DuplicateRows<WrapperCommand.Outcome> dups = scan(input);
+        try (SmilesReader reader = SmilesReader.open(input, "SMILES", "ID", false)) {
+            // row 1 times out
+            SmilesReader.Row row = reader.next();
+            assertNull(WrapperCommand.reuse(dups, dups.key(row.smiles), row));
+            dups.processed(dups.key(row.smiles), new WrapperCommand.Outcome(errorRecord(row, "Timed out after 2.0 s"), true, true));
+            row = reader.next();
+            dups.processed(dups.key(row.smiles), null);
+
+            // row 3, a duplicate: the timeout record with its own No. and ID, not predicted again
+            row = reader.next();
+            WrapperCommand.Outcome reused = WrapperCommand.reuse(dups, dups.key(row.smiles), row);
+            assertNotNull(reused);
+            assertTrue(reused.error);
+            assertTrue(reused.timedOut);
+            assertEquals(3, reused.record.get("No."));
+            assertEquals("c", reused.record.get("ID"));
+            assertEquals("Timed out after 2.0 s", reused.record.get("report_txt_struct_remarks"));
+            dups.processed(dups.key(row.smiles), null);
+
+            // row 4 fails, nothing written: its duplicate at row 6 is a failure too
+            row = reader.next();
+            dups.processed(dups.key(row.smiles), new WrapperCommand.Outcome(null, true, false));
+            row = reader.next();
+            assertEquals(5, WrapperCommand.reuse(dups, dups.key(row.smiles), row).record.get("No."));
+            dups.processed(dups.key(row.smiles), null);
+            row = reader.next();
+            reused = WrapperCommand.reuse(dups, dups.key(row.smiles), row);
+            assertNotNull(reused);
+            assertTrue(reused.error);
+            assertFalse(reused.timedOut);
+            assertNull(reused.record);
+        }
+        assertTrue(dups.summary().contains("3 rows reused"));
+    }
+}